@@ -0,0 +1,122 @@
+package org.aueb.bench;
+
+import org.aueb.util.DateProcessing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the SimpleDateFormat-based date handling that DateProcessing used to have with its epoch-day fast path.
+ * Run with -prof gc to see the allocation rate of both versions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DateProcessingBenchmark {
+    private static final int RANGES = 1024; // Number of reservation ranges scanned per invocation of the loop benchmarks
+
+    private String firstDate; // Date compared and shifted by the single-call benchmarks
+    private String lastDate; // Date compared by the single-call benchmarks
+    private String[] reservations; // Reservation ranges, as stored by the workers
+    private String periodStart; // First day of the period of the loop benchmarks
+    private String periodEnd; // Last day of the period of the loop benchmarks
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        firstDate = "2024-07-15";
+        lastDate = "2024-08-20";
+        reservations = new String[RANGES];
+        for (int i = 0; i < RANGES; i++) {
+            int start = DateProcessing.toEpochDay("2024-01-01") + random.nextInt(360);
+            reservations[i] = DateProcessing.fromEpochDay(start) + " - " + DateProcessing.fromEpochDay(start + 1 + random.nextInt(14));
+        }
+        periodStart = "2024-03-01";
+        periodEnd = "2024-09-30";
+    }
+
+    @Benchmark
+    public boolean compareDatesLegacy() throws ParseException {
+        return Legacy.compareDates(firstDate, lastDate);
+    }
+
+    @Benchmark
+    public boolean compareDates() throws ParseException {
+        return DateProcessing.compareDates(firstDate, lastDate);
+    }
+
+    @Benchmark
+    public boolean compareEpochDays() {
+        return DateProcessing.toEpochDay(firstDate) <= DateProcessing.toEpochDay(lastDate);
+    }
+
+    @Benchmark
+    public String subtractOneDayLegacy() throws ParseException {
+        return Legacy.subtractOneDay(firstDate);
+    }
+
+    @Benchmark
+    public String subtractOneDay() throws ParseException {
+        return DateProcessing.subtractOneDay(firstDate);
+    }
+
+    /* The reservation scan of reservationByArea, before: split every range and compare with compareDates */
+    @Benchmark
+    public int countWithinPeriodLegacy() throws ParseException {
+        int count = 0;
+        for (String range : reservations) {
+            String[] date = range.split(" - ");
+            if (Legacy.compareDates(periodStart, date[0]) && Legacy.compareDates(date[1], periodEnd)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /* The reservation scan of reservationByArea, after: parse the period once and the ranges in place */
+    @Benchmark
+    public int countWithinPeriod() {
+        int from = DateProcessing.toEpochDay(periodStart);
+        int to = DateProcessing.toEpochDay(periodEnd);
+        int count = 0;
+        for (String range : reservations) {
+            if (DateProcessing.isWithin(DateProcessing.rangeStart(range), DateProcessing.rangeEnd(range), from, to)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /* The previous implementation of DateProcessing, kept as the baseline */
+    private static class Legacy {
+        static boolean compareDates(String firstDate, String lastDate) throws ParseException {
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+            Date date1 = sdf.parse(firstDate);
+            Date date2 = sdf.parse(lastDate);
+            return date1.equals(date2) || date1.before(date2);
+        }
+
+        static String subtractOneDay(String date) throws ParseException {
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+            Date parsedDate = sdf.parse(date);
+            parsedDate.setTime(parsedDate.getTime() - (1000 * 60 * 60 * 24));
+            return sdf.format(parsedDate);
+        }
+    }
+}
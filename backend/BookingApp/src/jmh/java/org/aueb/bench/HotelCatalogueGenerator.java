@@ -0,0 +1,123 @@
+package org.aueb.bench;
+
+import org.aueb.entities.Hotel;
+import org.aueb.util.DateProcessing;
+import org.aueb.worker.HotelStore;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic hotel catalogues of any size, for the benchmarks and for loading a local deployment.
+ * The same count and seed always produce the same catalogue, so measurements taken on different commits are comparable.
+ * <p>
+ * Hotels are named "Hotel-0", "Hotel-1", ... and spread over a fixed set of areas. They belong to the managers
+ * of the default users (ids 1 to 3) and carry reservations of the default clients (ids 4 and 5), all within 2024.
+ * <p>
+ * Usage: java -cp target/benchmarks.jar org.aueb.bench.HotelCatalogueGenerator &lt;count&gt; &lt;output file&gt; [seed]
+ */
+public class HotelCatalogueGenerator {
+    public static final String[] AREAS = {"Athens", "Thessaloniki", "Crete", "Kos", "Rhodes", "Mykonos", "Santorini", "Corfu", "Naxos", "Patras"}; // Areas of the generated hotels
+    public static final long DEFAULT_SEED = 42; // Seed used when none is given
+    private static final int FIRST_DAY = DateProcessing.toEpochDay("2024-01-01"); // First day of the generated dates
+    private static final int DAYS = 366; // Number of days of the generated dates
+    private static final int[] MANAGER_IDS = {1, 2, 3}; // Ids of the default managers
+    private static final int[] CLIENT_IDS = {4, 5}; // Ids of the default clients
+
+    /**
+     * Generates a single hotel.
+     *
+     * @param index The index of the hotel, which determines its name.
+     * @param random The source of the attributes of the hotel.
+     * @return The hotel.
+     */
+    public static Hotel hotel(int index, Random random) {
+        List<String> availableDates = new ArrayList<>();
+        int ranges = 1 + random.nextInt(3);
+        for (int i = 0; i < ranges; i++) {
+            availableDates.add(range(random, 7 + random.nextInt(45)));
+        }
+        Hotel hotel = new Hotel(
+                "Hotel-" + index,
+                1 + random.nextInt(8),
+                AREAS[random.nextInt(AREAS.length)],
+                Math.round((1 + random.nextDouble() * 4) * 100) / 100.0,
+                random.nextInt(500),
+                "hotel" + (index % 10) + ".png",
+                (double) (50 + random.nextInt(20) * 50),
+                availableDates,
+                MANAGER_IDS[random.nextInt(MANAGER_IDS.length)]
+        );
+        for (int clientId : CLIENT_IDS) {
+            int reservations = random.nextInt(3);
+            for (int i = 0; i < reservations; i++) {
+                hotel.addReservations(clientId, range(random, 1 + random.nextInt(14)));
+            }
+        }
+        return hotel;
+    }
+
+    /**
+     * Generates a catalogue directly into a hotel store, without going through JSON.
+     *
+     * @param count The number of hotels.
+     * @param seed The seed of the catalogue.
+     * @return A store holding the hotels.
+     */
+    public static HotelStore store(int count, long seed) {
+        Random random = new Random(seed);
+        List<Hotel> hotels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hotels.add(hotel(i, random));
+        }
+        HotelStore store = new HotelStore();
+        store.addAll(hotels);
+        return store;
+    }
+
+    /**
+     * Writes a catalogue in the format of bin/hotel.json. Hotels are written one at a time,
+     * so catalogues of millions of hotels never have to be held in memory as a single JSON document.
+     *
+     * @param count The number of hotels.
+     * @param seed The seed of the catalogue.
+     * @param filePath The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(int count, long seed, String filePath) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            writer.write("{\"hotels\":[");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    writer.write(",\n");
+                }
+                writer.write(hotel(i, random).toJson().toJSONString());
+            }
+            writer.write("]}\n");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: HotelCatalogueGenerator <count> <output file> [seed]");
+            System.exit(1);
+        }
+        int count = Integer.parseInt(args[0]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        write(count, seed, args[1]);
+        System.out.println("Wrote " + count + " hotels to " + args[1]);
+    }
+
+    /* A random range of the given number of days within the generated period */
+    private static String range(Random random, int days) {
+        int first = FIRST_DAY + random.nextInt(DAYS - days);
+        return DateProcessing.fromEpochDay(first) + " - " + DateProcessing.fromEpochDay(first + days - 1);
+    }
+}
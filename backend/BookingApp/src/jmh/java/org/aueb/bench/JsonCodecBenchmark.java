@@ -0,0 +1,94 @@
+package org.aueb.bench;
+
+import org.aueb.entities.Hotel;
+import org.aueb.util.Request;
+import org.aueb.util.Response;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversions to and from JSON that every message between the components goes through.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonCodecBenchmark {
+    private static final int RESULT_HOTELS = 100; // Number of hotels in the body of the search response
+
+    private Hotel hotel; // A hotel with a few ranges and reservations
+    private Request search; // A search request, as sent from the Master to the workers
+    private String searchString; // The search request as a string
+    private Response results; // A search response with RESULT_HOTELS hotels, as sent from the Reducer to the Master
+    private String resultsString; // The search response as a string
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(HotelCatalogueGenerator.DEFAULT_SEED);
+        hotel = HotelCatalogueGenerator.hotel(0, random);
+
+        JSONObject body = new JSONObject();
+        body.put("user_role", "Client");
+        body.put("area", "Athens");
+        body.put("date", "2024-06-10 - 2024-06-12");
+        body.put("numPeople", 2L);
+        body.put("price", 500.0);
+        body.put("stars", 3.0);
+        search = new Request(1L, "1", body);
+        searchString = search.toJSONString();
+
+        JSONArray hotels = new JSONArray();
+        for (int i = 0; i < RESULT_HOTELS; i++) {
+            hotels.add(HotelCatalogueGenerator.hotel(i, random).toJson());
+        }
+        JSONObject merged = new JSONObject();
+        merged.put("results", hotels);
+        results = new Response(1L, search.getRequestId(), "", Response.Status.SUCCESS, "Found results", merged);
+        resultsString = results.toJSONString();
+    }
+
+    @Benchmark
+    public JSONObject hotelToJson() {
+        return hotel.toJson();
+    }
+
+    @Benchmark
+    public String hotelToJSONString() {
+        return hotel.toJson().toJSONString();
+    }
+
+    @Benchmark
+    public Request requestRoundTrip() {
+        return Request.fromJSONString(search.toJSONString());
+    }
+
+    @Benchmark
+    public Request requestParse() {
+        return Request.fromJSONString(searchString);
+    }
+
+    @Benchmark
+    public Response responseRoundTrip() {
+        return Response.fromJSONString(results.toJSONString());
+    }
+
+    @Benchmark
+    public Response responseParse() {
+        return Response.fromJSONString(resultsString);
+    }
+}
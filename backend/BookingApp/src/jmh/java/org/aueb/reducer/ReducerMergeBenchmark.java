@@ -0,0 +1,112 @@
+package org.aueb.reducer;
+
+import org.aueb.bench.HotelCatalogueGenerator;
+import org.aueb.util.SortOrder;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the Reducer merges the partial results of the workers for a fan-out request.
+ * The partial results are the bodies the workers send, so the measurement includes parsing them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReducerMergeBenchmark {
+    private static final int WORKERS = 3; // Number of partial results per request
+
+    @Param({"10", "1000"})
+    public int hotelsPerWorker; // Number of hotels in the partial result of each worker
+
+    private List<String> searchResults; // Partial results of a search
+    private List<String> areaResults; // Partial results of a reservations-by-area request
+    private List<String> sortedResults; // Partial results of a search sorted by price, one full page per worker
+    private SortOrder cheapestFirst; // Order of the sorted search
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(HotelCatalogueGenerator.DEFAULT_SEED);
+        searchResults = new ArrayList<>();
+        areaResults = new ArrayList<>();
+        sortedResults = new ArrayList<>();
+        JSONObject sortBody = new JSONObject();
+        sortBody.put("sort", "price");
+        sortBody.put("limit", (long) hotelsPerWorker);
+        cheapestFirst = SortOrder.fromRequest(sortBody);
+        for (int worker = 0; worker < WORKERS; worker++) {
+            JSONArray hotels = new JSONArray();
+            for (int i = 0; i < hotelsPerWorker; i++) {
+                hotels.add(HotelCatalogueGenerator.hotel(worker * hotelsPerWorker + i, random).toJson());
+            }
+            JSONObject search = new JSONObject();
+            search.put("result", hotels);
+            search.put("option", "1");
+            search.put("user_role", "Client");
+            searchResults.add(search.toJSONString());
+
+            List<JSONObject> page = new ArrayList<>(hotels);
+            page.sort(Comparator.<JSONObject>comparingDouble(cheapestFirst::valueOf).thenComparing(hotel -> (String) hotel.get("hotelName")));
+            JSONArray sortedHotels = new JSONArray();
+            sortedHotels.addAll(page);
+            JSONObject sorted = new JSONObject();
+            sorted.put("result", sortedHotels);
+            sorted.put("option", "1");
+            sorted.put("user_role", "Client");
+            sorted.put("more", true);
+            cheapestFirst.writeTo(sorted);
+            sortedResults.add(sorted.toJSONString());
+
+            JSONObject counts = new JSONObject();
+            for (String area : HotelCatalogueGenerator.AREAS) {
+                counts.put(area, (long) random.nextInt(hotelsPerWorker + 1));
+            }
+            JSONObject byArea = new JSONObject();
+            byArea.put("result", counts);
+            byArea.put("option", "4");
+            byArea.put("user_role", "Manager");
+            areaResults.add(byArea.toJSONString());
+        }
+    }
+
+    @Benchmark
+    public JSONObject mergeWorkerResults() {
+        return ReducerConnectionHandler.mergeWorkerResults(searchResults);
+    }
+
+    @Benchmark
+    public JSONObject mergeWorkerResultsMap() {
+        return ReducerConnectionHandler.mergeWorkerResultsMap(areaResults);
+    }
+
+    /* The k-way merge of the pages of a sorted search, which keeps one page of hotelsPerWorker results */
+    @Benchmark
+    public JSONObject mergeTopResults() {
+        return ReducerConnectionHandler.mergeTopResults(sortedResults, cheapestFirst);
+    }
+
+    /* The merged search as it is sent to the Master */
+    @Benchmark
+    public String mergeWorkerResultsToJSONString() {
+        return ReducerConnectionHandler.mergeWorkerResults(searchResults).toJSONString();
+    }
+}
@@ -0,0 +1,180 @@
+package org.aueb.worker;
+
+import org.aueb.bench.HotelCatalogueGenerator;
+import org.aueb.entities.Hotel;
+import org.aueb.util.DateProcessing;
+import org.aueb.util.Request;
+import org.aueb.util.Response;
+import org.aueb.util.SortOrder;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the request logic of a worker on synthetic catalogues, without sockets.
+ * The catalogue is generated with HotelCatalogueGenerator and its default seed, so runs on different commits see the same hotels.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g"})
+@State(Scope.Thread)
+public class WorkerConnectionHandlerBenchmark {
+    private static final long CLIENT_ID = 4; // Client that makes the bookings
+    private static final int BOOKINGS = 1024; // Number of distinct bookings cycled through by makeReservation
+
+    @Param({"1000", "100000", "1000000"})
+    public int hotelCount; // Number of hotels of the worker
+
+    private HotelStore store; // Hotels of the worker
+    private WorkerConnectionHandler handler; // Handler without connections
+    private Request searchByArea; // Search with an area filter only, which matches about a tenth of the hotels
+    private Request searchAllFilters; // Search with every filter set, which matches few hotels
+    private Request searchTopRated; // Search for the best rated hotels, about 2% of the catalogue
+    private Request searchByDate; // Search with a date range only, for the hotels free on three nights of June
+    private int[] dateRange; // The days of searchByDate, as epoch days
+    private SortOrder cheapestFirst; // The first page of a search sorted by price
+    private Request byArea; // Reservations by area over most of the year
+    private Request[] bookings; // One-night bookings of the first available night of random hotels
+    private int nextBooking; // Index of the booking made by the next makeReservation call
+
+    @Setup
+    public void setUp() {
+        store = HotelCatalogueGenerator.store(hotelCount, HotelCatalogueGenerator.DEFAULT_SEED);
+        handler = new WorkerConnectionHandler(store, 1);
+
+        JSONObject areaBody = new JSONObject();
+        areaBody.put("area", "Athens");
+        searchByArea = new Request(1L, "1", areaBody);
+
+        JSONObject filtersBody = new JSONObject();
+        filtersBody.put("area", "Athens");
+        filtersBody.put("date", "2024-06-10 - 2024-06-12");
+        filtersBody.put("numPeople", 2L);
+        filtersBody.put("price", 500.0);
+        filtersBody.put("stars", 3.0);
+        searchAllFilters = new Request(1L, "1", filtersBody);
+
+        JSONObject topRatedBody = new JSONObject();
+        topRatedBody.put("stars", 4.9);
+        searchTopRated = new Request(1L, "1", topRatedBody);
+
+        JSONObject dateBody = new JSONObject();
+        dateBody.put("date", "2024-06-10 - 2024-06-12");
+        searchByDate = new Request(1L, "1", dateBody);
+        dateRange = new int[]{DateProcessing.toEpochDay("2024-06-10"), DateProcessing.toEpochDay("2024-06-12")};
+
+        JSONObject sortBody = new JSONObject();
+        sortBody.put("sort", "price");
+        cheapestFirst = SortOrder.fromRequest(sortBody);
+
+        JSONObject periodBody = new JSONObject();
+        periodBody.put("Period", "2024-03-01 - 2024-09-30");
+        byArea = new Request(1L, "4", periodBody);
+
+        Random random = new Random(7);
+        List<Hotel> hotels = store.getHotels();
+        bookings = new Request[BOOKINGS];
+        for (int i = 0; i < BOOKINGS; i++) {
+            Hotel hotel = hotels.get(random.nextInt(hotels.size()));
+            int checkIn = DateProcessing.rangeStart(hotel.getAvailableDates().get(0));
+            JSONObject body = new JSONObject();
+            body.put("hotelName", hotel.getHotelName());
+            body.put("Reservation dates", DateProcessing.fromEpochDay(checkIn) + " - " + DateProcessing.fromEpochDay(checkIn + 1));
+            body.put("user_id", CLIENT_ID);
+            bookings[i] = new Request(1L, "2", body);
+        }
+    }
+
+    @Benchmark
+    public List<JSONObject> filterHotelsByArea() {
+        return handler.filterHotels(searchByArea);
+    }
+
+    @Benchmark
+    public List<JSONObject> filterHotelsAllFilters() {
+        return handler.filterHotels(searchAllFilters);
+    }
+
+    @Benchmark
+    public List<JSONObject> filterHotelsTopRated() {
+        return handler.filterHotels(searchTopRated);
+    }
+
+    @Benchmark
+    public List<JSONObject> filterHotelsByDate() {
+        return handler.filterHotels(searchByDate);
+    }
+
+    /* The first page of searchByArea sorted by price, kept in a bounded heap at the worker */
+    @Benchmark
+    public JSONArray filterHotelsByAreaTopK() {
+        return handler.sortHotels(searchByArea, cheapestFirst).toJson(store);
+    }
+
+    /* The same page taken from every match of searchByArea sorted in full, for comparison */
+    @Benchmark
+    public List<JSONObject> filterHotelsByAreaFullSort() {
+        List<JSONObject> sorted = new ArrayList<>(handler.filterHotels(searchByArea));
+        sorted.sort(Comparator.<JSONObject>comparingDouble(cheapestFirst::valueOf).thenComparing(hotel -> (String) hotel.get("hotelName")));
+        return sorted.subList(0, Math.min(cheapestFirst.getLimit(), sorted.size()));
+    }
+
+    /* The predicates of filterHotelsAllFilters that the store evaluates, without the dates and the JSON */
+    @Benchmark
+    public int[] selectAllFilters() {
+        return store.select("Athens", 2, 500.0, 3.0);
+    }
+
+    /* The availability index part of filterHotelsByDate, without confirming the hotels and the JSON */
+    @Benchmark
+    public int[] selectByDate() {
+        return store.select(null, null, null, null, dateRange);
+    }
+
+    @Benchmark
+    public Response reservationByArea() throws ParseException {
+        return handler.reservationByArea(byArea);
+    }
+
+    /*
+     * Books one night and then gives it back, so every call takes the successful path however long the benchmark runs.
+     * The undo is a merge into the availability and a list removal, small next to the booking itself.
+     */
+    @Benchmark
+    public Response makeReservation() throws ParseException {
+        Request booking = bookings[nextBooking];
+        nextBooking = (nextBooking + 1) % BOOKINGS;
+        Response response = handler.makeReservation(booking);
+
+        Hotel hotel = store.find((String) booking.getBody().get("hotelName"));
+        int checkIn = DateProcessing.rangeStart((String) booking.getBody().get("Reservation dates"));
+        store.addAvailableDates(hotel, checkIn, checkIn);
+        Map<Integer, List<String>> reservations = hotel.getReservations();
+        List<String> dates = reservations.get((int) CLIENT_ID);
+        dates.remove(dates.size() - 1);
+        if (dates.isEmpty()) {
+            reservations.remove((int) CLIENT_ID);
+        }
+        return response;
+    }
+}
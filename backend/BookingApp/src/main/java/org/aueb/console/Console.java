@@ -376,6 +376,7 @@ public class Console {
     /**
      * Filters hotels based on user-specified criteria such as area, dates, price, etc.
      * Collects filter parameters from the user and sends them to the server for processing.
+     * The results are streamed, so the hotels of the fastest workers are printed while the others are still searching.
      *
      * @throws IOException If there is an error communicating with the server.
      */
@@ -477,20 +478,28 @@ public class Console {
         filter.put("type", "1");
 
         filter.put("filters", selectedFilters);
+        filter.put("stream", true); // Results arrive in chunks, printed as soon as each one arrives
 
 
         SocketUtils.safeSend(this.outputStream, filter.toJSONString());
 
-        Response response = Response.fromJSONString(SocketUtils.safeReceive(this.inputStream));
-
-        JSONObject body = response.getBody();
-        if (body != null) {
-            JSONArray hotels = (JSONArray) body.get("results");
-
-            System.out.println();
-            System.out.println("Results: ");
-            System.out.println();
-            // print all hotels
+        Response response;
+        JSONObject body;
+        boolean first = true;
+        do {
+            response = Response.fromJSONString(SocketUtils.safeReceive(this.inputStream));
+            body = response.getBody();
+            JSONArray hotels = body == null ? null : (JSONArray) body.get("results");
+            if (hotels == null || hotels.isEmpty()) {
+                continue;
+            }
+            if (first) {
+                System.out.println();
+                System.out.println("Results: ");
+                System.out.println();
+                first = false;
+            }
+            // print the hotels of the chunk
             for (Object hotel : hotels) {
                 JSONObject hotelObj = (JSONObject) hotel;
                 hotelObj.remove("manager_id");
@@ -505,8 +514,8 @@ public class Console {
                 System.out.println("Number of Reviews: " + hotelObj.get("numReviews"));
                 System.out.println("-------------------------------------------------");
             }
-        }
-        else {
+        } while (body != null && body.get("sequence") != null && !Boolean.TRUE.equals(body.get("last"))); // An error ends the stream too
+        if (first) {
             System.out.println(response.getMessage());
             System.out.println();
         }
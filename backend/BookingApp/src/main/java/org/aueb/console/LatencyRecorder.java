@@ -0,0 +1,73 @@
+package org.aueb.console;
+
+import java.util.Arrays;
+
+/**
+ * Records the latencies of one type of request and computes their percentiles.
+ * Every sample is kept, so percentiles are exact; a recorder is written by a single load session
+ * and the recorders of all sessions are merged for the report. Not thread-safe.
+ */
+public class LatencyRecorder {
+    private long[] samples = new long[1024]; // Recorded latencies in nanoseconds
+    private int count; // Number of recorded latencies
+    private int unsuccessful; // Number of requests answered with an UNSUCCESSFUL status
+    private boolean sorted = true; // Whether the samples are in ascending order
+
+    /**
+     * Records the latency of a request.
+     *
+     * @param nanos The time from sending the request to receiving its response, in nanoseconds.
+     * @param successful False if the response had an UNSUCCESSFUL status.
+     */
+    public void record(long nanos, boolean successful) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+        if (!successful) {
+            unsuccessful++;
+        }
+        sorted = false;
+    }
+
+    /**
+     * Adds the samples of another recorder to this one.
+     *
+     * @param other The recorder to merge.
+     */
+    public void merge(LatencyRecorder other) {
+        if (count + other.count > samples.length) {
+            samples = Arrays.copyOf(samples, Math.max(count + other.count, samples.length * 2));
+        }
+        System.arraycopy(other.samples, 0, samples, count, other.count);
+        count += other.count;
+        unsuccessful += other.unsuccessful;
+        sorted = false;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getUnsuccessful() {
+        return unsuccessful;
+    }
+
+    /**
+     * Returns a percentile of the recorded latencies, using the nearest-rank method.
+     *
+     * @param percentile The percentile, between 0 (exclusive) and 100 (inclusive), e.g. 99.9.
+     * @return The latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        if (!sorted) {
+            Arrays.sort(samples, 0, count);
+            sorted = true;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return samples[Math.min(Math.max(rank, 1), count) - 1];
+    }
+}
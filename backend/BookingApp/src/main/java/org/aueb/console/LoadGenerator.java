@@ -0,0 +1,439 @@
+package org.aueb.console;
+
+import org.aueb.util.DateProcessing;
+import org.aueb.util.Response;
+import org.aueb.util.SocketUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The LoadGenerator is a headless client that loads a running Master, Workers and Reducer through the client port,
+ * speaking the same protocol as the Console. It opens a number of concurrent sessions, logs them in (or registers
+ * new users), and has each of them send a weighted mix of requests back to back for a fixed time.
+ * At the end it reports the throughput and the p50/p99/p999 latency of every type of request.
+ * <p>
+ * Bookings and ratings change the catalogue and are journaled like any other, so run it against a copy of the data.
+ * <p>
+ * Usage: java -cp target/classes:bin/json-simple-1.1.1.jar org.aueb.console.LoadGenerator [options]
+ * <pre>
+ *   --host &lt;host&gt;            Master host (default localhost)
+ *   --port &lt;port&gt;            Master client port (default 8000)
+ *   --sessions &lt;n&gt;           Concurrent sessions (default 16)
+ *   --duration &lt;seconds&gt;     Measured time (default 30)
+ *   --warmup &lt;seconds&gt;       Time before measuring starts (default 5)
+ *   --think &lt;millis&gt;         Pause of a session between two requests (default 0)
+ *   --mix &lt;type=weight,...&gt;  Request mix over search, book, rate, list and byArea (default search=40,book=10,rate=10,list=30,byArea=10)
+ *   --client &lt;user:password&gt; Client to log in as (default sambo:2003)
+ *   --manager &lt;user:password&gt; Manager to log in as, for byArea (default mariab:1111)
+ *   --register               Register a new client and manager per session instead of logging in
+ *   --stream                 Ask for searches and lists to be streamed, and also report the time to their first chunk
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final int SOCKET_TIMEOUT_MILLIS = 30000; // Time after which an unanswered request fails its session
+
+    private String host = "localhost"; // Master host
+    private int port = 8000; // Master client port
+    private int sessions = 16; // Number of concurrent sessions
+    private int durationSeconds = 30; // Measured time
+    private int warmupSeconds = 5; // Time before measuring starts
+    private int thinkMillis = 0; // Pause between two requests of a session
+    private final Map<RequestType, Integer> mix = new EnumMap<>(RequestType.class); // Weight of every type of request
+    private String[] client = {"sambo", "2003"}; // Credentials of the client
+    private String[] manager = {"mariab", "1111"}; // Credentials of the manager
+    private boolean register = false; // Whether every session registers new users
+    private boolean stream = false; // Whether searches and lists ask for streamed results
+
+    private final List<HotelInfo> hotels = new ArrayList<>(); // Hotels of the catalogue, discovered before the run
+    private final List<String> areas = new ArrayList<>(); // Areas of the catalogue
+    private String period; // Period that spans all available dates, used by byArea
+    private final AtomicInteger failedSessions = new AtomicInteger(); // Sessions that stopped because of an error
+
+    /**
+     * The types of requests the generator sends, with the role that sends them.
+     */
+    enum RequestType {
+        SEARCH("search", false),
+        BOOK("book", false),
+        RATE("rate", false),
+        LIST("list", false),
+        BY_AREA("byArea", true);
+
+        private final String label; // Name of the type in the mix and in the report
+        private final boolean manager; // Whether the request is sent by a manager
+
+        RequestType(String label, boolean manager) {
+            this.label = label;
+            this.manager = manager;
+        }
+
+        static RequestType fromLabel(String label) {
+            for (RequestType type : values()) {
+                if (type.label.equalsIgnoreCase(label)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown request type in mix: " + label);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parseArguments(args);
+        generator.run();
+    }
+
+    /* Parses the command line options */
+    private void parseArguments(String[] args) {
+        String mixOption = "search=40,book=10,rate=10,list=30,byArea=10";
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--register")) {
+                register = true;
+                continue;
+            }
+            if (option.equals("--stream")) {
+                stream = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--host" -> host = value;
+                case "--port" -> port = Integer.parseInt(value);
+                case "--sessions" -> sessions = Integer.parseInt(value);
+                case "--duration" -> durationSeconds = Integer.parseInt(value);
+                case "--warmup" -> warmupSeconds = Integer.parseInt(value);
+                case "--think" -> thinkMillis = Integer.parseInt(value);
+                case "--mix" -> mixOption = value;
+                case "--client" -> client = value.split(":", 2);
+                case "--manager" -> manager = value.split(":", 2);
+                default -> throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        for (String entry : mixOption.split(",")) {
+            String[] weight = entry.trim().split("=");
+            mix.put(RequestType.fromLabel(weight[0].trim()), Integer.parseInt(weight[1].trim()));
+        }
+    }
+
+    /* Discovers the catalogue, runs all sessions and prints the report */
+    private void run() throws Exception {
+        discoverCatalogue();
+        long start = System.nanoTime();
+        long measureFrom = start + warmupSeconds * 1_000_000_000L;
+        long measureUntil = measureFrom + durationSeconds * 1_000_000_000L;
+
+        List<LoadSession> loadSessions = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            LoadSession session = new LoadSession(i, measureFrom, measureUntil);
+            loadSessions.add(session);
+            Thread thread = new Thread(session, "load-session-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Map<RequestType, LatencyRecorder> results = new EnumMap<>(RequestType.class);
+        Map<RequestType, LatencyRecorder> firstChunks = new EnumMap<>(RequestType.class);
+        for (LoadSession session : loadSessions) {
+            session.latencies.forEach((type, recorder) -> results.computeIfAbsent(type, t -> new LatencyRecorder()).merge(recorder));
+            session.firstChunkLatencies.forEach((type, recorder) -> firstChunks.computeIfAbsent(type, t -> new LatencyRecorder()).merge(recorder));
+        }
+        printReport(results, firstChunks);
+    }
+
+    /* Lists the hotels once, so that bookings, ratings and searches refer to hotels and areas that exist */
+    private void discoverCatalogue() throws IOException {
+        try (Connection connection = new Connection()) {
+            connection.login(client, "Client", "load-discovery");
+            JSONObject request = new JSONObject();
+            request.put("type", "4");
+            Response response = connection.call(request);
+            if (response.getBody() == null) {
+                throw new IllegalStateException("The catalogue is empty: " + response.getMessage());
+            }
+            TreeSet<String> areaNames = new TreeSet<>();
+            int first = Integer.MAX_VALUE;
+            int last = Integer.MIN_VALUE;
+            for (Object object : (JSONArray) response.getBody().get("results")) {
+                JSONObject hotel = (JSONObject) object;
+                HotelInfo info = new HotelInfo((String) hotel.get("hotelName"));
+                for (Object range : (JSONArray) hotel.get("availableDates")) {
+                    int start = DateProcessing.rangeStart((String) range);
+                    int end = DateProcessing.rangeEnd((String) range);
+                    info.ranges.add(new int[]{start, end});
+                    first = Math.min(first, start);
+                    last = Math.max(last, end);
+                }
+                hotels.add(info);
+                areaNames.add((String) hotel.get("area"));
+            }
+            areas.addAll(areaNames);
+            period = first <= last
+                    ? DateProcessing.fromEpochDay(first) + " - " + DateProcessing.fromEpochDay(last)
+                    : "2024-01-01 - 2024-12-31";
+        }
+        System.out.println("Catalogue: " + hotels.size() + " hotels in " + areas.size() + " areas");
+    }
+
+    /* Prints the throughput and latency percentiles of every type of request, and of the first chunks of streamed ones */
+    private void printReport(Map<RequestType, LatencyRecorder> results, Map<RequestType, LatencyRecorder> firstChunks) {
+        System.out.println();
+        System.out.println(sessions + " sessions, " + durationSeconds + " s measured after " + warmupSeconds + " s of warm-up"
+                + (failedSessions.get() > 0 ? ", " + failedSessions.get() + " sessions failed" : ""));
+        System.out.printf("%-8s %9s %13s %9s %9s %9s %9s%n", "type", "requests", "unsuccessful", "req/s", "p50 ms", "p99 ms", "p999 ms");
+        LatencyRecorder total = new LatencyRecorder();
+        for (Map.Entry<RequestType, LatencyRecorder> entry : results.entrySet()) {
+            printRow(entry.getKey().label, entry.getValue());
+            total.merge(entry.getValue());
+        }
+        printRow("total", total);
+        if (!firstChunks.isEmpty()) {
+            System.out.println("First chunk of the streamed responses:");
+            for (Map.Entry<RequestType, LatencyRecorder> entry : firstChunks.entrySet()) {
+                printRow(entry.getKey().label, entry.getValue());
+            }
+        }
+    }
+
+    private void printRow(String label, LatencyRecorder recorder) {
+        System.out.printf("%-8s %9d %13d %9.1f %9.2f %9.2f %9.2f%n", label, recorder.getCount(), recorder.getUnsuccessful(),
+                recorder.getCount() / (double) durationSeconds,
+                recorder.percentile(50) / 1e6, recorder.percentile(99) / 1e6, recorder.percentile(99.9) / 1e6);
+    }
+
+    /**
+     * A simulated user: sends requests of the mix back to back, over a client connection and, if the mix
+     * contains manager requests, a manager connection. Latencies are only recorded inside the measured time.
+     */
+    private class LoadSession implements Runnable {
+        private final int index; // Index of the session, used to name registered users
+        private final long measureFrom; // Time from which latencies are recorded
+        private final long measureUntil; // Time at which the session stops
+        private final Map<RequestType, LatencyRecorder> latencies = new EnumMap<>(RequestType.class); // Latencies by type
+        private final Map<RequestType, LatencyRecorder> firstChunkLatencies = new EnumMap<>(RequestType.class); // Times to the first chunk by type
+        private final RequestType[] types; // Types of the mix
+        private final int[] cumulativeWeights; // Running sum of the weights of the mix
+        private Connection clientConnection; // Connection of the client, if the mix has client requests
+        private Connection managerConnection; // Connection of the manager, if the mix has manager requests
+
+        private LoadSession(int index, long measureFrom, long measureUntil) {
+            this.index = index;
+            this.measureFrom = measureFrom;
+            this.measureUntil = measureUntil;
+            Map<RequestType, Integer> weights = new LinkedHashMap<>();
+            mix.forEach((type, weight) -> {
+                if (weight > 0) {
+                    weights.put(type, weight);
+                }
+            });
+            this.types = weights.keySet().toArray(new RequestType[0]);
+            this.cumulativeWeights = new int[types.length];
+            int sum = 0;
+            for (int i = 0; i < types.length; i++) {
+                sum += weights.get(types[i]);
+                cumulativeWeights[i] = sum;
+            }
+        }
+
+        public void run() {
+            try {
+                for (RequestType type : types) {
+                    if (type.manager && managerConnection == null) {
+                        managerConnection = new Connection();
+                        managerConnection.login(manager, "Manager", "load-manager-" + index);
+                    } else if (!type.manager && clientConnection == null) {
+                        clientConnection = new Connection();
+                        clientConnection.login(client, "Client", "load-client-" + index);
+                    }
+                }
+                long now;
+                while ((now = System.nanoTime()) < measureUntil) {
+                    RequestType type = nextType();
+                    Connection connection = type.manager ? managerConnection : clientConnection;
+                    Response response = connection.call(buildRequest(type));
+                    long latency = System.nanoTime() - now;
+                    if (now >= measureFrom) {
+                        boolean successful = response.getStatus() != Response.Status.UNSUCCESSFUL;
+                        latencies.computeIfAbsent(type, t -> new LatencyRecorder()).record(latency, successful);
+                        if (connection.chunks > 0) {
+                            firstChunkLatencies.computeIfAbsent(type, t -> new LatencyRecorder())
+                                    .record(connection.firstChunkAt - now, successful);
+                        }
+                    }
+                    if (thinkMillis > 0) {
+                        Thread.sleep(thinkMillis);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                failedSessions.incrementAndGet();
+                System.err.println("Session " + index + " failed: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (clientConnection != null) clientConnection.close();
+                if (managerConnection != null) managerConnection.close();
+            }
+        }
+
+        /* Picks the type of the next request according to the weights of the mix */
+        private RequestType nextType() {
+            int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int i = 0; i < types.length; i++) {
+                if (pick < cumulativeWeights[i]) {
+                    return types[i];
+                }
+            }
+            return types[types.length - 1];
+        }
+
+        /* Builds a request of the given type on random hotels, areas and dates of the catalogue */
+        private JSONObject buildRequest(RequestType type) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            HotelInfo hotel = hotels.get(random.nextInt(hotels.size()));
+            JSONObject request = new JSONObject();
+            switch (type) {
+                case SEARCH -> {
+                    JSONArray filters = new JSONArray();
+                    filters.add("1");
+                    request.put("type", "1");
+                    request.put("area", areas.get(random.nextInt(areas.size())));
+                    if (random.nextBoolean() && !hotel.ranges.isEmpty()) {
+                        filters.add("2");
+                        int[] range = hotel.ranges.get(random.nextInt(hotel.ranges.size()));
+                        request.put("date", DateProcessing.fromEpochDay(random.nextInt(range[0], range[1] + 1)));
+                    }
+                    request.put("filters", filters);
+                    if (stream) {
+                        request.put("stream", true);
+                    }
+                }
+                case BOOK -> {
+                    // A stay of one to three nights inside a range that was available when the catalogue was listed
+                    int checkIn = DateProcessing.toEpochDay("2024-01-01");
+                    int checkOut = checkIn + 1;
+                    if (!hotel.ranges.isEmpty()) {
+                        int[] range = hotel.ranges.get(random.nextInt(hotel.ranges.size()));
+                        checkIn = random.nextInt(range[0], Math.max(range[0], range[1] - 1) + 1);
+                        checkOut = Math.min(range[1], checkIn + 1 + random.nextInt(3));
+                    }
+                    request.put("type", "2");
+                    request.put("hotelName", hotel.name);
+                    request.put("Reservation dates", DateProcessing.fromEpochDay(checkIn) + " - " + DateProcessing.fromEpochDay(checkOut));
+                }
+                case RATE -> {
+                    request.put("type", "3");
+                    request.put("hotelName", hotel.name);
+                    request.put("newRating", (double) random.nextInt(1, 6));
+                }
+                case LIST -> {
+                    request.put("type", "4");
+                    if (stream) {
+                        request.put("stream", true);
+                    }
+                }
+                case BY_AREA -> {
+                    request.put("type", "4");
+                    request.put("Period", period);
+                }
+            }
+            return request;
+        }
+    }
+
+    /**
+     * A connection to the client port of the Master, used for one request at a time.
+     */
+    private class Connection implements AutoCloseable {
+        private final Socket socket; // Connection to the Master
+        private final DataInputStream inputStream; // Stream to read responses
+        private final DataOutputStream outputStream; // Stream to send requests
+        private int chunks; // Number of chunks of the last response, 0 if it was not streamed
+        private long firstChunkAt; // Time the first chunk of the last streamed response arrived
+
+        private Connection() throws IOException {
+            this.socket = SocketUtils.createSocket(host, port);
+            this.socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            this.socket.setTcpNoDelay(true);
+            this.inputStream = SocketUtils.createDataInputStream(socket);
+            this.outputStream = SocketUtils.createDataOutputStream(socket);
+        }
+
+        /* Logs in with the given credentials, or registers a new user of the given role */
+        private void login(String[] credentials, String role, String username) throws IOException {
+            JSONObject request = new JSONObject();
+            if (register) {
+                request.put("type", "register");
+                request.put("name", "Load");
+                request.put("lastname", "Generator");
+                request.put("username", username + "-" + System.nanoTime());
+                request.put("password", "load");
+                request.put("user_role", role);
+            } else {
+                request.put("type", "login");
+                request.put("username", credentials[0]);
+                request.put("password", credentials[1]);
+            }
+            Response response = call(request);
+            if (response.getStatus() != Response.Status.SUCCESS) {
+                throw new IllegalStateException("Cannot log in as " + request.get("username"));
+            }
+        }
+
+        /* Sends a request and waits for its response, reading every chunk of a streamed one and returning the last */
+        private Response call(JSONObject request) throws IOException {
+            SocketUtils.safeSend(outputStream, request.toJSONString());
+            chunks = 0;
+            Response response = Response.fromJSONString(SocketUtils.safeReceive(inputStream));
+            if (!Boolean.TRUE.equals(request.get("stream"))) {
+                return response;
+            }
+            firstChunkAt = System.nanoTime();
+            chunks = 1;
+            // A response that is not a chunk, such as an error, ends the stream too
+            while (response.getBody() != null && response.getBody().get("sequence") != null
+                    && !Boolean.TRUE.equals(response.getBody().get("last"))) {
+                response = Response.fromJSONString(SocketUtils.safeReceive(inputStream));
+                chunks++;
+            }
+            return response;
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /* A hotel of the catalogue and the ranges it had available when it was listed */
+    private static class HotelInfo {
+        private final String name; // Name of the hotel
+        private final List<int[]> ranges = new ArrayList<>(); // Available ranges as first and last epoch day
+
+        private HotelInfo(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.aueb.entities;
+
+import org.aueb.util.DateProcessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The available dates of a hotel, kept as sorted, disjoint ranges of epoch days.
+ * Both ends of a range are inclusive. Overlapping or adjacent ranges are merged when added,
+ * so a containment query is a binary search and a booking splits at most one range.
+ * Dates are only formatted as "yyyy-MM-dd - yyyy-MM-dd" strings when the ranges are sent over the wire.
+ * Not thread-safe: callers that share a hotel guard it with the hotel's lock.
+ */
+public final class AvailabilitySet {
+    private static final String RANGE_SEPARATOR = " - "; // Separates the first and the last date of a range
+    private static final String LIST_SEPARATOR = " , "; // Separates the ranges of a list entered by a manager
+    private int[] starts = new int[4]; // First day of each range, sorted
+    private int[] ends = new int[4]; // Last day of each range
+    private int size; // Number of ranges
+
+    /**
+     * Constructs an empty AvailabilitySet.
+     */
+    public AvailabilitySet() {
+    }
+
+    /**
+     * Constructs an AvailabilitySet from date ranges in the wire format.
+     *
+     * @param ranges The ranges, each as "yyyy-MM-dd - yyyy-MM-dd" or a list of them separated by " , ".
+     * @throws IllegalArgumentException If a range is not two valid dates separated by " - ".
+     */
+    public AvailabilitySet(List<String> ranges) {
+        for (String range : ranges) {
+            add(range);
+        }
+    }
+
+    /**
+     * Adds date ranges in the wire format.
+     *
+     * @param ranges A range as "yyyy-MM-dd - yyyy-MM-dd", or a list of them separated by " , ".
+     * @throws IllegalArgumentException If a range is not two valid dates separated by " - ".
+     */
+    public void add(String ranges) {
+        for (String range : ranges.split(LIST_SEPARATOR)) {
+            String[] dates = range.trim().split(RANGE_SEPARATOR);
+            if (dates.length != 2) {
+                throw new IllegalArgumentException("Invalid date range: " + range);
+            }
+            add(DateProcessing.toEpochDay(dates[0].trim()), DateProcessing.toEpochDay(dates[1].trim()));
+        }
+    }
+
+    /**
+     * Adds the days from first to last, merging them with the ranges they overlap or touch.
+     *
+     * @param first The first day, as an epoch day.
+     * @param last The last day, as an epoch day.
+     */
+    public void add(int first, int last) {
+        if (last < first) {
+            return;
+        }
+        // The ranges from lo (inclusive) to hi (exclusive) overlap or touch the new one
+        int lo = firstEndingAtOrAfter(first - 1);
+        int hi = lo;
+        while (hi < size && starts[hi] <= last + 1) {
+            first = Math.min(first, starts[hi]);
+            last = Math.max(last, ends[hi]);
+            hi++;
+        }
+        replace(lo, hi, first, last);
+    }
+
+    /**
+     * Checks whether every day from first to last is available.
+     *
+     * @param first The first day, as an epoch day.
+     * @param last The last day, as an epoch day.
+     * @return True if a single range contains all the days.
+     */
+    public boolean contains(int first, int last) {
+        int index = firstEndingAtOrAfter(first);
+        return index < size && starts[index] <= first && last <= ends[index];
+    }
+
+    /**
+     * Books a stay. The stay must lie within a single range; the nights from check-in up to the day before
+     * check-out are removed from it, and the check-out day stays available for the next guest.
+     *
+     * @param checkIn The check-in day, as an epoch day.
+     * @param checkOut The check-out day, as an epoch day.
+     * @return True if the stay was available and has been booked, false if nothing changed.
+     */
+    public boolean book(int checkIn, int checkOut) {
+        int index = firstEndingAtOrAfter(checkIn);
+        if (checkOut < checkIn || index >= size || starts[index] > checkIn || checkOut > ends[index]) {
+            return false;
+        }
+        if (checkIn == checkOut) {
+            return true; // No night to remove
+        }
+        int start = starts[index];
+        int end = ends[index];
+        if (checkIn > start) {
+            replace(index, index + 1, start, checkIn - 1);
+            index++;
+            replace(index, index, checkOut, end);
+        } else {
+            replace(index, index + 1, checkOut, end);
+        }
+        return true;
+    }
+
+    /**
+     * @return True if no day is available.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The number of disjoint ranges.
+     */
+    public int rangeCount() {
+        return size;
+    }
+
+    /**
+     * @param index The index of a range, in chronological order.
+     * @return The first day of the range, as an epoch day.
+     */
+    public int rangeStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * @param index The index of a range, in chronological order.
+     * @return The last day of the range, as an epoch day.
+     */
+    public int rangeEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * @return The ranges in the wire format "yyyy-MM-dd - yyyy-MM-dd", in chronological order.
+     */
+    public List<String> toStrings() {
+        List<String> ranges = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ranges.add(DateProcessing.fromEpochDay(starts[i]) + RANGE_SEPARATOR + DateProcessing.fromEpochDay(ends[i]));
+        }
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return toStrings().toString();
+    }
+
+    /* Index of the first range that ends on or after the given day, or size if there is none */
+    private int firstEndingAtOrAfter(int day) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] < day) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /* Replaces the ranges from lo (inclusive) to hi (exclusive) with the single range [first, last] */
+    private void replace(int lo, int hi, int first, int last) {
+        int newSize = size - (hi - lo) + 1;
+        if (newSize > starts.length) {
+            starts = Arrays.copyOf(starts, Math.max(newSize, starts.length * 2));
+            ends = Arrays.copyOf(ends, starts.length);
+        }
+        System.arraycopy(starts, hi, starts, lo + 1, size - hi);
+        System.arraycopy(ends, hi, ends, lo + 1, size - hi);
+        starts[lo] = first;
+        ends[lo] = last;
+        size = newSize;
+    }
+}
@@ -1,6 +1,10 @@
 package org.aueb.entities;
 
 import org.json.simple.JSONObject;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,12 +22,12 @@ public class Hotel {
     private final String hotelName; // name of the hotel
     private final int numPeople; // number of people
     private final String area; // the area of the hotel
-    private double stars; // the stars of the hotel
-    private int numReviews; // number of reviews
+    private volatile double stars; // the stars of the hotel, read without locking by searches
+    private volatile int numReviews; // number of reviews
     private final String hotelImage; // the path of the room image
     private final Double price; // the price of the hotel
     private final int manager_id; // the manager of the hotel
-    private final List<String> availableDates; // available dates
+    private final AvailabilitySet availableDates; // available dates, as ranges of epoch days
 
     // A map to hold reservations with client IDs and their corresponding booking dates
     private Map<Integer, List<String>> reservations;
@@ -38,7 +42,7 @@ public class Hotel {
         this.price = price;
         this.manager_id = manager_id;
         this.id = id_counter.incrementAndGet();
-        this.availableDates = availableDates;
+        this.availableDates = new AvailabilitySet(availableDates);
         reservations = new HashMap<>();
     }
 
@@ -83,7 +87,14 @@ public class Hotel {
         return hotelName;
     }
 
+    /**
+     * @return The available date ranges in the format "yyyy-MM-dd - yyyy-MM-dd", in chronological order.
+     */
     public List<String> getAvailableDates() {
+        return availableDates.toStrings();
+    }
+
+    public AvailabilitySet getAvailability() {
         return availableDates;
     }
 
@@ -95,6 +106,10 @@ public class Hotel {
         this.reservations=reservations;
     }
 
+    /**
+     * Adds available dates, merging them with the ranges they overlap or touch.
+     * @param availableDates A range as "yyyy-MM-dd - yyyy-MM-dd", or a list of them separated by " , ".
+     */
     public void addAvailableDates(String availableDates) {
         this.availableDates.add(availableDates);
     }
@@ -115,6 +130,7 @@ public class Hotel {
 
     /**
      * Converts the hotel object to a JSON object.
+     * The dates are copied, so the result is not affected by later bookings.
      * @return The JSON object representing the hotel.
      */
     public JSONObject toJson() {
@@ -126,18 +142,121 @@ public class Hotel {
         jsonObject.put("numReviews", numReviews);
         jsonObject.put("hotelImage", hotelImage);
         jsonObject.put("price", price);
-        jsonObject.put("availableDates", availableDates);
+        jsonObject.put("availableDates", availableDates.toStrings());
         jsonObject.put("manager_id", manager_id);
 
         JSONObject jsonReservations = new JSONObject();
         for (Map.Entry<Integer, List<String>> entry : reservations.entrySet()) {
-            jsonReservations.put(String.valueOf(entry.getKey()), entry.getValue());
+            jsonReservations.put(String.valueOf(entry.getKey()), new ArrayList<>(entry.getValue()));
         }
 
         jsonObject.put("reservations", jsonReservations);
         return jsonObject;
     }
 
+    /**
+     * Creates a hotel from its JSON representation, as produced by toJson and parsed from a message.
+     * @param hotel The JSON object representing the hotel.
+     * @return The hotel, with its available dates and reservations.
+     */
+    public static Hotel fromJson(JSONObject hotel) {
+        int manager_id = ((Number) hotel.get("manager_id")).intValue();
+        int numPeople = ((Number) hotel.get("numPeople")).intValue();
+        int numReviews = ((Number) hotel.get("numReviews")).intValue();
+        double stars = ((Number) hotel.get("stars")).doubleValue();
+        double price = ((Number) hotel.get("price")).doubleValue();
+        String hotelName = hotel.get("hotelName").toString();
+        String area = hotel.get("area").toString();
+        String roomImage = hotel.get("hotelImage").toString();
+
+        List<String> availableDates = new ArrayList<>();
+        List<?> jsonAvailableDates = (List<?>) hotel.get("availableDates");
+        if (jsonAvailableDates != null) {
+            for (Object dateObj : jsonAvailableDates) {
+                availableDates.add((String) dateObj);
+            }
+        }
+
+        Map<Integer, List<String>> reservations = new HashMap<>();
+        Map<?, ?> reservationsObj = (Map<?, ?>) hotel.get("reservations");
+        if (reservationsObj != null) {
+            for (Map.Entry<?, ?> entry : reservationsObj.entrySet()) {
+                List<String> dateList = new ArrayList<>();
+                if (entry.getValue() != null) {
+                    ((List<?>) entry.getValue()).forEach(date -> dateList.add((String) date));
+                }
+                reservations.put(Integer.parseInt(entry.getKey().toString()), dateList);
+            }
+        }
+
+        Hotel newHotel = new Hotel(hotelName, numPeople, area, stars, numReviews, roomImage, price, availableDates, manager_id);
+        newHotel.setReservations(reservations);
+        return newHotel;
+    }
+
+    /**
+     * Writes the hotel in a compact binary form, read back by readFrom. The dates are written as epoch days,
+     * so nothing is formatted or parsed. The caller holds the hotel's lock, so the result is consistent.
+     * @param out The output to write to.
+     * @throws IOException If the output fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(hotelName);
+        out.writeInt(numPeople);
+        out.writeUTF(area);
+        out.writeDouble(stars);
+        out.writeInt(numReviews);
+        out.writeUTF(hotelImage);
+        out.writeDouble(price);
+        out.writeInt(manager_id);
+        out.writeInt(availableDates.rangeCount());
+        for (int i = 0; i < availableDates.rangeCount(); i++) {
+            out.writeInt(availableDates.rangeStart(i));
+            out.writeInt(availableDates.rangeEnd(i));
+        }
+        out.writeInt(reservations.size());
+        for (Map.Entry<Integer, List<String>> entry : reservations.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String dates : entry.getValue()) {
+                out.writeUTF(dates);
+            }
+        }
+    }
+
+    /**
+     * Reads a hotel written by writeTo.
+     * @param in The input to read from.
+     * @return The hotel, with its available dates and reservations.
+     * @throws IOException If the input fails or ends before the hotel does.
+     */
+    public static Hotel readFrom(DataInput in) throws IOException {
+        String hotelName = in.readUTF();
+        int numPeople = in.readInt();
+        String area = in.readUTF();
+        double stars = in.readDouble();
+        int numReviews = in.readInt();
+        String roomImage = in.readUTF();
+        double price = in.readDouble();
+        int manager_id = in.readInt();
+        Hotel hotel = new Hotel(hotelName, numPeople, area, stars, numReviews, roomImage, price, List.of(), manager_id);
+        int ranges = in.readInt();
+        for (int i = 0; i < ranges; i++) {
+            hotel.availableDates.add(in.readInt(), in.readInt());
+        }
+        int clients = in.readInt();
+        for (int i = 0; i < clients; i++) {
+            int client = in.readInt();
+            int count = in.readInt();
+            List<String> dates = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                dates.add(in.readUTF());
+            }
+            hotel.reservations.put(client, dates);
+        }
+        return hotel;
+    }
+
     /**
      * Adds a reservation to the hotel's reservation list.
      * @param client The client ID
@@ -147,7 +266,7 @@ public class Hotel {
         if(reservations.containsKey(client)) {
             reservations.get(client).add(dates);
         } else {
-            reservations.put(client, List.of(dates));
+            reservations.put(client, new ArrayList<>(List.of(dates)));
         }
     }
 
@@ -1,16 +1,41 @@
 package org.aueb.entities;
 
+import org.aueb.util.FrameCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents a session for a connected client.
  * Each session is identified by a unique ID and is associated with a specific socket connection.
+ * <p>
+ * Messages to the client are encoded into frames and queued; a single writer, a virtual thread started with the first
+ * message, writes them in order. Replies to the client's own requests and results forwarded from the Reducer therefore
+ * share the socket without interleaving, and neither waits for a slow client. The writer takes every frame that has
+ * queued up since its last write and flushes them together, so a burst of messages costs a single write.
  */
 public class Session  {
     private static final AtomicInteger id_counter = new AtomicInteger(0); // counter for session ids
     private final long id; // session id
     private final Socket socket; // socket of the session
+    private static final Logger logger = LoggerFactory.getLogger(Session.class); // Logger for the Session class
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024; // Size of the buffer the writer coalesces frames in
+    private static final long MAX_QUEUED_BYTES = 64L * 1024 * 1024; // Queued bytes beyond which the client is too slow to keep
+    private final LinkedBlockingQueue<ByteBuffer> outbox = new LinkedBlockingQueue<>(); // frames waiting to be written
+    private final AtomicLong queuedBytes = new AtomicLong(); // size of the frames in the outbox
+    private final ReentrantLock writerLock = new ReentrantLock(); // guards the start of the writer
+    private Thread writer; // writer of the frames, started with the first message
+    private volatile boolean closed; // whether the connection has been closed
+    private volatile long lastActivity = System.currentTimeMillis(); // time of the last message received from the client
 
     /**
      * Constructs a new Session with a unique ID and associates it with a specific socket.
@@ -26,4 +51,130 @@ public class Session  {
     public Socket getSocket() {
         return socket;
     }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Records that a message was received from the client, which keeps the session from being evicted as idle.
+     */
+    public void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes the connection of this session. Reads and writes that are in progress on it fail,
+     * and messages that have not been written yet are dropped.
+     */
+    public void close() {
+        closed = true;
+        writerLock.lock();
+        try {
+            if (writer != null) {
+                writer.interrupt();
+            }
+        } finally {
+            writerLock.unlock();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.warn("Error closing session " + id + ": " + e.getMessage()); // The session is closed all the same
+        }
+        outbox.clear();
+    }
+
+    /**
+     * Queues a message for the client of this session; the writer of the session sends it after the messages
+     * queued before it. Messages to a closed session are dropped. A client that falls so far behind that its queued
+     * messages exceed MAX_QUEUED_BYTES is disconnected, rather than holding an unbounded backlog in memory.
+     * @param message The message to send.
+     */
+    public void send(String message) {
+        if (closed) {
+            return;
+        }
+        ByteBuffer frame;
+        try {
+            frame = FrameCodec.encode(message, FrameCodec.FLAG_NONE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (!admit(frame)) {
+            return;
+        }
+        outbox.add(frame);
+        startWriter();
+    }
+
+    /**
+     * @return Whether the connection of this session has been closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Counts a frame that is about to be queued against MAX_QUEUED_BYTES, closing the session if the client has
+     * fallen too far behind. Subclasses that queue frames in an outbox of their own call it before queuing a frame,
+     * and {@link #written} once the frame has been written.
+     * @param frame The encoded frame.
+     * @return True if the frame may be queued, false if it must be dropped because the session is closed.
+     */
+    protected boolean admit(ByteBuffer frame) {
+        if (closed) {
+            return false;
+        }
+        if (queuedBytes.addAndGet(frame.remaining()) > MAX_QUEUED_BYTES) {
+            logger.warn("Closing session " + id + ", the client does not read its messages");
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that queued bytes have been written to the client.
+     * @param bytes The number of bytes written.
+     */
+    protected void written(int bytes) {
+        queuedBytes.addAndGet(-bytes);
+    }
+
+    /* Starts the writer of the session unless it is already running */
+    private void startWriter() {
+        writerLock.lock();
+        try {
+            if (writer == null && !closed) {
+                writer = Thread.ofVirtual().name("session-writer-" + id).start(this::writeFrames);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /*
+     * Writes the queued frames until the session is closed. Every frame queued meanwhile is added to the buffer
+     * before it is flushed, so the frames of a burst reach the socket together.
+     */
+    private void writeFrames() {
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+            while (!closed) {
+                ByteBuffer frame = outbox.take();
+                do {
+                    out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                    written(frame.remaining());
+                } while ((frame = outbox.poll()) != null);
+                out.flush();
+            }
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            if (!closed) {
+                logger.warn("Error writing to session " + id + ": " + e.getMessage());
+                close();
+            }
+        }
+    }
 }
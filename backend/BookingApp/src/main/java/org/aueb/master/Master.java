@@ -1,19 +1,30 @@
 package org.aueb.master;
 
 import org.aueb.entities.*;
+import org.aueb.storage.MutationJournal;
 import org.aueb.util.Constants;
+import org.aueb.util.HandlerExecutors;
 import org.aueb.util.JSONReaderWriter;
+import org.aueb.util.JSONUtils;
 import org.aueb.util.SocketUtils;
+import org.aueb.worker.ConsistentHashRing;
 import org.aueb.worker.WorkerInfo;
 import org.aueb.worker.WorkerUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * The Master class acts as the central server in a distributed hotel reservation system.
@@ -25,21 +36,55 @@ public class Master {
     private final ArrayList<Hotel> hotels; // List to store all hotels available in the system
     private final Logger logger = LoggerFactory.getLogger(Master.class); // Logger for the Master class
     private final List<User> users; // List to store all users in the system
-    private final ArrayList<Integer> workerPorts = new ArrayList<>(Arrays.asList(6001, 6002, 6003)); // List to store the ports of the worker nodes
+    private static final int DEFAULT_WORKERS = 3; // Number of workers the hotels are distributed to, unless --workers says otherwise
+    private static final int DEFAULT_REPLICAS = 2; // Number of workers that hold every shard, unless --replicas says otherwise
+    private static final long WORKER_TIMEOUT_MILLIS = 3 * Constants.HEARTBEAT_INTERVAL_MILLIS; // Time without heartbeats after which a worker is down
+    private final int expectedWorkers; // Number of workers to wait for before the hotels are distributed
+    private final int replicas; // Number of workers that hold every shard
+    private final LinkedBlockingQueue<JSONObject> registrations = new LinkedBlockingQueue<>(); // Registrations of workers, handled one at a time
+    private ServerSocket workerRegistrationSocket; // ServerSocket on which workers register and send heartbeats
     private ServerSocket masterServerSocket; // ServerSocket for the Master
     private ServerSocket reducerResponseSocket; // ServerSocket for the Reducer
-    private Map<Long, Session> sessions = new LinkedHashMap<>(); // Map to store all active sessions
+    private static final long SESSION_IDLE_TIMEOUT_MILLIS = 30 * 60_000; // Time without messages after which a client session is closed
+    private final SessionRegistry sessions = new SessionRegistry(SESSION_IDLE_TIMEOUT_MILLIS); // Connected client sessions
+    private final ResultStreams resultStreams = new ResultStreams(); // Streamed results in progress, relayed in order
+    private volatile WorkerCluster workers; // Shared channels to the worker nodes, borrowed by all sessions, and the placement of the hotels on them
+    private final boolean nonBlocking; // Whether clients are served by the NIO event loop instead of a thread per connection
+    private final ExecutorService handlerExecutor; // Runs the handlers of the client and reducer connections
+    private MutationJournal journal; // Journal of the changes made to the hotel catalogue
 
     /**
      * Constructor for the Master class.
+     *
+     * @param nonBlocking Whether clients are served by the NIO event loop instead of a thread per connection.
+     * @param virtualThreads Whether connections are handled on virtual threads.
+     * @param expectedWorkers Number of workers to wait for before the hotels are distributed.
+     * @param replicas Number of workers that hold every shard.
      */
-    public Master() {
+    public Master(boolean nonBlocking, boolean virtualThreads, int expectedWorkers, int replicas) {
         this.users = new ArrayList<>();
+        this.expectedWorkers = expectedWorkers;
+        this.replicas = replicas;
         this.hotels = new ArrayList<>();
+        this.nonBlocking = nonBlocking;
+        this.handlerExecutor = HandlerExecutors.newPerTaskExecutor(virtualThreads, "master-connection");
     }
 
+    /**
+     * Starts the Master. Pass --nio to serve the clients with the non-blocking event loop,
+     * --virtual-threads to handle connections on virtual threads, and --workers &lt;n&gt; to distribute the hotels
+     * once n workers have registered (3 by default), and --replicas &lt;r&gt; to hold every shard on r workers
+     * (2 by default; 1 turns replication off). Workers that register later join the running cluster.
+     * While it runs, the Master reads commands from its standard input to remove a worker ("remove-worker &lt;id&gt;")
+     * or list the workers ("workers").
+     */
     public static void main(String[] args) {
-        Master server = new Master();
+        List<String> options = Arrays.asList(args);
+        int workersOption = options.indexOf("--workers");
+        int expectedWorkers = workersOption >= 0 ? Integer.parseInt(options.get(workersOption + 1)) : DEFAULT_WORKERS;
+        int replicasOption = options.indexOf("--replicas");
+        int replicas = replicasOption >= 0 ? Integer.parseInt(options.get(replicasOption + 1)) : DEFAULT_REPLICAS;
+        Master server = new Master(options.contains("--nio"), HandlerExecutors.isVirtualThreadsEnabled(args), expectedWorkers, replicas);
         server.runServer();
     }
 
@@ -53,15 +98,150 @@ public class Master {
 
     /**
      * Sets up initial data for the application by loading users, hotels and establishing connections to worker nodes.
+     * Changes journaled by a previous run are folded into the hotel catalogue before it is read.
+     * The hotels are distributed once the expected number of workers has registered; then one shared channel is
+     * opened to every worker for serving the client sessions, and later registrations change the running cluster.
+     * Workers that kept running while the Master restarted count towards the expected number too: their hotels are
+     * replaced over their channels with the shards the catalogue gives them.
      */
     private void setupInitialData() {
+        try {
+            journal = new MutationJournal(Constants.JSON_FILE_PATH, Constants.JOURNAL_FILE_PATH);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
         initializeUsers();
         readHotels();
         associateHotelsWithManagers();
         clientReservation();
+        openWorkerRegistrations();
+        Set<Integer> runningPorts = new HashSet<>(); // Workers that already serve hotels
+        ArrayList<Integer> workerPorts = awaitWorkers(runningPorts);
+        Map<Integer, Integer> portsById = new HashMap<>();
         LinkedHashMap<Integer, WorkerInfo> workerInfoMap = new LinkedHashMap<>(); // Map to store worker node information
-        WorkerUtils.connectToWorkers(this.workerPorts, workerInfoMap);
-        distributeHotels(workerInfoMap);
+        for (int worker_id = 0; worker_id < workerPorts.size(); worker_id++) {
+            portsById.put(worker_id, workerPorts.get(worker_id));
+            if (!runningPorts.contains(workerPorts.get(worker_id))) {
+                // Only workers that have just started wait for their hotels on the first connection they accept
+                workerInfoMap.put(worker_id, WorkerUtils.connectToWorker(worker_id, workerPorts.get(worker_id)));
+            }
+        }
+        ConsistentHashRing ring = new ConsistentHashRing(portsById.keySet());
+        LinkedHashMap<Integer, List<Hotel>> shards = placeHotels(ring);
+        distributeHotels(workerInfoMap, shards);
+        closeConnections(workerInfoMap);
+        workers = new WorkerCluster(ring, WorkerUtils.openChannels(workerPorts), portsById, replicas);
+        reloadRunningWorkers(shards, workerInfoMap.keySet());
+        workers.startFailureDetector(WORKER_TIMEOUT_MILLIS);
+        Thread membershipThread = new Thread(this::handleRegistrations, "worker-membership");
+        membershipThread.setDaemon(true);
+        membershipThread.start();
+    }
+
+    /**
+     * Opens the port on which workers register and send their heartbeats, and accepts their connections.
+     */
+    private void openWorkerRegistrations() {
+        try {
+            workerRegistrationSocket = new ServerSocket(Constants.WORKER_REGISTRATION_PORT);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Thread acceptThread = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket workerConnection = workerRegistrationSocket.accept();
+                    handlerExecutor.execute(() -> serveWorker(workerConnection)); // Read the heartbeats of the worker on a thread of its own
+                } catch (IOException e) {
+                    logger.error("Error accepting worker registration", e);
+                }
+            }
+        }, "worker-registrations");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        logger.info("Waiting for " + expectedWorkers + " workers to register on port " + Constants.WORKER_REGISTRATION_PORT);
+    }
+
+    /**
+     * Reads the registration of a worker, which is queued for the membership thread, and then its heartbeats,
+     * until the connection is lost. A heartbeat of a worker that was down queues its catching up too.
+     *
+     * @param workerConnection The connection of the worker.
+     */
+    private void serveWorker(Socket workerConnection) {
+        try (workerConnection) {
+            DataInputStream inputStream = SocketUtils.createDataInputStream(workerConnection);
+            registrations.add(JSONUtils.parseJSONString(SocketUtils.safeReceive(inputStream)));
+            while (true) {
+                JSONObject heartbeat = JSONUtils.parseJSONString(SocketUtils.safeReceive(inputStream));
+                WorkerCluster cluster = workers;
+                // Heartbeats before the hotels are distributed carry no news
+                if (cluster != null && cluster.heartbeat(((Number) heartbeat.get("port")).intValue(),
+                        ((Number) heartbeat.get("hotels")).intValue(), ((Number) heartbeat.get("load")).intValue())) {
+                    JSONObject resync = new JSONObject();
+                    resync.put("type", "resync");
+                    resync.put("port", heartbeat.get("port"));
+                    registrations.add(resync); // The worker was down and catches up on the membership thread
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Heartbeat connection of a worker closed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Waits until the expected number of workers have registered. Workers that have just started wait for their
+     * hotels; workers that already serve hotels, e.g. because they kept running while the Master restarted, are
+     * recorded in runningPorts.
+     *
+     * @param runningPorts Receives the ports of the workers that already serve hotels.
+     * @return The ports of the workers, in the order they registered.
+     */
+    private ArrayList<Integer> awaitWorkers(Set<Integer> runningPorts) {
+        LinkedHashSet<Integer> ports = new LinkedHashSet<>();
+        try {
+            while (ports.size() < expectedWorkers) {
+                JSONObject registration = registrations.take();
+                int port = ((Number) registration.get("port")).intValue();
+                if (ports.add(port)) {
+                    boolean running = !Boolean.TRUE.equals(registration.get("awaitingHotels"));
+                    if (running) {
+                        runningPorts.add(port);
+                    }
+                    logger.info("Worker on port " + port + (running ? " already serves hotels and" : "") + " registered ("
+                            + ports.size() + "/" + expectedWorkers + ")");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return new ArrayList<>(ports);
+    }
+
+    /**
+     * Handles the registrations of workers after the hotels have been distributed, one at a time:
+     * new workers join the cluster, workers that restarted take their place back and workers that were down catch up.
+     */
+    private void handleRegistrations() {
+        while (true) {
+            JSONObject registration;
+            try {
+                registration = registrations.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if ("resync".equals(registration.get("type"))) {
+                    workers.resync(((Number) registration.get("port")).intValue());
+                } else {
+                    workers.register(((Number) registration.get("port")).intValue(),
+                            Boolean.TRUE.equals(registration.get("awaitingHotels")), Boolean.TRUE.equals(registration.get("restored")),
+                            ((Number) registration.get("hotels")).intValue(), ((Number) registration.get("load")).intValue());
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Membership change failed: " + registration, e);
+            }
+        }
     }
 
     /**
@@ -69,15 +249,26 @@ public class Master {
      */
     private void openServer() {
         try {
-            masterServerSocket = new ServerSocket(Constants.MASTER_PORT);  // Existing connection handling for Consoles
             reducerResponseSocket = new ServerSocket(Constants.REDUCER_TO_MASTER_PORT);  // Dedicated port for Reducer
+            sessions.startEvictionTask();
 
             // Handle Console connections
-            new Thread(this::handleConsoleConnections).start();
+            if (nonBlocking) {
+                int handlerThreads = Runtime.getRuntime().availableProcessors() * 2;
+                new Thread(new MasterEventLoop(Constants.MASTER_PORT, handlerThreads, sessions, users, workers, journal), "master-event-loop").start();
+            } else {
+                masterServerSocket = new ServerSocket(Constants.MASTER_PORT);  // Existing connection handling for Consoles
+                new Thread(this::handleConsoleConnections).start();
+            }
 
             // Handle Reducer connections
             new Thread(this::handleReducerConnections).start();
 
+            // Handle commands that change the workers
+            Thread adminThread = new Thread(this::handleAdminCommands, "master-admin");
+            adminThread.setDaemon(true);
+            adminThread.start();
+
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -86,13 +277,15 @@ public class Master {
 
     /**
      * Handles incoming connections from the reducer.
+     * The Reducer keeps one connection open for all its results and opens a new one only if it is lost,
+     * so each accepted connection is served by a long-lived handler.
      */
     private void handleReducerConnections() {
         while (true) {
             try {
                 Socket clientConnection = reducerResponseSocket.accept();
-                Runnable r = new ReducerDataHandler(clientConnection, sessions); // Handle incoming data from the reducer
-                new Thread(r).start(); // Start a new thread to handle the reducer session
+                Runnable r = new ReducerDataHandler(clientConnection, sessions, resultStreams); // Handle incoming data from the reducer
+                handlerExecutor.execute(r); // Read the results of the connection on a thread of its own
 
             } catch (IOException e) {
                 e.printStackTrace();
@@ -110,9 +303,9 @@ public class Master {
             try {
                 Socket clientConnection = masterServerSocket.accept();
                 Session clientSession = new Session(clientConnection); // Create a new session for the client
-                sessions.put(clientSession.getId(), clientSession); // Add the session to the active sessions map
-                Runnable r = new MasterConnectionHandler(clientSession, users, workerPorts); // Handle incoming data from the client
-                new Thread(r).start(); // Start a new thread to handle the client session
+                sessions.register(clientSession); // Add the session to the registry of connected sessions
+                Runnable r = new MasterConnectionHandler(clientSession, sessions, users, workers, journal); // Handle incoming data from the client
+                handlerExecutor.execute(r); // Handle the client session on a thread of its own
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -120,6 +313,34 @@ public class Master {
     }
 
 
+    /**
+     * Reads commands that remove and list workers from the standard input, until it is closed.
+     */
+    private void handleAdminCommands() {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] command = line.trim().split("\\s+");
+                try {
+                    switch (command[0]) {
+                        case "remove-worker" -> {
+                            workers.removeWorker(Integer.parseInt(command[1]));
+                            logger.info("Removed worker " + command[1]);
+                        }
+                        case "workers" -> logger.info("Workers:" + workers.describe());
+                        case "" -> { }
+                        default -> logger.warn("Unknown command: " + line + " (remove-worker <id>, workers)");
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Command failed: " + line, e);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error reading commands", e);
+        }
+    }
+
     /**
      * Initializes predefined users
      */
@@ -134,35 +355,84 @@ public class Master {
     }
 
     /**
-     * Distributes hotels to worker nodes based on a hash function.
+     * Places every hotel on the worker the ring assigns it to and on its replicas.
      *
-     * @param workerInfoMap Map containing worker node information.
+     * @param ring The ring that places the hotels on the workers.
+     * @return The hotels of every worker, by id.
      */
-    private void distributeHotels(LinkedHashMap<Integer, WorkerInfo> workerInfoMap) {
-        LinkedHashMap<Long, JSONObject> hotelsMap = new LinkedHashMap<>();
-        for (int worker_id = 0; worker_id < Constants.NUM_WORKER_NODES; worker_id++) {
-            // Create a JSON object for each worker node
-            JSONObject workerHotels = new JSONObject();
-            workerHotels.put("hotels", new JSONArray());
-            hotelsMap.put((long) worker_id, workerHotels);
+    private LinkedHashMap<Integer, List<Hotel>> placeHotels(ConsistentHashRing ring) {
+        LinkedHashMap<Integer, List<Hotel>> shards = new LinkedHashMap<>();
+        for (int worker_id : ring.getWorkers()) {
+            shards.put(worker_id, new ArrayList<>());
         }
         for (Hotel hotel : hotels) {
-            // Select a worker node based on the hotel name
-            Long worker_id = WorkerUtils.selectWorker(hotel.getHotelName(), workerInfoMap);
-            JSONObject workerHotelJson = hotelsMap.get(worker_id);
-
-            JSONArray hotelsArray = (JSONArray) workerHotelJson.get("hotels");
+            // Select the worker nodes based on the hotel name
+            for (int worker_id : ring.holdersFor(hotel.getHotelName(), replicas)) {
+                shards.get(worker_id).add(hotel);
+            }
+        }
+        return shards;
+    }
 
-            hotelsArray.add(hotel.toJson()); // Add the hotel to the worker's list of hotels
+    /**
+     * Distributes hotels to worker nodes that have just started, on the connections opened to them.
+     * The shards are sent to all workers at once, each in batches on a thread of its own, so the distribution takes as
+     * long as the largest shard and not as long as all of them.
+     *
+     * @param workerInfoMap Map containing worker node information.
+     * @param shards The hotels of every worker, by id.
+     */
+    private void distributeHotels(LinkedHashMap<Integer, WorkerInfo> workerInfoMap, Map<Integer, List<Hotel>> shards) {
+        long start = System.nanoTime();
+        // Send the hotels to the respective worker nodes
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        int sent = 0;
+        for (Map.Entry<Integer, WorkerInfo> entry : workerInfoMap.entrySet()) {
+            DataOutputStream outputStream = entry.getValue().getOutputStream();
+            List<Hotel> shard = shards.get(entry.getKey());
+            sent += shard.size();
+            sends.add(CompletableFuture.runAsync(() -> WorkerUtils.sendInitialHotels(outputStream, shard, false), handlerExecutor));
+        }
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).join();
+        logger.info("Distributed " + sent + " hotels to " + workerInfoMap.size() + " workers in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
 
+    /**
+     * Replaces the hotels of the workers that already served hotels when they registered with their shards, all at once.
+     *
+     * @param shards The hotels of every worker, by id.
+     * @param started The ids of the workers that have just started, whose hotels have been distributed already.
+     */
+    private void reloadRunningWorkers(Map<Integer, List<Hotel>> shards, Set<Integer> started) {
+        List<CompletableFuture<Void>> reloads = new ArrayList<>();
+        for (Map.Entry<Integer, List<Hotel>> entry : shards.entrySet()) {
+            if (started.contains(entry.getKey())) {
+                continue;
+            }
+            reloads.add(CompletableFuture.runAsync(() -> {
+                try {
+                    workers.reload(entry.getKey(), entry.getValue());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, handlerExecutor));
         }
-        // Send the hotels to the respective worker nodes
-        for (int worker_id = 0; worker_id < Constants.NUM_WORKER_NODES; worker_id++) {
-            JSONObject workerHotelJson = hotelsMap.get((long) worker_id);
-            SocketUtils.safeSend(
-                    workerInfoMap.get(worker_id).getOutputStream(),
-                    workerHotelJson.toJSONString()
-            );
+        CompletableFuture.allOf(reloads.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    /**
+     * Closes the connections that were used for the initial distribution of the hotels.
+     *
+     * @param workerInfoMap Map containing worker node information.
+     */
+    private void closeConnections(LinkedHashMap<Integer, WorkerInfo> workerInfoMap) {
+        for (WorkerInfo workerInfo : workerInfoMap.values()) {
+            try {
+                workerInfo.getSocket().close();
+            } catch (IOException e) {
+                logger.error("Error closing connection to worker " + workerInfo.getWorker_id(), e);
+            }
         }
     }
 
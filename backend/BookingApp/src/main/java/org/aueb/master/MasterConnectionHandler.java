@@ -1,16 +1,15 @@
 package org.aueb.master;
 
 import org.aueb.entities.*;
+import org.aueb.storage.HotelMutations;
+import org.aueb.storage.MutationJournal;
 import org.aueb.util.*;
-import org.aueb.worker.WorkerInfo;
-import org.aueb.worker.WorkerUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.*;
 
@@ -21,68 +20,53 @@ import java.util.*;
  */
 public class MasterConnectionHandler implements Runnable {
     private DataInputStream inputStream; // Input stream to read data from the client
-    private DataOutputStream outputStream; // Output stream to send data to the client
     private final Session clientSession; // Client session object
+    private final SessionRegistry sessions; // Registry of the connected sessions, which forgets this one when it closes
     private final Logger logger = LoggerFactory.getLogger(MasterConnectionHandler.class); // Logger for the MasterConnectionHandler class
-    private User user; // Authenticated user object
+    private User user; // Authenticated user object, null until the client logs in
     private final List<User> users; // List of users in the system
-    private final LinkedHashMap<Integer, WorkerInfo> workerInfoMap; // Map of worker nodes available for processing requests
+    private final WorkerCluster workers; // Worker nodes available for processing requests, and the placement of the hotels on them
+    private final MutationJournal journal; // Journal of the changes made to the hotel catalogue
 
     public MasterConnectionHandler(
             Session clientSession,
+            SessionRegistry sessions,
             List<User> users,
-            ArrayList<Integer> workerPorts) {
+            WorkerCluster workers,
+            MutationJournal journal) {
 
         this.clientSession = clientSession;
+        this.sessions = sessions;
         this.users = Collections.synchronizedList(users);
-        this.workerInfoMap = new LinkedHashMap<>();
-        WorkerUtils.connectToWorkers(workerPorts, workerInfoMap);
-        initializeStreams();
-    }
-
-    /* Initializes data input and output streams for client communication.*/
-    private void initializeStreams() {
-        try {
-            inputStream = SocketUtils.createDataInputStream(clientSession.getSocket());
-            outputStream = SocketUtils.createDataOutputStream(clientSession.getSocket());
-        } catch (RuntimeException e) {
-            logger.error("Error initializing streams: ", e);
-            closeConnection(); // Close connection if streams initialization fails
-        }
+        this.workers = workers;
+        this.journal = journal;
     }
 
     /**
-     * Closes all I/O streams and the client socket to release resources.
+     * Closes all I/O streams and the client socket to release resources, and removes the session from the registry.
+     * The worker channels are shared with the other sessions and stay open.
      */
     private void closeConnection() {
+        sessions.unregister(clientSession);
         try {
             String remoteAddress = clientSession.getSocket().getRemoteSocketAddress().toString();
-            // Attempt to close resources associated with worker nodes
-            for (WorkerInfo workerinfo : workerInfoMap.values()) {
-                workerinfo.getInputStream().close();
-                workerinfo.getOutputStream().close();
-                workerinfo.getSocket().close();
-            }
             // Close client connection streams and socket
             if (inputStream != null)
                 inputStream.close();
-            if (outputStream != null)
-                outputStream.close();
-            if (!clientSession.getSocket().isClosed())
-                clientSession.getSocket().close();
+            clientSession.close(); // Also stops the writer of the session
             logger.info("Connection from " + remoteAddress + " closed successfully.");
         } catch (Exception e) {
             logger.error("Error closing connection: ", e);
         }
     }
 
-    /* Main thread execution point, handles client authentication and session management. */
+    /* Main thread execution point when the session is served by a dedicated thread: reads and handles messages until the client disconnects. */
     public void run() {
         logger.info("New client connected: " + this.clientSession.getSocket().getRemoteSocketAddress());
         try {
+            inputStream = SocketUtils.createDataInputStream(clientSession.getSocket());
             while (true) {
-                this.user = authenticate(); // Authenticate the user
-                serve();  // Starts serving the client after authentication.
+                handleMessage(SocketUtils.safeReceive(inputStream));
             }
         } catch (RuntimeException e) {
             logger.error("Error serving client: ", e);
@@ -93,27 +77,21 @@ public class MasterConnectionHandler implements Runnable {
     }
 
     /**
-     * Continuously processes requests from the client until the session ends.
-     */
-    public void serve() throws IOException {
-        while (true) {
-            Request request = receiveRequest();
-            if(handleRequest(request) == -1){
-                break;
-            };
-        }
-    }
-
-    /**
-     * Receives a single request from the client and converts it into a Request object.
+     * Handles a single message from the client.
+     * Until the client is authenticated, messages are login or register requests; afterwards they are served
+     * as requests of the authenticated user, until the user logs out.
+     * Messages of a session must be handled one at a time and in the order they were received.
      *
-     * @return The received request as a Request object.
+     * @param message The message received from the client.
      */
-    public Request receiveRequest() throws IOException {
-        String request = SocketUtils.safeReceive(this.inputStream);
-        JSONObject clientRequestJson = JSONUtils.parseJSONString(request);
-
-        return new Request(clientSession.getId(), clientRequestJson.get("type").toString(), clientRequestJson);
+    public void handleMessage(String message) throws IOException {
+        clientSession.touch();
+        JSONObject clientRequestJson = JSONUtils.parseJSONString(message);
+        if (user == null) {
+            user = authenticate(Objects.requireNonNull(clientRequestJson));
+        } else {
+            handleRequest(new Request(clientSession.getId(), clientRequestJson.get("type").toString(), clientRequestJson));
+        }
     }
 
     /**
@@ -121,13 +99,14 @@ public class MasterConnectionHandler implements Runnable {
      *
      * @param request The request to handle.
      */
-    public int handleRequest(Request request) throws IOException {
+    public void handleRequest(Request request) throws IOException {
         request.getBody().put("user_role", user.getClass().getSimpleName());
         request.getBody().put("user_id", user.getId());
 
-        if (Objects.equals(request.getType(), "-1")) {
-            SocketUtils.safeSend(outputStream, new Response(clientSession.getId(), "-1", Response.Status.SUCCESS, "", new JSONObject()).toJSONString());
-            return -1;
+        if (Objects.equals(request.getType(), "-1")) { // Log out
+            clientSession.send(new Response(clientSession.getId(), "-1", Response.Status.SUCCESS, "", new JSONObject()).toJSONString());
+            user = null;
+            return;
         }
         if (user instanceof Manager) {
             handleManagerRequest(request); // Handle manager requests
@@ -136,7 +115,6 @@ public class MasterConnectionHandler implements Runnable {
         } else {
             throw new RuntimeException("Unknown user role");
         }
-        return 0;
     }
 
     /**
@@ -146,7 +124,6 @@ public class MasterConnectionHandler implements Runnable {
      * @param request The request object containing all necessary data.
      */
     private void handleManagerRequest(Request request) throws IOException {
-        long worker_id;
         String response;
         switch (request.getType()) {
             // Add hotel or
@@ -154,108 +131,97 @@ public class MasterConnectionHandler implements Runnable {
                 // Add available dates
             case "2":
                 String name = request.getBody().get("hotelName").toString();
-                /* Select the worker node to handle the request */
-                worker_id = WorkerUtils.selectWorker(name, workerInfoMap);
-
-                /* Send the request to the selected worker */
-                SocketUtils.safeSend(
-                        workerInfoMap.get((int) worker_id).getOutputStream(),
-                        request.toJSONString()
-                );
-
-                response = SocketUtils.safeReceive(workerInfoMap.get((int) worker_id).getInputStream());
-
-                /* Update the local JSON storage based on the response */
-                updateJsonForManager(response, request.getBody());
+                /* Send the request to the worker that holds the hotel and wait for its reply, then record the change */
+                journal.lockHotel(name);
+                try {
+                    response = workers.call(name, request);
+                    journalManagerChange(response, request.getBody());
+                } finally {
+                    journal.unlockHotel(name);
+                }
 
                 /* Send response to client */
-                SocketUtils.safeSend(outputStream, response);
+                clientSession.send(response);
 
                 break;
             // Show reservations
             case "3":
             case "4": // Reservations by area
                 /* Send the request to all workers */
-                for (long id : workerInfoMap.keySet()) {
-                    SocketUtils.safeSend(
-                            workerInfoMap.get((int) id).getOutputStream(),
-                            request.toJSONString()
-                    );
-                }
+                fanOut(request);
                 break;
             default:
                 throw new RuntimeException("Unknown request type");
         }
     }
 
+    /**
+     * Sends a fan-out request to all the live workers, whose results come back through the Reducer,
+     * or tells the client at once that no worker is alive.
+     *
+     * @param request The request to send.
+     */
+    private void fanOut(Request request) {
+        if (workers.broadcast(request) == 0) {
+            clientSession.send(new Response(clientSession.getId(), request.getRequestId(), request.getType(),
+                    Response.Status.UNSUCCESSFUL, "No workers available", null).toJSONString());
+        }
+    }
+
     /**
      * Handles client requests by directing them to the appropriate method based on user type and request type.
      *
      * @param request the JSON object containing the client's request
      */
     private void handleClientRequest(Request request) throws IOException {
-        long worker_id;
-
         switch (request.getType()) {
             // Search hotels
             case "1":
                 logger.info(request.toString());
-                /* Send the request to all workers*/
-                for (long id : workerInfoMap.keySet()) {
-                    SocketUtils.safeSend(
-                            workerInfoMap.get((int) id).getOutputStream(),
-                            request.toJSONString()
-                    );
+                if (!hasValidOrder(request)) {
+                    break;
                 }
+                /* Send the request to all workers*/
+                fanOut(request);
                 break;
             // Reserve hotel
             case "2":
                 String hotel_Name = request.getBody().get("hotelName").toString();
-                /* Select the worker node to handle the request */
-                worker_id = WorkerUtils.selectWorker(hotel_Name, workerInfoMap);
-
-                /* Send the request to the selected worker */
-                SocketUtils.safeSend(
-                        workerInfoMap.get((int) worker_id).getOutputStream(),
-                        request.toJSONString()
-                );
-
-                String reserveResponse = SocketUtils.safeReceive(workerInfoMap.get((int) worker_id).getInputStream());
-
-                /* Update the local JSON storage based on the response */
-                updateJsonForClient(reserveResponse, request.getBody());
+                /* Send the request to the worker that holds the hotel and wait for its reply, then record the change */
+                String reserveResponse;
+                journal.lockHotel(hotel_Name);
+                try {
+                    reserveResponse = workers.call(hotel_Name, request);
+                    journalClientChange(request.getType(), reserveResponse, request.getBody());
+                } finally {
+                    journal.unlockHotel(hotel_Name);
+                }
 
                 /* Send the response back to the client */
-                SocketUtils.safeSend(outputStream, reserveResponse);
+                clientSession.send(reserveResponse);
                 break;
             // Rate hotel
             case "3":
                 String hotelName = request.getBody().get("hotelName").toString();
-                /* Select the worker node to handle the request */
-                worker_id = WorkerUtils.selectWorker(hotelName, workerInfoMap);
-
-                /* Send the request to the selected worker */
-                SocketUtils.safeSend(
-                        workerInfoMap.get((int) worker_id).getOutputStream(),
-                        request.toJSONString()
-                );
-
-                String rateResponse = SocketUtils.safeReceive(workerInfoMap.get((int) worker_id).getInputStream());
-
-                /* Update the local JSON storage based on the response */
-                updateJsonForClient(rateResponse, request.getBody());
+                /* Send the request to the worker that holds the hotel and wait for its reply, then record the change */
+                String rateResponse;
+                journal.lockHotel(hotelName);
+                try {
+                    rateResponse = workers.call(hotelName, request);
+                    journalClientChange(request.getType(), rateResponse, request.getBody());
+                } finally {
+                    journal.unlockHotel(hotelName);
+                }
 
                 /* Send the response back to the client */
-                SocketUtils.safeSend(outputStream, rateResponse);
+                clientSession.send(rateResponse);
                 break;
 
             case "4": // Return all the available hotels
-                for (long id : workerInfoMap.keySet()) {
-                    SocketUtils.safeSend(
-                            workerInfoMap.get((int) id).getOutputStream(),
-                            request.toJSONString()
-                    );
+                if (!hasValidOrder(request)) {
+                    break;
                 }
+                fanOut(request);
                 break;
             case "5": // Fetch client reservations
                 Map<Hotel, List<String>> reservations = ((Client) this.user).getReservations();
@@ -280,7 +246,7 @@ public class MasterConnectionHandler implements Runnable {
                 logger.info("Reservations: " + response.toString());
 
                 Response res = new Response(clientSession.getId(), request.getType(), Response.Status.SUCCESS, "", response);
-                SocketUtils.safeSend(outputStream, res.toJSONString());
+                clientSession.send(res.toJSONString());
                 break;
             default:
                 throw new RuntimeException("Unknown request type");
@@ -289,191 +255,135 @@ public class MasterConnectionHandler implements Runnable {
     }
 
     /**
-     * Updates the local JSON storage based on the response received from the worker.
+     * Checks the sort options of a search before it is sent to the workers, answering the client if they are not valid;
+     * the workers would otherwise fail the request one by one and the client would wait for results that never come.
+     *
+     * @param request The search request.
+     * @return True if the request is unsorted or its sort options are valid.
+     */
+    private boolean hasValidOrder(Request request) {
+        try {
+            SortOrder.fromRequest(request.getBody());
+            return true;
+        } catch (IllegalArgumentException e) {
+            clientSession.send(new Response(clientSession.getId(), request.getType(), Response.Status.UNSUCCESSFUL, e.getMessage(), null).toJSONString());
+            return false;
+        }
+    }
+
+    /**
+     * Records the change made by a successful manager request in the journal of the hotel catalogue.
      * It processes the response for two types of manager requests: adding a hotel and updating available dates.
      *
      * @param response the JSON formatted string response from the worker
      * @param request  the original JSON request sent to the worker
      */
-    private void updateJsonForManager(String response, JSONObject request) {
-
+    private void journalManagerChange(String response, JSONObject request) {
         JSONObject jsonObject_response = JSONUtils.parseJSONString(response);
         // Extract the type and status from the response
         String type = jsonObject_response.get("type").toString();
         String answer = jsonObject_response.get("status").toString();
+        String hotelName = request.get("hotelName").toString();
 
+        JSONObject mutation;
         /* Check the type of request and the status of the response */
         if (type.equals("1") && answer.equals("SUCCESS")) { // Add hotel success
-            try {
-                request.remove("type");
-                request.remove("user_role");
-
-                String get_user_id = request.get("user_id").toString();
-                request.remove("user_id");
-
-                request.put("manager_id", get_user_id);
-
-                request.put("availableDates", new JSONArray());
-                request.put("reservations", new JSONObject());
-
-                // Read the JSON file
-                Object obj = JSONReaderWriter.readJsonFile("bin/hotel.json");
-                JSONObject jsonObject = (JSONObject) obj;
-
-                JSONArray hotelsArray = (JSONArray) jsonObject.get("hotels");
-                // Add the new hotel to the hotels array
-                hotelsArray.add(request);
-
-                // Write the updated JSON object to the file
-                JSONReaderWriter.writeJsonFile(jsonObject, "bin/hotel.json");
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            JSONObject hotel = new JSONObject();
+            hotel.putAll(request);
+            hotel.remove("type");
+            hotel.remove("user_role");
+            hotel.put("manager_id", hotel.remove("user_id"));
+            hotel.put("availableDates", new JSONArray());
+            hotel.put("reservations", new JSONObject());
+            mutation = HotelMutations.addHotel(hotel);
         } else if (type.equals("2") && answer.equals("SUCCESS")) { // Add available dates success
-            try {
-                String hotelName = request.get("hotelName").toString();  // Get the hotel name from the request
-                JSONObject jsonObject = JSONReaderWriter.readJsonFile(Constants.JSON_FILE_PATH);
-                // Get the hotels array from the JSON object
-                JSONArray hotelsArray = (JSONArray) jsonObject.get("hotels");
-                // Iterate through the hotels array
-                for (Object hotelObj : hotelsArray) {
-                    JSONObject hotel = (JSONObject) hotelObj;
-                    String currentHotelName = (String) hotel.get("hotelName");
-                    if (currentHotelName.equals(hotelName)) {
-                        JSONObject body = (JSONObject) jsonObject_response.get("body");
-                        // Update the available dates for the hotel
-                        hotel.put("availableDates", body.get("availableDates"));
-                        JSONReaderWriter.writeJsonFile(jsonObject, Constants.JSON_FILE_PATH); // Write the updated JSON object to the file
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            JSONObject body = (JSONObject) jsonObject_response.get("body");
+            mutation = HotelMutations.setAvailableDates(hotelName, body.get("availableDates"));
+        } else {
+            return;
         }
+        appendToJournal(mutation);
     }
 
     /**
-     * Updates client-specific JSON data based on responses, specifically for rating updates and reservation confirmations.
+     * Records the change made by a successful client request in the journal of the hotel catalogue,
+     * specifically for reservation confirmations and rating updates.
      *
-     * @param response the JSON formatted response data from a worker
-     * @param request  the original request JSON from the client
+     * @param requestType the type of the client request
+     * @param response    the JSON formatted response data from a worker
+     * @param request     the original request JSON from the client
      */
-    private void updateJsonForClient(String response, JSONObject request) {
+    private void journalClientChange(String requestType, String response, JSONObject request) {
         JSONObject jsonObject_response = JSONUtils.parseJSONString(response);
+        if (!"SUCCESS".equals(jsonObject_response.get("status").toString())) {
+            return;
+        }
+        String hotelName = request.get("hotelName").toString(); // Get the hotel name from the request
+        JSONObject body = (JSONObject) jsonObject_response.get("body");
 
-        // Extract the type and status from the response
-        String type = jsonObject_response.get("type").toString();
-        String answer = jsonObject_response.get("status").toString();
-
-        if (type.equals("2") && answer.equals("SUCCESS")) { // Reserve hotel success
-            try {
-                JSONObject json_response = JSONUtils.parseJSONString(response);
-                String hotelName = request.get("hotelName").toString(); // Get the hotel name from the request
-                JSONObject jsonObject = JSONReaderWriter.readJsonFile("bin/hotel.json");
-                JSONArray hotelsArray = (JSONArray) jsonObject.get("hotels"); // Get the hotels array from the JSON object
-
-                for (Object hotelObj : hotelsArray) {
-                    JSONObject hotel = (JSONObject) hotelObj;
-                    String currentHotelName = (String) hotel.get("hotelName");
-                    if (currentHotelName.equals(hotelName)) {
-                        JSONObject body = (JSONObject) json_response.get("body");
-                        // hotel found, return the hotel's JSONObject or handle as needed
-                        hotel.put("availableDates", body.get("availableDates"));
-                        hotel.put("reservations", body.get("reservations"));
-                        // Write the updated JSON object to the file
-                        JSONReaderWriter.writeJsonFile(jsonObject, "bin/hotel.json");
-
-                    }
-                }
+        if (requestType.equals("2")) { // Reserve hotel success
+            appendToJournal(HotelMutations.reserve(hotelName, body.get("availableDates"), body.get("reservations")));
+        } else if (requestType.equals("3")) { // Rate hotel success
+            appendToJournal(HotelMutations.rate(hotelName, body.get("updatedStars"), body.get("updatedReviews")));
+        }
+    }
 
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        } else if (type.equals("3") && answer.equals("SUCCESS")) { // Rate hotel success
-            try {
-                JSONObject json_response = JSONUtils.parseJSONString(response); // Parse the response JSON
-                String hotelName = request.get("hotelName").toString(); // Get the hotel name from the request
-                JSONObject jsonObject = JSONReaderWriter.readJsonFile("bin/hotel.json");
-                // Get the hotels array from the JSON object
-                JSONArray hotelsArray = (JSONArray) jsonObject.get("hotels");
-
-                for (Object hotelObj : hotelsArray) {
-                    JSONObject hotel = (JSONObject) hotelObj;
-                    String currentHotelName = (String) hotel.get("hotelName");
-                    if (currentHotelName.equals(hotelName)) {
-                        JSONObject body = (JSONObject) json_response.get("body");
-                        // hotel found, return the hotel's JSONObject or handle as needed
-                        hotel.put("stars", body.get("updatedStars"));
-                        hotel.put("numReviews", body.get("updatedReviews"));
-                        // Write the updated JSON object to the file
-                        JSONReaderWriter.writeJsonFile(jsonObject, "bin/hotel.json");
-
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    /* Appends a mutation to the journal. The worker has already applied the change, so a failure is only logged. */
+    private void appendToJournal(JSONObject mutation) {
+        try {
+            journal.append(mutation);
+        } catch (IOException e) {
+            logger.error("Error writing " + mutation.toJSONString() + " to the journal: ", e);
         }
     }
 
 
     /**
-     * Handles user authentication by processing login or registration requests until a valid user is authenticated.
+     * Handles a single login or registration request and replies with its result.
      *
-     * @return the authenticated User object
+     * @param jsonObject the login or registration request
+     * @return the authenticated User object, or null if the credentials were wrong
      * @throws IOException if there is an input/output error during the process
      */
-    public User authenticate() throws IOException {
+    public User authenticate(JSONObject jsonObject) throws IOException {
         User user;
 
-        while (true) {
-            /* Receive the request from the client */
-            String request = SocketUtils.safeReceive(inputStream);
-
-
-            JSONObject jsonObject = JSONUtils.parseJSONString(request);
-
-            String type = (String) Objects.requireNonNull(jsonObject).get("type");
-            String result;
-            Response.Status status;
-
-            /* Authenticate the user */
-            switch (type) {
-                case "login":
-                    user = login(jsonObject);
-                    result = (user != null) ? "authenticated" : "not authenticated";
-                    break;
-                case "register":
-                    user = register(jsonObject);
-                    result = "registered";
-                    break;
-                default:
-                    throw new RuntimeException("Unknown request type");
-            }
-            /* Log the results */
-            if (user != null) {
-                logger.info("User authenticated");
-                status = Response.Status.SUCCESS;
-            } else {
-                logger.info("User not authenticated");
-                status = Response.Status.UNSUCCESSFUL;
-            }
-            /* Send the result back to the client */
-            JSONObject answer = new JSONObject();
-            answer.put("result", result);
-            if (result.equals("authenticated") || result.equals("registered")) {
-                answer.put("user_role", user.getClass().getSimpleName());
-            }
-
-            Response response = new Response(clientSession.getId(), type, status, "", answer);
-            SocketUtils.safeSend(outputStream, response.toJSONString());
+        String type = (String) jsonObject.get("type");
+        String result;
+        Response.Status status;
 
-            /* Proceed only if the user is authenticated */
-            if (user != null) {
-                return user;
-            }
+        /* Authenticate the user */
+        switch (type) {
+            case "login":
+                user = login(jsonObject);
+                result = (user != null) ? "authenticated" : "not authenticated";
+                break;
+            case "register":
+                user = register(jsonObject);
+                result = "registered";
+                break;
+            default:
+                throw new RuntimeException("Unknown request type");
+        }
+        /* Log the results */
+        if (user != null) {
+            logger.info("User authenticated");
+            status = Response.Status.SUCCESS;
+        } else {
+            logger.info("User not authenticated");
+            status = Response.Status.UNSUCCESSFUL;
+        }
+        /* Send the result back to the client */
+        JSONObject answer = new JSONObject();
+        answer.put("result", result);
+        if (result.equals("authenticated") || result.equals("registered")) {
+            answer.put("user_role", user.getClass().getSimpleName());
         }
 
+        Response response = new Response(clientSession.getId(), type, status, "", answer);
+        clientSession.send(response.toJSONString());
+
+        return user;
     }
 
     /**
@@ -0,0 +1,286 @@
+package org.aueb.master;
+
+import org.aueb.entities.Session;
+import org.aueb.entities.User;
+import org.aueb.storage.MutationJournal;
+import org.aueb.util.FrameCodec;
+import org.aueb.util.FrameDecoder;
+import org.aueb.util.Response;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The MasterEventLoop is a non-blocking front end for the client port of the Master.
+ * A single thread multiplexes all client connections over a Selector and decodes frames as their bytes arrive,
+ * so idle clients cost no threads. Complete messages are handed to a bounded pool of handler threads,
+ * one at a time per session and in the order they were received.
+ */
+public class MasterEventLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(MasterEventLoop.class); // Logger for the MasterEventLoop class
+    private static final int READ_BUFFER_SIZE = 64 * 1024; // Size of the buffer shared by all reads of the loop
+    private static final int HANDLER_QUEUE_CAPACITY = 1024; // Maximum number of sessions waiting for a handler thread
+    private final Selector selector; // Selector of the client connections
+    private final ServerSocketChannel serverChannel; // Listening channel of the client port
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE); // Shared read buffer, only used by the loop thread
+    private final ThreadPoolExecutor handlerPool; // Bounded pool that handles the decoded messages
+    private final Queue<NioSession> pendingWrites = new ConcurrentLinkedQueue<>(); // Sessions with frames queued since the last select
+    private final SessionRegistry sessions; // Connected sessions of the Master
+    private final List<User> users; // List of users in the system
+    private final WorkerCluster workers; // Worker nodes and the placement of the hotels on them
+    private final MutationJournal journal; // Journal of the changes made to the hotel catalogue
+
+    /**
+     * Constructs a new MasterEventLoop listening on the given port.
+     *
+     * @param port The client port of the Master.
+     * @param handlerThreads Number of threads that handle client messages.
+     * @param sessions The registry of the connected sessions, to which accepted sessions are added.
+     * @param users The users of the system.
+     * @param workers The worker nodes and the placement of the hotels on them.
+     * @param journal The journal of the changes made to the hotel catalogue.
+     * @throws IOException If the port cannot be bound.
+     */
+    public MasterEventLoop(int port, int handlerThreads, SessionRegistry sessions, List<User> users,
+                           WorkerCluster workers, MutationJournal journal) throws IOException {
+        this.sessions = sessions;
+        this.users = users;
+        this.workers = workers;
+        this.journal = journal;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.handlerPool = new ThreadPoolExecutor(handlerThreads, handlerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(HANDLER_QUEUE_CAPACITY),
+                r -> new Thread(r, "master-handler-" + threadCount.incrementAndGet()));
+    }
+
+    /* Main loop: accepts connections, reads and decodes frames and flushes queued replies */
+    public void run() {
+        logger.info("Master event loop listening on " + serverChannel.socket().getLocalSocketAddress());
+        while (serverChannel.isOpen()) {
+            try {
+                selector.select();
+                registerPendingWrites();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    NioSession session = (NioSession) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(session);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(session);
+                        }
+                    } catch (IOException e) {
+                        close(session);
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Error in master event loop: ", e);
+            }
+        }
+    }
+
+    /* Accepts a new client connection and creates its session */
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        NioSession session = new NioSession(channel);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+        sessions.register(session);
+        logger.info("New client connected: " + channel.getRemoteAddress());
+    }
+
+    /* Reads the available bytes of a connection and schedules the messages they complete */
+    private void read(NioSession session) throws IOException {
+        readBuffer.clear();
+        int count = session.channel.read(readBuffer);
+        if (count < 0) {
+            throw new IOException("Connection closed by client");
+        }
+        readBuffer.flip();
+        List<String> frames = new ArrayList<>();
+        session.decoder.decode(readBuffer, frames);
+        for (String frame : frames) {
+            session.inbox.add(frame);
+        }
+        if (!frames.isEmpty()) {
+            schedule(session);
+        }
+    }
+
+    /*
+     * Writes as many queued frames as the connection accepts, and stops watching for writability once all are written.
+     * All the queued frames are handed to a single gathering write, so a burst of replies costs one system call.
+     */
+    private void write(NioSession session) throws IOException {
+        synchronized (session.outbox) {
+            session.channel.write(session.outbox.toArray(new ByteBuffer[0]));
+            session.dropWritten();
+            if (!session.outbox.isEmpty()) {
+                return; // The socket buffer is full, wait for the next OP_WRITE
+            }
+            session.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /* Starts watching for writability of the sessions that queued frames from handler threads */
+    private void registerPendingWrites() {
+        NioSession session;
+        while ((session = pendingWrites.poll()) != null) {
+            if (session.key.isValid()) {
+                session.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /* Hands the session to the handler pool unless it is already being handled */
+    private void schedule(NioSession session) {
+        if (!session.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            handlerPool.execute(() -> drain(session));
+        } catch (RejectedExecutionException e) {
+            session.scheduled.set(false);
+            String message;
+            while ((message = session.inbox.poll()) != null) {
+                logger.warn("Rejecting message of session " + session.getId() + ", all handlers are busy");
+                session.send(new Response(session.getId(), "", Response.Status.UNSUCCESSFUL, "Server busy", new JSONObject()).toJSONString());
+            }
+        }
+    }
+
+    /*
+     * Handles the queued messages of a session in order, on a handler thread.
+     * The scheduled flag is cleared before re-checking the inbox, so a message added concurrently is never left behind.
+     */
+    private void drain(NioSession session) {
+        String message;
+        while ((message = session.inbox.poll()) != null) {
+            try {
+                session.handler.handleMessage(message);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Error serving client: ", e);
+                session.send(new Response(session.getId(), "", Response.Status.UNSUCCESSFUL, "Request failed", new JSONObject()).toJSONString());
+            }
+        }
+        session.scheduled.set(false);
+        if (!session.inbox.isEmpty()) {
+            schedule(session);
+        }
+    }
+
+    /* Closes a client connection and forgets its session */
+    private void close(NioSession session) {
+        session.key.cancel();
+        try {
+            logger.info("Connection from " + session.channel.getRemoteAddress() + " closed successfully.");
+        } catch (IOException e) {
+            logger.error("Error closing connection: ", e);
+        }
+        session.close(); // Also drops the messages sent to the session from now on
+    }
+
+    /**
+     * A client session served by the event loop.
+     * Messages sent to the client are encoded into frames and queued; the loop thread writes them when the socket is writable.
+     * Queued frames count against the same limit as those of a blocking session, so a client that does not read is closed.
+     */
+    private class NioSession extends Session {
+        private final SocketChannel channel; // Non-blocking channel of the client
+        private final FrameDecoder decoder = new FrameDecoder(); // Decoder of the frames received from the client
+        private final Queue<String> inbox = new ConcurrentLinkedQueue<>(); // Decoded messages waiting for a handler
+        private final Queue<ByteBuffer> outbox = new ArrayDeque<>(); // Encoded frames waiting to be written
+        private final AtomicBoolean scheduled = new AtomicBoolean(false); // Whether a handler thread owns the session
+        private final MasterConnectionHandler handler; // Handler of the session's messages
+        private SelectionKey key; // Registration of the channel with the selector
+
+        private NioSession(SocketChannel channel) {
+            super(channel.socket());
+            this.channel = channel;
+            this.handler = new MasterConnectionHandler(this, sessions, users, workers, journal);
+        }
+
+        /**
+         * Queues a message for the client and wakes the event loop to write it.
+         * Messages to a closed session are dropped, and a client whose queued messages exceed the limit is disconnected.
+         * @param message The message to send.
+         */
+        @Override
+        public void send(String message) {
+            if (isClosed()) {
+                return;
+            }
+            ByteBuffer frame;
+            try {
+                frame = FrameCodec.encode(message, FrameCodec.FLAG_NONE);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (!admit(frame)) {
+                return;
+            }
+            synchronized (outbox) {
+                outbox.add(frame);
+            }
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Closes the connection, forgets the session and drops the frames that have not been written.
+         */
+        @Override
+        public void close() {
+            super.close();
+            sessions.unregister(this);
+            synchronized (outbox) {
+                outbox.clear();
+            }
+        }
+
+        /* Removes the frames at the head of the outbox that have been written completely; the caller holds its monitor */
+        private void dropWritten() {
+            while (!outbox.isEmpty() && !outbox.peek().hasRemaining()) {
+                written(outbox.poll().limit());
+            }
+        }
+    }
+}
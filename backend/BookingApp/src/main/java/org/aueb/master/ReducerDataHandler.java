@@ -12,7 +12,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.*;
@@ -20,53 +19,70 @@ import java.util.*;
 
 /**
  * Handles incoming data from a Reducer in a distributed system setup.
- * It is responsible for processing the results from the reducer, identifying the correct session based on the session ID provided in the response,
- * and forwarding the processed data to the appropriate client session.
+ * The Reducer keeps a single connection open and sends the results of every request over it; this handler reads them
+ * for as long as the connection lasts, identifies the correct session based on the session ID provided in each response,
+ * and forwards the processed data to the appropriate client session.
+ * Chunks of streamed results are relayed through the shared ResultStreams, which keeps them in order.
  */
 public class ReducerDataHandler implements Runnable {
     private Socket reducerSocket;
-    Map<Long, Session> sessions;
+    private final SessionRegistry sessions; // Connected client sessions, by id
+    private final ResultStreams resultStreams; // Orders the chunks of streamed results
     Logger logger = LoggerFactory.getLogger(ReducerDataHandler.class);
 
     /**
      * Constructor for the ReducerDataHandler class.
      * @param reducerSocket The socket connected to the reducer to receive data.
-     * @param sessions A map of sessions that allows the handler to forward the received data to the correct client based on session ID.
+     * @param sessions The registry of sessions that allows the handler to forward the received data to the correct client based on session ID.
+     * @param resultStreams The streams of results in progress, shared by all handlers.
      */
-    public ReducerDataHandler(Socket reducerSocket, Map<Long, Session> sessions) {
+    public ReducerDataHandler(Socket reducerSocket, SessionRegistry sessions, ResultStreams resultStreams) {
         this.reducerSocket = reducerSocket;
         this.sessions = sessions;
+        this.resultStreams = resultStreams;
     }
 
     public void run() {
         try {
-
-            DataInputStream reducerInput = new DataInputStream(reducerSocket.getInputStream()) ;
-
-                String results = reducerInput.readUTF();  // Read the aggregated results from the reducer
-                Response response = Response.fromJSONString(results);
-
-                // Retrieve the client socket from the sessions map using the session ID from the response
-                Socket clientSocket = sessions.get(response.getSessionId()).getSocket();
-
-                // Create a data output stream associated with the client's socket
-                DataOutputStream clientOut = SocketUtils.createDataOutputStream(clientSocket);
-
-                // If the output stream is not null, send the response as a JSON string to the client
-            if (clientOut != null) {
-                SocketUtils.safeSend(clientOut, response.toJSONString());
+            DataInputStream reducerInput = SocketUtils.createDataInputStream(reducerSocket);
+            while (true) {
+                dispatch(SocketUtils.safeReceive(reducerInput));  // Read the next aggregated results from the reducer
             }
-
         } catch (IOException e) {
-            System.out.println("Error in DataFromReducerHandler: " + e.getMessage());
-
-
+            logger.info("Reducer connection closed: " + e.getMessage());
         } finally {
             try {
                 if (reducerSocket != null) reducerSocket.close();
             } catch (IOException e) {
-                System.out.println("Error closing reducer socket: " + e.getMessage());
+                logger.error("Error closing reducer socket: ", e);
+            }
+        }
+    }
+
+    /**
+     * Routes a response of the Reducer to the session of its client.
+     * A response that cannot be delivered, e.g. because its client disconnected meanwhile, is dropped without
+     * affecting the responses that follow it on the connection.
+     *
+     * @param results The response as received from the Reducer.
+     */
+    private void dispatch(String results) {
+        try {
+            Response response = Response.fromJSONString(results);
+
+            // Retrieve the client session from the registry using the session ID from the response
+            Session clientSession = sessions.get(response.getSessionId());
+
+            // A chunk of a stream is relayed once the chunks before it have been
+            JSONObject body = response.getBody();
+            if (body != null && body.get("sequence") != null) {
+                resultStreams.relay(response.getRequestId(), (Long) body.get("sequence"), Boolean.TRUE.equals(body.get("last")), results, clientSession);
+            } else if (clientSession != null) {
+                // If the client is still connected, send the response as a JSON string to the client
+                clientSession.send(response.toJSONString());
             }
+        } catch (RuntimeException e) {
+            logger.warn("Dropping results from the reducer: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,72 @@
+package org.aueb.master;
+
+import org.aueb.entities.Session;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Relays the chunks of streamed results from the Reducer to the clients, in the order of their sequence numbers.
+ * The Reducer numbers the chunks of different workers on different threads before they share its connection to the
+ * Master, so they may arrive out of order; a chunk that arrives early is held until the ones before it have been relayed. The chunk flagged as last
+ * carries the highest sequence number of its stream, so the client sees it after every other chunk.
+ */
+public class ResultStreams {
+    private static final long STREAM_TIMEOUT_MILLIS = 60_000; // Time after which an unfinished stream is dropped
+    private final ConcurrentHashMap<Long, Stream> streams = new ConcurrentHashMap<>(); // Streams in progress, by request id
+
+    /**
+     * Relays a chunk to its client, along with the early chunks that it unblocks.
+     * Chunks of a client that has disconnected are still accounted for, so that their stream is forgotten.
+     *
+     * @param requestId The request the chunk answers.
+     * @param sequence The number of the chunk in its stream, from 0.
+     * @param last Whether the chunk ends the stream.
+     * @param chunk The chunk, as received from the Reducer.
+     * @param clientSession The session of the client, or null if the client has disconnected.
+     */
+    public void relay(Long requestId, long sequence, boolean last, String chunk, Session clientSession) {
+        Stream stream = streams.get(requestId);
+        if (stream == null) {
+            evictExpired();
+            stream = streams.computeIfAbsent(requestId, id -> new Stream());
+        }
+        // Sends happen under the lock, so two handlers cannot reorder the chunks of a stream on the client's connection
+        stream.lock.lock();
+        try {
+            stream.pending.put(sequence, chunk);
+            if (last) {
+                stream.lastSequence = sequence;
+            }
+            String next;
+            while ((next = stream.pending.remove(stream.nextSequence)) != null) {
+                if (clientSession != null) {
+                    clientSession.send(next);
+                }
+                stream.nextSequence++;
+            }
+            if (stream.nextSequence > stream.lastSequence) {
+                streams.remove(requestId);
+            }
+        } finally {
+            stream.lock.unlock();
+        }
+    }
+
+    /* Drops the streams that have not finished in time, e.g. because a worker failed in the middle of one */
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        streams.values().removeIf(stream -> now - stream.createdAt > STREAM_TIMEOUT_MILLIS);
+    }
+
+    /* The chunks of a stream that wait for the ones before them */
+    private static final class Stream {
+        private final ReentrantLock lock = new ReentrantLock(); // Serializes the relaying of the stream's chunks
+        private final Map<Long, String> pending = new HashMap<>(); // Chunks that arrived early, by sequence number
+        private final long createdAt = System.currentTimeMillis(); // Creation time, used for eviction
+        private long nextSequence; // Number of the next chunk to relay
+        private long lastSequence = Long.MAX_VALUE; // Number of the last chunk, once it has arrived
+    }
+}
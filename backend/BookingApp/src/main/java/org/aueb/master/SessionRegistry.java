@@ -0,0 +1,105 @@
+package org.aueb.master;
+
+import org.aueb.entities.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SessionRegistry holds the connected client sessions of the Master by id, so the results that come back from the
+ * Reducer can be routed to their client. Sessions are registered when their connection is accepted and unregistered
+ * when it closes; sessions whose client has sent nothing for longer than the idle timeout are closed and evicted,
+ * so connections that were abandoned without being closed do not hold a socket forever.
+ */
+public class SessionRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(SessionRegistry.class); // Logger for the SessionRegistry class
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>(); // Connected sessions by id
+    private final long idleTimeoutMillis; // Time without messages after which a session is closed
+
+    /**
+     * @param idleTimeoutMillis Time without messages from the client after which a session is closed.
+     */
+    public SessionRegistry(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Registers the session of a newly accepted connection.
+     *
+     * @param session The session.
+     */
+    public void register(Session session) {
+        sessions.put(session.getId(), session);
+    }
+
+    /**
+     * Forgets a session whose connection has closed. Unregistering a session twice has no effect.
+     *
+     * @param session The session.
+     */
+    public void unregister(Session session) {
+        sessions.remove(session.getId(), session);
+    }
+
+    /**
+     * Finds a connected session.
+     *
+     * @param id The id of the session.
+     * @return The session, or null if its client has disconnected.
+     */
+    public Session get(long id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * @return The number of connected sessions.
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Closes and forgets the sessions whose client has sent nothing within the idle timeout.
+     * Closing the connection also ends the handler of a session that is blocked reading from it.
+     *
+     * @return The number of evicted sessions.
+     */
+    public int evictIdle() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Session session : sessions.values()) {
+            if (now - session.getLastActivity() > idleTimeoutMillis && sessions.remove(session.getId(), session)) {
+                try {
+                    session.close();
+                } catch (RuntimeException e) {
+                    // An exception would cancel the periodic eviction, so a session that fails to close is only logged
+                    logger.warn("Error closing idle session " + session.getId(), e);
+                }
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Starts evicting the idle sessions periodically, on a daemon thread.
+     */
+    public void startEvictionTask() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, idleTimeoutMillis / 4);
+        scheduler.scheduleAtFixedRate(() -> {
+            int evicted = evictIdle();
+            if (evicted > 0) {
+                logger.warn("Closed " + evicted + " idle sessions");
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,708 @@
+package org.aueb.master;
+
+import org.aueb.entities.Hotel;
+import org.aueb.util.Request;
+import org.aueb.util.Response;
+import org.aueb.util.SocketUtils;
+import org.aueb.worker.ConsistentHashRing;
+import org.aueb.worker.WorkerChannel;
+import org.aueb.worker.WorkerUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The WorkerCluster is the Master's view of its workers: the shared channel to every worker, whether the worker is
+ * alive, and the consistent-hash ring that places the hotels on them. Every shard, the hotels the ring places on one
+ * worker, is held by a number of workers, its primary and the replicas that follow it on the ring.
+ * <p>
+ * A request that changes a hotel is sent to the first live holder of the hotel and, once it succeeds there, to the
+ * other live holders in parallel; the Master sends the changes of a hotel one at a time, under the lock of the hotel
+ * in the MutationJournal, so every holder applies them in the same order. A holder that fails to apply a change is marked down and catches up before it serves again.
+ * A fan-out request is sent once per shard, to one live holder chosen in turn, so the holders of a shard share its reads;
+ * every worker is told which shards to answer for, and the request records the number of workers it was sent to,
+ * so the Reducer knows how many answers to wait for.
+ * <p>
+ * Workers register themselves and then send heartbeats with the number of their hotels and their load. A worker whose
+ * heartbeats stop, or whose channel is lost, is considered down: its shards are served by their other holders, and
+ * requests for hotels none of whose holders is alive are answered as unavailable. A worker that comes back, or that
+ * restarts on its port, catches up: it drops the copies another live holder has, and they are copied back from it.
+ * The Master remembers the hotels whose changes a worker may have missed since it was last up to date, so a worker
+ * that restored its hotels from disk when it restarted gets only those hotels again, and a worker that missed nothing
+ * serves again at once. A worker that missed too many changes, or a change of the ring, catches up on whole shards.
+ * A worker that registers while the Master runs joins the ring.
+ * <p>
+ * When the workers change, only the hotels that gain a holder are copied: one live holder of every such hotel exports it
+ * and the new holders import it, and then every worker drops the hotels it no longer holds. Requests are routed under a
+ * read lock and membership changes happen under the write lock, so no request reaches a worker while hotels move.
+ */
+public class WorkerCluster {
+    private static final Logger logger = LoggerFactory.getLogger(WorkerCluster.class); // Logger for the WorkerCluster class
+    private static final long MASTER_SESSION_ID = 0L; // Session id of the requests the Master makes on its own behalf
+    private static final int MAX_MISSED_HOTELS = 10_000; // Number of missed hotels past which a worker catches up on whole shards
+    private final Map<Integer, Member> members = new ConcurrentHashMap<>(); // Workers of the cluster, by id
+    private final ReentrantReadWriteLock membershipLock = new ReentrantReadWriteLock(); // Held for reading while routing, for writing while hotels move
+    private final AtomicLong fanOuts = new AtomicLong(); // Number of fan-outs so far, which rotates the holder that answers for every shard
+    private final int replicas; // Number of workers that hold every shard
+    private volatile ConsistentHashRing ring; // Placement of the hotels on the workers
+
+    /**
+     * Constructs a cluster of workers whose hotels have already been placed with the given ring.
+     *
+     * @param ring The ring the hotels were placed with.
+     * @param channels The channels of the workers of the ring, by id.
+     * @param ports The ports of the workers of the ring, by id.
+     * @param replicas The number of workers that hold every shard.
+     */
+    public WorkerCluster(ConsistentHashRing ring, Map<Integer, WorkerChannel> channels, Map<Integer, Integer> ports, int replicas) {
+        this.ring = ring;
+        this.replicas = Math.max(1, replicas);
+        for (Map.Entry<Integer, WorkerChannel> entry : channels.entrySet()) {
+            members.put(entry.getKey(), new Member(ports.get(entry.getKey()), entry.getValue()));
+        }
+    }
+
+    /**
+     * @return The ring that currently places the hotels on the workers.
+     */
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Sends a request that changes a single hotel to its first live holder and waits for the reply. If the change
+     * succeeds, it is applied to the other live holders of the hotel too before the reply is returned.
+     * If no holder is alive, the reply says that the hotel is unavailable.
+     *
+     * @param hotelName The name of the hotel.
+     * @param request The request.
+     * @return The reply of the first live holder as a JSON string.
+     * @throws IOException If the channel fails or the worker does not reply in time.
+     */
+    public String call(String hotelName, Request request) throws IOException {
+        membershipLock.readLock().lock();
+        try {
+            List<Integer> allHolders = ring.holdersFor(hotelName, replicas);
+            List<Integer> holders = new ArrayList<>(allHolders);
+            holders.removeIf(holder -> !members.get(holder).isAlive());
+            if (holders.isEmpty()) {
+                return new Response(request.getSessionId(), request.getRequestId(), request.getType(), Response.Status.UNSUCCESSFUL,
+                        "Hotel " + hotelName + " is temporarily unavailable", null).toJSONString();
+            }
+            Member first = members.get(holders.get(0));
+            String reply;
+            try {
+                reply = first.channel.call(request);
+            } catch (IOException e) {
+                first.miss(hotelName); // The change may or may not have been made
+                first.alive = false;
+                throw e;
+            }
+            if (Response.fromJSONString(reply).getStatus() == Response.Status.SUCCESS) {
+                for (int holder : allHolders) {
+                    if (!holders.contains(holder)) {
+                        members.get(holder).miss(hotelName);
+                    }
+                }
+                if (holders.size() > 1) {
+                    replicate(hotelName, request, holders.subList(1, holders.size()));
+                }
+            }
+            return reply;
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sends a fan-out request to one live holder of every shard, taking the holders in turn. Every worker is told the
+     * shards it answers for in "shards", along with the workers of the ring in "ring", unless it answers for all the
+     * hotels it holds. The request records the number of workers it was sent to in "fanout".
+     *
+     * @param request The request.
+     * @return The number of workers the request was sent to, 0 if none is alive.
+     */
+    public int broadcast(Request request) {
+        membershipLock.readLock().lock();
+        try {
+            long turn = fanOuts.getAndIncrement();
+            Map<Integer, List<Integer>> shardsByWorker = new TreeMap<>();
+            int shard = 0;
+            for (int primary : ring.getWorkers()) {
+                List<Integer> holders = new ArrayList<>(ring.holders(primary, replicas));
+                holders.removeIf(holder -> !members.get(holder).isAlive());
+                if (!holders.isEmpty()) { // Otherwise the shard is unavailable until one of its holders is back
+                    int worker = holders.get((int) Math.floorMod(turn + shard, (long) holders.size()));
+                    shardsByWorker.computeIfAbsent(worker, id -> new ArrayList<>()).add(primary);
+                }
+                shard++;
+            }
+            request.getBody().put("fanout", shardsByWorker.size());
+            JSONArray workers = new JSONArray();
+            workers.addAll(ring.getWorkers());
+            for (Map.Entry<Integer, List<Integer>> entry : shardsByWorker.entrySet()) {
+                Request part = request;
+                if (!entry.getValue().equals(shardsHeldBy(entry.getKey()))) {
+                    JSONObject body = new JSONObject();
+                    body.putAll(request.getBody());
+                    JSONArray shards = new JSONArray();
+                    shards.addAll(entry.getValue());
+                    body.put("shards", shards);
+                    body.put("ring", workers);
+                    part = new Request(request, body);
+                }
+                members.get(entry.getKey()).channel.send(part);
+            }
+            return shardsByWorker.size();
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Handles the registration of a worker while the Master runs. A worker that has just started and waits for its
+     * initial hotels joins the ring, or takes its old place if it had been a worker before; a worker that is already
+     * serving only opened a new heartbeat connection, and catches up if it was considered down.
+     *
+     * @param port The port of the worker.
+     * @param awaitingHotels Whether the worker waits for its initial hotels.
+     * @param restored Whether the worker restored its hotels from disk when it started.
+     * @param hotels The number of hotels of the worker.
+     * @param load The number of requests the worker is running.
+     * @throws IOException If the hotels of the worker could not be copied.
+     */
+    public void register(int port, boolean awaitingHotels, boolean restored, int hotels, int load) throws IOException {
+        Integer id = idOf(port);
+        if (!awaitingHotels) {
+            if (id == null) {
+                logger.warn("Worker on port " + port + " serves hotels the Master did not give it; restart it to join");
+            } else if (heartbeat(port, hotels, load)) {
+                resync(port);
+            }
+        } else if (id == null) {
+            addWorker(port);
+        } else {
+            rejoin(id, restored);
+        }
+    }
+
+    /**
+     * Replaces all the hotels of a worker with the given ones. Used when the Master starts while a worker still serves
+     * the hotels a previous Master gave it, which may be placed differently and miss changes of the catalogue.
+     * The hotels are sent in batches of {@link WorkerUtils#INITIAL_BATCH_SIZE}, as to a worker that has just started.
+     *
+     * @param id The id of the worker.
+     * @param hotels The hotels of its shards.
+     * @throws IOException If the hotels could not be replaced.
+     */
+    public void reload(int id, List<Hotel> hotels) throws IOException {
+        int dropped = prune(id, new ConsistentHashRing(List.of()), null); // A worker drops every hotel for a ring without workers
+        for (int start = 0; start < hotels.size(); start += WorkerUtils.INITIAL_BATCH_SIZE) {
+            JSONArray batch = new JSONArray();
+            for (Hotel hotel : hotels.subList(start, Math.min(start + WorkerUtils.INITIAL_BATCH_SIZE, hotels.size()))) {
+                batch.add(hotel.toJson());
+            }
+            importInto(id, batch);
+        }
+        logger.info("Worker " + id + " on port " + members.get(id).port + " was running, " + dropped + " hotels replaced with "
+                + hotels.size());
+    }
+
+    /**
+     * Records a heartbeat of a worker. A worker that was considered down may have missed changes to its hotels,
+     * so it is not alive again until it has caught up; the first heartbeat it sends asks for that.
+     *
+     * @param port The port of the worker.
+     * @param hotels The number of hotels of the worker.
+     * @param load The number of requests the worker is running.
+     * @return True if the worker must catch up with {@link #resync(int)}.
+     */
+    public boolean heartbeat(int port, int hotels, int load) {
+        Integer id = idOf(port);
+        if (id == null) {
+            return false; // Not part of the cluster (yet)
+        }
+        Member member = members.get(id);
+        member.lastHeartbeat = System.currentTimeMillis();
+        member.hotels = hotels;
+        member.load = load;
+        if (!member.alive && !member.resyncPending) {
+            member.resyncPending = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks as down the workers whose last heartbeat is older than the timeout, or whose channel was lost.
+     *
+     * @param timeoutMillis The time without heartbeats after which a worker is down.
+     * @return The number of workers that were found down.
+     */
+    public int detectFailures(long timeoutMillis) {
+        long now = System.currentTimeMillis();
+        int failed = 0;
+        for (Map.Entry<Integer, Member> entry : members.entrySet()) {
+            Member member = entry.getValue();
+            if (member.alive && (now - member.lastHeartbeat > timeoutMillis || !member.channel.isConnected())) {
+                member.alive = false;
+                failed++;
+                logger.warn("Worker " + entry.getKey() + " on port " + member.port + " is down");
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Starts looking for workers that are down periodically, on a daemon thread.
+     *
+     * @param timeoutMillis The time without heartbeats after which a worker is down.
+     */
+    public void startFailureDetector(long timeoutMillis) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "worker-failure-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, timeoutMillis / 3);
+        scheduler.scheduleAtFixedRate(() -> detectFailures(timeoutMillis), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return One line per worker with its id, port, state, number of hotels and load.
+     */
+    public String describe() {
+        StringBuilder description = new StringBuilder();
+        for (int id : ring.getWorkers()) {
+            Member member = members.get(id);
+            description.append(String.format("%nworker %d port %d %s hotels=%d load=%d shards=%s",
+                    id, member.port, member.isAlive() ? "up" : "DOWN", member.hotels, member.load, shardsHeldBy(id)));
+        }
+        return description.toString();
+    }
+
+    /**
+     * Adds a worker that has just started and waits for its initial hotels, copies to it the shards the ring now places
+     * on it, and drops them from the workers that no longer hold them.
+     *
+     * @param port The port of the worker.
+     * @return The id of the new worker.
+     * @throws IOException If the hotels could not be copied; the worker is left out and the others keep their hotels.
+     */
+    public int addWorker(int port) throws IOException {
+        membershipLock.writeLock().lock();
+        try {
+            int id = ring.getWorkers().isEmpty() ? 0 : ring.getWorkers().last() + 1;
+            ConsistentHashRing newRing = ring.withWorker(id);
+            try (Socket initialConnection = SocketUtils.createSocket("localhost", port)) {
+                sendInitialHotels(initialConnection, false); // Hotels it kept from a past life are dropped
+            }
+            Member member = new Member(port, WorkerUtils.openChannel(id, port));
+            member.alive = false; // Not a holder until its hotels are copied
+            member.resyncPending = true;
+            members.put(id, member);
+            int copied;
+            try {
+                copied = copyHotels(ring, newRing, Set.of(id));
+            } catch (IOException | RuntimeException e) {
+                members.remove(id).channel.close();
+                pruneAll(ring);
+                throw new IOException("Could not add the worker on port " + port, e);
+            }
+            ring = newRing;
+            member.alive = true;
+            member.resyncPending = false;
+            markMissed();
+            int pruned = pruneAll(newRing);
+            logger.info("Worker " + id + " on port " + port + " joined, " + copied + " hotels copied and " + pruned + " dropped");
+            return id;
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a worker, copying its shards to the workers the ring now places them on. The worker is left running,
+     * without hotels. The shards of a worker that is down are copied from their replicas; without replicas they are lost
+     * to the cluster.
+     *
+     * @param id The id of the worker.
+     * @throws IOException If the hotels could not be copied; the worker stays in the cluster with its hotels.
+     */
+    public void removeWorker(int id) throws IOException {
+        membershipLock.writeLock().lock();
+        try {
+            Member member = members.get(id);
+            if (member == null) {
+                throw new IllegalArgumentException("No worker " + id);
+            }
+            if (members.size() == 1) {
+                throw new IllegalStateException("Cannot remove the last worker");
+            }
+            if (!member.isAlive()) {
+                logger.warn("Worker " + id + " is down, " + (replicas > 1 ? "its shards are copied from their replicas" : "its hotels are lost"));
+            }
+            ConsistentHashRing newRing = ring.withoutWorker(id);
+            int copied;
+            try {
+                copied = copyHotels(ring, newRing, Set.of());
+            } catch (IOException | RuntimeException e) {
+                pruneAll(ring);
+                throw new IOException("Could not copy the hotels of worker " + id, e);
+            }
+            ring = newRing;
+            markMissed();
+            int pruned = pruneAll(newRing); // The removed worker holds nothing on the new ring, so it drops all its hotels
+            members.remove(id).channel.close();
+            logger.info("Worker " + id + " left, " + copied + " hotels copied and " + pruned + " dropped");
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Brings a worker that was considered down up to date and marks it alive again. The hotels whose changes it may
+     * have missed are copied back from another live holder; if it may have missed more than the Master knows of, it
+     * drops the copies of the shards another live holder has, and they are copied back from that holder.
+     * A worker whose channel was lost gets a new one.
+     *
+     * @param port The port of the worker.
+     * @throws IOException If the worker could not catch up; it stays down and tries again with its next heartbeat.
+     */
+    public void resync(int port) throws IOException {
+        Integer id = idOf(port);
+        if (id != null) {
+            catchUp(id);
+        }
+    }
+
+    /* Takes back a worker that restarted on the port of a worker of the cluster, keeping the hotels it restored from disk */
+    private void rejoin(int id, boolean restored) throws IOException {
+        membershipLock.writeLock().lock();
+        try {
+            Member member = members.get(id);
+            member.alive = false;
+            member.resyncPending = true;
+            if (!restored) {
+                member.missedAll = true; // Without its hotels, it has missed them all
+            }
+            member.channel.close();
+            try (Socket initialConnection = SocketUtils.createSocket("localhost", member.port)) {
+                sendInitialHotels(initialConnection, true); // Missing hotels are copied over its channel
+            }
+            member.channel = WorkerUtils.openChannel(id, member.port);
+            catchUp(id);
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+
+    /* Brings a worker that is down up to date, see resync */
+    private void catchUp(int id) throws IOException {
+        membershipLock.writeLock().lock();
+        Member member = members.get(id);
+        try {
+            if (member == null || member.alive) {
+                return;
+            }
+            if (!member.channel.isConnected()) {
+                member.channel.close();
+                member.channel = WorkerUtils.openChannel(id, member.port);
+            }
+            if (member.missedAll) {
+                Set<Integer> stale = Set.of(id);
+                int dropped = prune(id, ring, senders(stale));
+                int copied = copyHotels(ring, ring, stale);
+                logger.info("Worker " + id + " on port " + member.port + " caught up, " + dropped + " stale hotels dropped and " + copied + " copied");
+            } else if (!member.missedHotels.isEmpty()) {
+                int copied = refreshHotels(id, new ArrayList<>(member.missedHotels));
+                logger.info("Worker " + id + " on port " + member.port + " caught up, " + copied + " changed hotels copied");
+            } else {
+                logger.info("Worker " + id + " on port " + member.port + " missed no changes and serves its hotels again");
+            }
+            member.missedAll = false;
+            member.missedHotels.clear();
+            member.lastHeartbeat = System.currentTimeMillis();
+            member.alive = true;
+        } finally {
+            if (member != null) {
+                member.resyncPending = false;
+            }
+            membershipLock.writeLock().unlock();
+        }
+    }
+
+    /* Applies a change the first holder of a hotel made to its other live holders, marking down those that fail to */
+    private void replicate(String hotelName, Request request, List<Integer> replicaIds) {
+        Map<Integer, CompletableFuture<String>> replies = new LinkedHashMap<>();
+        for (int id : replicaIds) {
+            replies.put(id, members.get(id).channel.callAsync(request));
+        }
+        for (Map.Entry<Integer, CompletableFuture<String>> entry : replies.entrySet()) {
+            String failure;
+            try {
+                Response reply = Response.fromJSONString(entry.getValue().get());
+                failure = reply.getStatus() == Response.Status.SUCCESS ? null : reply.getMessage();
+            } catch (ExecutionException | RuntimeException e) {
+                failure = String.valueOf(e.getCause() != null ? e.getCause() : e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = "interrupted";
+            }
+            if (failure != null) {
+                members.get(entry.getKey()).miss(hotelName);
+                members.get(entry.getKey()).alive = false;
+                logger.warn("Worker " + entry.getKey() + " missed request " + request.getRequestId() + " and is down until it catches up: " + failure);
+            }
+        }
+    }
+
+    /*
+     * Copies the hotels that gain a holder when the "from" ring becomes the "to" ring, or whose copy on a stale worker
+     * cannot be trusted, to those holders. Every such hotel is exported by its first live holder that is not stale, or
+     * by every worker that has it if there is none, and imported by its new holders that can be reached.
+     * Returns the number of hotels imported.
+     */
+    private int copyHotels(ConsistentHashRing from, ConsistentHashRing to, Set<Integer> stale) throws IOException {
+        List<Integer> senders = senders(stale);
+        List<Integer> receivers = new ArrayList<>();
+        for (Map.Entry<Integer, Member> entry : members.entrySet()) {
+            Member member = entry.getValue();
+            if (member.channel.isConnected() && (member.alive || stale.contains(entry.getKey()))) {
+                receivers.add(entry.getKey());
+            }
+        }
+        int copied = 0;
+        for (int exporter : receivers) {
+            Map<Integer, JSONArray> byHolder = new HashMap<>();
+            for (Object hotel : export(exporter, from, to, senders, stale)) {
+                String name = (String) ((JSONObject) hotel).get("hotelName");
+                Set<Integer> targets = new TreeSet<>(to.holdersFor(name, replicas));
+                if (!from.getWorkers().isEmpty()) {
+                    from.holdersFor(name, replicas).stream().filter(holder -> !stale.contains(holder)).forEach(targets::remove);
+                }
+                targets.remove(exporter);
+                targets.retainAll(receivers);
+                for (int target : targets) {
+                    byHolder.computeIfAbsent(target, holder -> new JSONArray()).add(hotel);
+                }
+            }
+            for (Map.Entry<Integer, JSONArray> entry : byHolder.entrySet()) {
+                importInto(entry.getKey(), entry.getValue());
+                copied += entry.getValue().size();
+            }
+        }
+        return copied;
+    }
+
+    /* Marks the workers that are down as having missed the hotels that moved while they were */
+    private void markMissed() {
+        for (Member member : members.values()) {
+            if (!member.isAlive()) {
+                member.missedAll = true;
+            }
+        }
+    }
+
+    /*
+     * Replaces the copies of some hotels on a worker with those of another live holder of each, returning how many
+     * were copied. A hotel without another live holder keeps the copy of the worker, the only one there is.
+     */
+    private int refreshHotels(int id, List<String> hotelNames) throws IOException {
+        Map<Integer, JSONArray> namesBySender = new HashMap<>();
+        for (String name : hotelNames) {
+            for (int holder : ring.holdersFor(name, replicas)) {
+                if (holder != id && members.get(holder).isAlive()) {
+                    namesBySender.computeIfAbsent(holder, sender -> new JSONArray()).add(name);
+                    break;
+                }
+            }
+        }
+        int copied = 0;
+        for (Map.Entry<Integer, JSONArray> entry : namesBySender.entrySet()) {
+            JSONObject body = masterBody(id);
+            body.put("names", entry.getValue());
+            Response dropped = Response.fromJSONString(members.get(id).channel.call(new Request(MASTER_SESSION_ID, "prune", body)));
+            if (dropped.getStatus() != Response.Status.SUCCESS) {
+                throw new IOException("Worker " + id + " could not drop hotels: " + dropped.getMessage());
+            }
+            body = masterBody(entry.getKey());
+            body.put("names", entry.getValue());
+            Response exported = Response.fromJSONString(members.get(entry.getKey()).channel.call(new Request(MASTER_SESSION_ID, "export", body)));
+            if (exported.getStatus() != Response.Status.SUCCESS) {
+                throw new IOException("Worker " + entry.getKey() + " could not export its hotels: " + exported.getMessage());
+            }
+            JSONArray hotels = (JSONArray) exported.getBody().get("hotels");
+            importInto(id, hotels);
+            copied += hotels.size();
+        }
+        return copied;
+    }
+
+    /* Makes every live worker drop the hotels it does not hold on a ring, returning how many were dropped */
+    private int pruneAll(ConsistentHashRing ring) {
+        int pruned = 0;
+        for (Map.Entry<Integer, Member> entry : members.entrySet()) {
+            if (entry.getValue().isAlive()) {
+                try {
+                    pruned += prune(entry.getKey(), ring, null);
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Worker " + entry.getKey() + " could not drop the hotels it no longer holds: " + e.getMessage());
+                }
+            }
+        }
+        return pruned;
+    }
+
+    /* Ids of the live workers whose copies can be trusted */
+    private List<Integer> senders(Set<Integer> stale) {
+        List<Integer> senders = new ArrayList<>();
+        for (Map.Entry<Integer, Member> entry : members.entrySet()) {
+            if (entry.getValue().isAlive() && !stale.contains(entry.getKey())) {
+                senders.add(entry.getKey());
+            }
+        }
+        return senders;
+    }
+
+    /* Primaries of the shards a worker holds on the current ring */
+    private List<Integer> shardsHeldBy(int worker) {
+        List<Integer> shards = new ArrayList<>();
+        for (int primary : ring.getWorkers()) {
+            if (ring.holders(primary, replicas).contains(worker)) {
+                shards.add(primary);
+            }
+        }
+        return shards;
+    }
+
+    /* Tells a worker that has just started whether it keeps the hotels it restored, with no initial hotels: its shard is copied over its channel */
+    private void sendInitialHotels(Socket initialConnection, boolean keep) throws IOException {
+        WorkerUtils.sendInitialHotels(SocketUtils.createDataOutputStream(initialConnection), List.of(), keep);
+        initialConnection.close();
+    }
+
+    /* Returns copies of the hotels of a worker that it sends to their new holders, see copyHotels */
+    private JSONArray export(int worker, ConsistentHashRing from, ConsistentHashRing to, List<Integer> senders, Set<Integer> stale) throws IOException {
+        JSONObject body = masterBody(worker);
+        body.put("from", idsOf(from.getWorkers()));
+        body.put("to", idsOf(to.getWorkers()));
+        body.put("senders", idsOf(senders));
+        body.put("stale", idsOf(stale));
+        Response reply = Response.fromJSONString(members.get(worker).channel.call(new Request(MASTER_SESSION_ID, "export", body)));
+        if (reply.getStatus() != Response.Status.SUCCESS) {
+            throw new IOException("Worker " + worker + " could not export its hotels: " + reply.getMessage());
+        }
+        return (JSONArray) reply.getBody().get("hotels");
+    }
+
+    /* Adds hotels exported by other workers to a worker */
+    private void importInto(int worker, JSONArray hotels) throws IOException {
+        if (hotels.isEmpty()) {
+            return;
+        }
+        JSONObject body = masterBody(worker);
+        body.put("hotels", hotels);
+        Response reply = Response.fromJSONString(members.get(worker).channel.call(new Request(MASTER_SESSION_ID, "import", body)));
+        if (reply.getStatus() != Response.Status.SUCCESS) {
+            throw new IOException("Worker " + worker + " could not import hotels: " + reply.getMessage());
+        }
+    }
+
+    /*
+     * Makes a worker drop the hotels it does not hold on a ring and, if senders are given, the hotels one of them holds too,
+     * returning how many were dropped
+     */
+    private int prune(int worker, ConsistentHashRing ring, List<Integer> senders) throws IOException {
+        JSONObject body = masterBody(worker);
+        body.put("workers", idsOf(ring.getWorkers()));
+        if (senders != null) {
+            body.put("senders", idsOf(senders));
+        }
+        Response reply = Response.fromJSONString(members.get(worker).channel.call(new Request(MASTER_SESSION_ID, "prune", body)));
+        if (reply.getStatus() != Response.Status.SUCCESS) {
+            throw new IOException("Worker " + worker + " could not drop hotels: " + reply.getMessage());
+        }
+        return ((Number) reply.getBody().get("removed")).intValue();
+    }
+
+    /* Body of a request of the Master to a worker about its hotels */
+    private JSONObject masterBody(int worker) {
+        JSONObject body = new JSONObject();
+        body.put("user_role", "Master");
+        body.put("self", worker);
+        body.put("replicas", replicas);
+        return body;
+    }
+
+    /* Worker ids as a JSON array */
+    private static JSONArray idsOf(Iterable<Integer> ids) {
+        JSONArray array = new JSONArray();
+        for (int id : ids) {
+            array.add(id);
+        }
+        return array;
+    }
+
+    /* Id of the worker that serves on a port, or null if no worker of the cluster does */
+    private Integer idOf(int port) {
+        for (Map.Entry<Integer, Member> entry : members.entrySet()) {
+            if (entry.getValue().port == port) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /* A worker of the cluster, with its channel and the state its heartbeats report */
+    private static final class Member {
+        private final int port; // Port the worker serves on
+        private volatile WorkerChannel channel; // Shared channel to the worker, replaced when the worker restarts
+        private volatile boolean alive = true; // Whether the worker sends heartbeats and its hotels are up to date
+        private volatile boolean resyncPending; // Whether the worker is about to catch up, so its heartbeats ask for it no more
+        private final Set<String> missedHotels = ConcurrentHashMap.newKeySet(); // Hotels whose changes the worker may have missed
+        private volatile boolean missedAll; // Whether the worker may have missed more than missedHotels tells, e.g. a change of the ring
+        private volatile long lastHeartbeat = System.currentTimeMillis(); // Time of the last heartbeat
+        private volatile int hotels; // Number of hotels of the worker, as last reported
+        private volatile int load; // Number of requests the worker was running, as last reported
+
+        private Member(int port, WorkerChannel channel) {
+            this.port = port;
+            this.channel = channel;
+        }
+
+        /* Records that the worker may have missed a change to a hotel */
+        private void miss(String hotelName) {
+            if (!missedAll && missedHotels.add(hotelName.toLowerCase(Locale.ROOT)) && missedHotels.size() > MAX_MISSED_HOTELS) {
+                missedAll = true;
+                missedHotels.clear();
+            }
+        }
+
+        /* Whether requests can be sent to the worker */
+        private boolean isAlive() {
+            return alive && channel.isConnected();
+        }
+    }
+}
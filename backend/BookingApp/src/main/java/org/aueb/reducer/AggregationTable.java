@@ -0,0 +1,179 @@
+package org.aueb.reducer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The AggregationTable keeps one aggregation slot per in-flight fan-out request.
+ * Slots are keyed by (sessionId, requestId), so partial results of concurrent requests never mix,
+ * and each slot counts down the workers it is still waiting for independently of all the others.
+ * The number of workers is given by every request, since the workers the Master fans out to change while it runs.
+ * <p>
+ * Streamed requests are not aggregated: their chunks are forwarded as they arrive. For those the table only keeps
+ * the position of the stream, numbering the chunks of all workers in a single sequence and telling which chunk ends it.
+ */
+public class AggregationTable {
+    private final ConcurrentHashMap<Key, Slot> slots = new ConcurrentHashMap<>(); // In-flight aggregations
+    private final ConcurrentHashMap<Key, Stream> streams = new ConcurrentHashMap<>(); // In-flight streams
+
+    /**
+     * Adds the partial result of a worker to the slot of its request.
+     * The worker that delivers the last missing part receives the completed slot and is responsible for merging it;
+     * every other caller returns immediately.
+     *
+     * @param sessionId The session the partial result belongs to.
+     * @param requestId The request the partial result answers.
+     * @param partialResult The body of the worker response as a JSON string.
+     * @param workers The number of workers the request was sent to.
+     * @return The completed slot if this was the last missing part, otherwise null.
+     */
+    public Slot offer(Long sessionId, Long requestId, String partialResult, int workers) {
+        Key key = new Key(sessionId, requestId);
+        Slot slot = slots.computeIfAbsent(key, k -> new Slot(workers));
+        slot.partialResults.add(partialResult);
+        if (slot.remaining.decrementAndGet() == 0) {
+            slots.remove(key);
+            return slot;
+        }
+        return null;
+    }
+
+    /**
+     * Numbers a chunk of a streamed request that is about to be forwarded.
+     * Chunks are numbered from 0 in the order this method is called, across all workers, and the last chunk of the
+     * last worker to finish is the last of the stream, so it always carries the highest number.
+     * An empty chunk that does not end the stream is not numbered, since it carries nothing to forward.
+     *
+     * @param sessionId The session the chunk belongs to.
+     * @param requestId The request the chunk answers.
+     * @param results The number of results of the chunk.
+     * @param workerDone Whether this is the last chunk of its worker.
+     * @param workers The number of workers the request was sent to.
+     * @return The position of the chunk in the stream, or null if the chunk is not to be forwarded.
+     */
+    public Chunk offerChunk(Long sessionId, Long requestId, int results, boolean workerDone, int workers) {
+        Key key = new Key(sessionId, requestId);
+        Stream stream = streams.computeIfAbsent(key, k -> new Stream(workers));
+        synchronized (stream) {
+            stream.results += results;
+            if (workerDone) {
+                stream.remaining--;
+            }
+            boolean last = stream.remaining == 0;
+            if (last) {
+                streams.remove(key);
+            } else if (results == 0) {
+                return null;
+            }
+            return new Chunk(stream.nextSequence++, last, stream.results);
+        }
+    }
+
+    /**
+     * Drops the slots and streams that have been waiting longer than the given age, e.g. because a worker never answered.
+     *
+     * @param maxAgeMillis Maximum time in milliseconds a slot or a stream may wait for its missing parts.
+     * @return The number of slots and streams that were dropped.
+     */
+    public int evictExpired(long maxAgeMillis) {
+        long now = System.currentTimeMillis();
+        int before = slots.size() + streams.size();
+        slots.values().removeIf(slot -> now - slot.createdAt > maxAgeMillis);
+        streams.values().removeIf(stream -> now - stream.createdAt > maxAgeMillis);
+        return before - slots.size() - streams.size();
+    }
+
+    /**
+     * @return The number of requests that are still waiting for partial results.
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * The aggregation state of a single fan-out request.
+     */
+    public static class Slot {
+        private final List<String> partialResults = Collections.synchronizedList(new ArrayList<>()); // Partial results received so far
+        private final AtomicInteger remaining; // Number of workers that have not answered yet
+        private final long createdAt = System.currentTimeMillis(); // Creation time, used for eviction
+
+        private Slot(int totalWorkers) {
+            this.remaining = new AtomicInteger(totalWorkers);
+        }
+
+        /**
+         * @return The partial results of all workers. Only complete once the slot has been returned by offer.
+         */
+        public List<String> getPartialResults() {
+            return partialResults;
+        }
+    }
+
+    /**
+     * The position of a forwarded chunk in its stream.
+     */
+    public static class Chunk {
+        private final long sequence; // Number of the chunk in the stream, from 0
+        private final boolean last; // Whether the chunk ends the stream
+        private final int totalResults; // Number of results of the stream up to and including this chunk
+
+        private Chunk(long sequence, boolean last, int totalResults) {
+            this.sequence = sequence;
+            this.last = last;
+            this.totalResults = totalResults;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public boolean isLast() {
+            return last;
+        }
+
+        public int getTotalResults() {
+            return totalResults;
+        }
+    }
+
+    /* The position of a streamed request, guarded by its own monitor */
+    private static final class Stream {
+        private final long createdAt = System.currentTimeMillis(); // Creation time, used for eviction
+        private int remaining; // Number of workers that have not sent their last chunk yet
+        private long nextSequence; // Number of the next chunk to forward
+        private int results; // Number of results received so far
+
+        private Stream(int totalWorkers) {
+            this.remaining = totalWorkers;
+        }
+    }
+
+    /* Identifies a single request of a single session */
+    private static final class Key {
+        private final Long sessionId;
+        private final Long requestId;
+
+        private Key(Long sessionId, Long requestId) {
+            this.sessionId = sessionId;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return Objects.equals(sessionId, other.sessionId) && Objects.equals(requestId, other.requestId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sessionId, requestId);
+        }
+    }
+}
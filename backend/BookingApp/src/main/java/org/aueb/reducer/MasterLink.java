@@ -0,0 +1,86 @@
+package org.aueb.reducer;
+
+import org.aueb.util.Response;
+import org.aueb.util.SocketUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The MasterLink is a single long-lived connection from the Reducer to the Master, shared by the handlers of all workers.
+ * The results of every request are multiplexed over it, and the Master routes each one to its client by session id,
+ * so a result costs a frame on an open connection rather than a connection of its own.
+ * <p>
+ * The connection is opened on the first send, since the Reducer may start before the Master, and reopened once
+ * if a send fails, e.g. because the Master was restarted.
+ */
+public class MasterLink {
+    private static final Logger logger = LoggerFactory.getLogger(MasterLink.class); // Logger for the MasterLink class
+    private final String host; // Host of the Master
+    private final int port; // Port on which the Master receives the results of the Reducer
+    private final ReentrantLock sendLock = new ReentrantLock(); // Serializes the frames written by concurrent handlers
+    private Socket socket; // Connection to the Master, or null until the next send opens it
+    private DataOutputStream outputStream; // Output stream of the connection
+
+    /**
+     * @param host Host of the Master.
+     * @param port Port on which the Master receives the results of the Reducer.
+     */
+    public MasterLink(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Sends a response to the Master, opening the connection if needed. A response that cannot be sent
+     * even on a new connection is logged and dropped, as the client that waits for it cannot be reached.
+     *
+     * @param response The response to send.
+     */
+    public void send(Response response) {
+        String message = response.toJSONString();
+        sendLock.lock();
+        try {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    if (socket == null) {
+                        connect();
+                    }
+                    SocketUtils.safeSend(outputStream, message);
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Error sending results to Master: " + e.getMessage());
+                    disconnect();
+                }
+            }
+            logger.error("Dropping results of request " + response.getRequestId() + " for session " + response.getSessionId());
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /* Opens the connection to the Master */
+    private void connect() throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        logger.info("Connected to Master at " + host + ":" + port);
+    }
+
+    /* Closes the connection, so the next send opens a new one */
+    private void disconnect() {
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException e) {
+            logger.error("Error closing connection to Master", e);
+        } finally {
+            socket = null;
+            outputStream = null;
+        }
+    }
+}
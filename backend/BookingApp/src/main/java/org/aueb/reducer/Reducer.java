@@ -1,16 +1,17 @@
 package org.aueb.reducer;
 
 import org.aueb.util.Constants;
+import org.aueb.util.HandlerExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Reducer class aggregates results from multiple worker nodes and processes them.
@@ -18,45 +19,47 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class Reducer {
     private ServerSocket serverSocket; // Server socket to accept connections from worker nodes
-    private final int numWorkers; // Total number of worker nodes expected to connect
-    private final AtomicInteger completedWorkers = new AtomicInteger(0); // Counter to keep track of completed worker nodes
-    private final List<String> aggregatedResults = Collections.synchronizedList(new ArrayList<>()); // List to store aggregated results from worker nodes
+    private static final long AGGREGATION_TIMEOUT_MILLIS = 60_000; // Time after which an incomplete aggregation is dropped
+    private final AggregationTable aggregationTable; // Per-request aggregation slots shared by all connection handlers
+    private final ExecutorService handlerExecutor; // Runs the handlers of the connections from the workers
+    private final MasterLink masterLink = new MasterLink("localhost", Constants.REDUCER_TO_MASTER_PORT); // Connection on which results are sent to the Master
     private static final Logger logger = LoggerFactory.getLogger(Reducer.class); // Logger for the Reducer class
 
     public static void main(String[] args) {
         int port = 7000;
-        int numWorkers = Constants.NUM_WORKER_NODES;
 
-        Reducer reducer = new Reducer(numWorkers);
+        Reducer reducer = new Reducer(HandlerExecutors.isVirtualThreadsEnabled(args));
         reducer.openServer(port);
     }
 
 
     /**
-     * Constructor for the Reducer class.
+     * Constructor for the Reducer class. Any number of workers can connect; every fan-out request
+     * tells how many workers answer it.
      *
-     * @param numWorkers Total number of worker nodes expected to connect.
+     * @param virtualThreads Whether connections are handled on virtual threads.
      */
-    public Reducer(int numWorkers) {
-        this.numWorkers = numWorkers;
+    public Reducer(boolean virtualThreads) {
+        this.aggregationTable = new AggregationTable();
+        this.handlerExecutor = HandlerExecutors.newPerTaskExecutor(virtualThreads, "reducer-connection");
     }
 
     /**
      * Opens a server socket and listens for connections from worker nodes.
-     * For each connection, a new thread is created to handle the connection.
+     * Each connection is handled on a thread of its own.
      * @param port Port number to listen on.
      */
     void openServer(int port) {
         try {
             serverSocket = new ServerSocket(port);
             logger.info("Reducer started on port " + port);
+            startEvictionTask();
 
             while (true) {
                 Socket workerConnection = serverSocket.accept(); // Accept connection from worker node
-                // Create a new thread to handle the connection
-                Runnable r = new ReducerConnectionHandler(workerConnection, aggregatedResults, numWorkers, completedWorkers);
-                Thread reducerThread = new Thread(r);
-                reducerThread.start();
+                // Handle the connection on a thread of its own
+                Runnable r = new ReducerConnectionHandler(workerConnection, aggregationTable, masterLink);
+                handlerExecutor.execute(r);
             }
         } catch (IOException ioException) {
             ioException.printStackTrace();
@@ -68,4 +71,21 @@ public class Reducer {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Periodically drops aggregations that will never complete, e.g. because a worker failed mid-request.
+     */
+    private void startEvictionTask() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "aggregation-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            int evicted = aggregationTable.evictExpired(AGGREGATION_TIMEOUT_MILLIS);
+            if (evicted > 0) {
+                logger.warn("Dropped " + evicted + " incomplete aggregations");
+            }
+        }, AGGREGATION_TIMEOUT_MILLIS, AGGREGATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
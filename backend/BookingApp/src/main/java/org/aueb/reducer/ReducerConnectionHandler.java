@@ -1,54 +1,48 @@
 package org.aueb.reducer;
 
-import org.aueb.util.Constants;
 import org.aueb.util.JSONUtils;
 import org.aueb.util.Response;
 import org.aueb.util.SocketUtils;
+import org.aueb.util.SortOrder;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.PriorityQueue;
 
 /**
  * The ReducerConnectionHandler class is responsible for handling connections from worker nodes.
- * It receives data from worker nodes, aggregates it, and sends it back to the Master.
+ * It receives data from worker nodes, aggregates it, and sends it back to the Master over the shared MasterLink.
+ * Chunks of streamed requests are not aggregated but forwarded to the Master as soon as they arrive.
+ * The pages of a sorted search are merged, keeping only as many results as the page holds.
  */
 public class ReducerConnectionHandler implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(ReducerConnectionHandler.class); // Logger for the ReducerConnectionHandler class
     private DataInputStream inputStream; // Input stream to read data from the worker node
     private Socket connection; // Socket connection to the worker node
-    private final int totalWorkers; // Total number of worker nodes expected to connect
-    private final AtomicInteger completedWorkers; // Counter to keep track of completed worker nodes
-    private final List<String> aggregatedResults; // List to store aggregated results from worker nodes
+    private final AggregationTable aggregationTable; // Per-request aggregation slots shared by all handlers
+    private final MasterLink masterLink; // Connection to the Master shared by all handlers
 
 
     /**
      * Constructor for ReducerConnectionHandler.
      *
-     * @param connection        Socket connection to the worker node.
-     * @param aggregatedResults List to store results from workers.
-     * @param totalWorkers      Total number of workers that must complete before aggregation is done.
-     * @param completedWorkers  Counter for tracking completed workers.
+     * @param connection       Socket connection to the worker node.
+     * @param aggregationTable Table holding the partial results of every in-flight request.
+     * @param masterLink       Connection on which the results are sent to the Master.
      */
-    public ReducerConnectionHandler(
-            Socket connection,
-            List<String> aggregatedResults,
-            int totalWorkers,
-            AtomicInteger completedWorkers) {
+    public ReducerConnectionHandler(Socket connection, AggregationTable aggregationTable, MasterLink masterLink) {
         this.connection = connection;
-        this.totalWorkers = totalWorkers;
-        this.completedWorkers = completedWorkers;
-        this.aggregatedResults = aggregatedResults;
+        this.aggregationTable = aggregationTable;
+        this.masterLink = masterLink;
         try {
             // Create input stream for the worker connection
             inputStream = SocketUtils.createDataInputStream(connection);
@@ -83,86 +77,131 @@ public class ReducerConnectionHandler implements Runnable {
 
     /**
      * Method to serve the worker node connection, receiving data and aggregating it.
+     * Each partial result is added to the slot of its own request; the handler that completes a slot merges it
+     * and sends the final results to the Master, while the other handlers keep serving their workers.
      */
     private void serve() throws IOException {
         while (true) {
-            try {
-                Response workerResponse = Response.fromJSONString(SocketUtils.safeReceive(inputStream));
-
-                synchronized (aggregatedResults) {
-
-                    aggregatedResults.add(workerResponse.getBody().toJSONString());
-                }
-
-                int localCompleted = completedWorkers.incrementAndGet();
-
-                if (localCompleted < totalWorkers) {
-                    synchronized (completedWorkers) {
-                        // Wait for the last thread only if not all workers are done
-                        while (completedWorkers.get() < totalWorkers) {
-                            completedWorkers.wait(); // Wait for other workers to complete
-                        }
-                    }
-                } else {
-                    synchronized (completedWorkers) {
-                        completedWorkers.notifyAll();  // Notify all waiting threads if this is the last worker
-                    }
-                }
-                if (localCompleted == totalWorkers) {
-                    JSONObject finalResults;
-
-                    // Reservations by area get aggregated as a map
-                    if(workerResponse.getBody().get("option").equals("4") && workerResponse.getBody().get("user_role").equals("Manager")){
-
-
-                        finalResults = mergeWorkerResultsMap();
-                        Response aggregatedResponse;
-
-                        assert finalResults.get("results") != null; // Ensure the 'result' key exists in the final results
-
-
+            handleResponse(SocketUtils.safeReceive(inputStream));
+        }
+    }
 
-                        if (((JSONObject) finalResults.get("results")).isEmpty()) {
-                            aggregatedResponse = new Response(workerResponse.getSessionId(), "", Response.Status.NOT_FOUND, "No results found", null);
-                        } else {
+    /**
+     * Aggregates a response of the worker, or forwards it if it is a chunk of a stream.
+     * A response that cannot be aggregated, e.g. because it does not tell how many workers answer its request, is
+     * dropped without affecting the responses that follow it on the connection.
+     *
+     * @param message The response as received from the worker.
+     */
+    private void handleResponse(String message) {
+        try {
+            Response workerResponse = Response.fromJSONString(message);
+            if (Boolean.TRUE.equals(workerResponse.getBody().get("stream"))) {
+                forwardChunk(workerResponse);
+                return;
+            }
 
-                            aggregatedResponse = new Response(workerResponse.getSessionId(), "", Response.Status.SUCCESS, "Found results", finalResults);
-                        }
+            AggregationTable.Slot slot = aggregationTable.offer(
+                    workerResponse.getSessionId(),
+                    workerResponse.getRequestId(),
+                    workerResponse.getBody().toJSONString(),
+                    fanOut(workerResponse)
+            );
+            if (slot == null) {
+                return; // Other workers have not answered this request yet
+            }
 
-                        sendResultsToMaster(aggregatedResponse);
-                    }else{
-                        finalResults = mergeWorkerResults();
-                        Response aggregatedResponse;
+            List<String> partialResults = slot.getPartialResults();
+            JSONObject finalResults;
+            Response aggregatedResponse;
 
+            // Reservations by area get aggregated as a map
+            if (workerResponse.getBody().get("option").equals("4") && workerResponse.getBody().get("user_role").equals("Manager")) {
+                finalResults = mergeWorkerResultsMap(partialResults);
 
-                        assert finalResults.get("results") != null; // Ensure the 'results' key exists in the final results
+                assert finalResults.get("results") != null; // Ensure the 'result' key exists in the final results
 
-                        if (((JSONArray) finalResults.get("results")).isEmpty()) {
+                if (((JSONObject) finalResults.get("results")).isEmpty()) {
+                    aggregatedResponse = new Response(workerResponse.getSessionId(), workerResponse.getRequestId(), "", Response.Status.NOT_FOUND, "No results found", null);
+                } else {
+                    aggregatedResponse = new Response(workerResponse.getSessionId(), workerResponse.getRequestId(), "", Response.Status.SUCCESS, "Found results", finalResults);
+                }
+            } else {
+                // Sorted searches keep the first page of the merged order only
+                SortOrder order = SortOrder.fromRequest(workerResponse.getBody());
+                finalResults = order == null ? mergeWorkerResults(partialResults) : mergeTopResults(partialResults, order);
 
-                            aggregatedResponse = new Response(workerResponse.getSessionId(), "", Response.Status.NOT_FOUND, "No results found", null);
+                assert finalResults.get("results") != null; // Ensure the 'results' key exists in the final results
 
-                        } else {
-                            aggregatedResponse = new Response(workerResponse.getSessionId(), "", Response.Status.SUCCESS, "Found results", finalResults);
-                        }
+                if (((JSONArray) finalResults.get("results")).isEmpty()) {
+                    aggregatedResponse = new Response(workerResponse.getSessionId(), workerResponse.getRequestId(), "", Response.Status.NOT_FOUND, "No results found", null);
+                } else {
+                    aggregatedResponse = new Response(workerResponse.getSessionId(), workerResponse.getRequestId(), "", Response.Status.SUCCESS, "Found results", finalResults);
+                }
+            }
 
-                        sendResultsToMaster(aggregatedResponse);// Send the results to the Master
-                    }
+            masterLink.send(aggregatedResponse); // Send the results to the Master
+        } catch (RuntimeException e) {
+            logger.warn("Dropping response from a worker: " + e.getMessage() + ": " + message);
+        }
+    }
 
+    /**
+     * Forwards a chunk of a streamed request to the Master, numbered in the sequence of its stream.
+     * The body sent to the Master has the "results" of the chunk, its "sequence" number, and "last" set on the chunk
+     * that ends the stream; that chunk is NOT_FOUND if no worker found anything, like an aggregated response.
+     *
+     * @param workerResponse The chunk as sent by the worker.
+     */
+    private void forwardChunk(Response workerResponse) {
+        JSONArray results = (JSONArray) workerResponse.getBody().get("result");
+        AggregationTable.Chunk position = aggregationTable.offerChunk(
+                workerResponse.getSessionId(),
+                workerResponse.getRequestId(),
+                results.size(),
+                Boolean.TRUE.equals(workerResponse.getBody().get("last")),
+                fanOut(workerResponse)
+        );
+        if (position == null) {
+            return; // Nothing to forward
+        }
+        JSONObject chunk = new JSONObject();
+        chunk.put("results", results);
+        chunk.put("sequence", position.getSequence());
+        chunk.put("last", position.isLast());
+
+        Response.Status status = Response.Status.SUCCESS;
+        String message = "Partial results";
+        if (position.isLast()) {
+            status = position.getTotalResults() == 0 ? Response.Status.NOT_FOUND : Response.Status.SUCCESS;
+            message = position.getTotalResults() == 0 ? "No results found" : "Found results";
+        }
+        masterLink.send(new Response(workerResponse.getSessionId(), workerResponse.getRequestId(), "", status, message, chunk));
+    }
 
-                    completedWorkers.set(0);
-                }
-            } catch (InterruptedException e) {
-                logger.error("Error waiting for other workers", e);
-            }
+    /**
+     * Returns the number of workers a request was sent to, as the Master records it in the request and the workers
+     * copy it into their responses. The Master fans out to the workers that are alive at the time, so the number
+     * can differ between requests.
+     *
+     * @param workerResponse A response of a worker.
+     * @return The number of workers that answer the request.
+     */
+    private int fanOut(Response workerResponse) {
+        Object fanOut = workerResponse.getBody().get("fanout");
+        if (!(fanOut instanceof Number)) {
+            throw new IllegalArgumentException("Response of request " + workerResponse.getRequestId() + " does not tell how many workers answer it");
         }
+        return ((Number) fanOut).intValue();
     }
 
     /**
      * Merges results from multiple workers into a single JSON object for reservations by area.
      *
+     * @param aggregatedResults The partial results of all workers for a single request.
      * @return A JSON object containing the merged results.
      */
-    private JSONObject mergeWorkerResultsMap() {
+    static JSONObject mergeWorkerResultsMap(List<String> aggregatedResults) {
 
         // Create a JSON object to store the merged results
         JSONObject mergedResults = new JSONObject();
@@ -205,9 +244,10 @@ public class ReducerConnectionHandler implements Runnable {
     /**
      * Merges results from multiple workers into a single JSON array.
      *
+     * @param aggregatedResults The partial results of all workers for a single request.
      * @return A JSON object containing the merged results.
      */
-    private JSONObject mergeWorkerResults() {
+    static JSONObject mergeWorkerResults(List<String> aggregatedResults) {
         // Create a JSON object to store the merged results
         JSONObject mergedResults = new JSONObject();
         JSONArray mergedResultsArray = new JSONArray();
@@ -245,33 +285,51 @@ public class ReducerConnectionHandler implements Runnable {
 
 
     /**
-     * Sends the aggregated results to the master server.
+     * Merges the pages of a sorted search, each sorted by its worker, into the first page of their merged order.
+     * The pages are merged k ways, so the merge reads only as many results as the page holds plus one per worker.
+     * If some results did not fit in the page, here or at a worker, the merged results carry a "nextCursor"
+     * that the client passes back as "after" to get the next page.
      *
-     * @param aggregatedResponse The aggregated response to send.
+     * @param aggregatedResults The partial results of all workers for a single request.
+     * @param order The order and page of the search.
+     * @return A JSON object containing the merged results, and the cursor of the next page if there is one.
      */
-    private void sendResultsToMaster(Response aggregatedResponse) {
-        Socket masterSocket = null;
-        DataOutputStream outputStream = null;
-        try {
-            // Connect to the master's reducer response port
-            masterSocket = new Socket("localhost", Constants.REDUCER_TO_MASTER_PORT);
-            outputStream = new DataOutputStream(masterSocket.getOutputStream());
-            // Send the merged results as a string
-
-            SocketUtils.safeSend(outputStream, aggregatedResponse.toJSONString());
+    static JSONObject mergeTopResults(List<String> aggregatedResults, SortOrder order) {
+        List<JSONArray> pages = new ArrayList<>(aggregatedResults.size());
+        boolean more = false; // Whether a worker found more results than its page holds
+        for (String result : aggregatedResults) {
+            JSONObject workerData = JSONUtils.parseJSONString(result);
+            pages.add((JSONArray) workerData.get("result"));
+            more |= Boolean.TRUE.equals(workerData.get("more"));
+        }
 
-        } catch (IOException e) {
-            logger.error("Error sending results to Master", e);
-        } finally {
-            // Clean up resources
-            try {
-                if (outputStream != null) outputStream.close();
-                if (masterSocket != null) masterSocket.close();
-                aggregatedResults.clear();
-            } catch (IOException ex) {
-                logger.error("Error closing resources", ex);
+        // The heap holds the position of the next result of every page, the best result first
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, pages.size()), (a, b) -> {
+            JSONObject first = (JSONObject) pages.get(a[0]).get(a[1]);
+            JSONObject second = (JSONObject) pages.get(b[0]).get(b[1]);
+            return order.compare(order.valueOf(first), (String) first.get("hotelName"), order.valueOf(second), (String) second.get("hotelName"));
+        });
+        for (int page = 0; page < pages.size(); page++) {
+            if (!pages.get(page).isEmpty()) {
+                heads.add(new int[]{page, 0});
             }
         }
+        JSONArray mergedResultsArray = new JSONArray();
+        while (!heads.isEmpty() && mergedResultsArray.size() < order.getLimit()) {
+            int[] head = heads.poll();
+            JSONArray page = pages.get(head[0]);
+            mergedResultsArray.add(page.get(head[1]));
+            if (++head[1] < page.size()) {
+                heads.add(head);
+            }
+        }
+
+        JSONObject mergedResults = new JSONObject();
+        mergedResults.put("results", mergedResultsArray);
+        if ((more || !heads.isEmpty()) && !mergedResultsArray.isEmpty()) {
+            mergedResults.put("nextCursor", order.cursorAfter((JSONObject) mergedResultsArray.get(mergedResultsArray.size() - 1)));
+        }
+        return mergedResults;
     }
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,127 @@
+package org.aueb.storage;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds the mutations recorded in the journal and applies them to a hotel catalogue.
+ * Every mutation carries the new state of the fields it changes rather than a delta,
+ * so applying the same mutation twice, e.g. when a compaction is interrupted, gives the same catalogue.
+ */
+public class HotelMutations {
+    public static final String ADD_HOTEL = "addHotel"; // A new hotel, with all its fields
+    public static final String SET_DATES = "setDates"; // New available dates of a hotel
+    public static final String RESERVE = "reserve"; // New available dates and reservations of a hotel after a booking
+    public static final String RATE = "rate"; // New rating and number of reviews of a hotel
+
+    /**
+     * @param hotel The JSON representation of the new hotel, as stored in the catalogue.
+     * @return The mutation that adds the hotel.
+     */
+    public static JSONObject addHotel(JSONObject hotel) {
+        JSONObject mutation = mutation(ADD_HOTEL, (String) hotel.get("hotelName"));
+        mutation.put("hotel", hotel);
+        return mutation;
+    }
+
+    /**
+     * @param hotelName The name of the hotel.
+     * @param availableDates The available dates of the hotel after the change.
+     * @return The mutation that sets the available dates of the hotel.
+     */
+    public static JSONObject setAvailableDates(String hotelName, Object availableDates) {
+        JSONObject mutation = mutation(SET_DATES, hotelName);
+        mutation.put("availableDates", availableDates);
+        return mutation;
+    }
+
+    /**
+     * @param hotelName The name of the hotel.
+     * @param availableDates The available dates of the hotel after the booking.
+     * @param reservations The reservations of the hotel after the booking.
+     * @return The mutation that records a booking.
+     */
+    public static JSONObject reserve(String hotelName, Object availableDates, Object reservations) {
+        JSONObject mutation = mutation(RESERVE, hotelName);
+        mutation.put("availableDates", availableDates);
+        mutation.put("reservations", reservations);
+        return mutation;
+    }
+
+    /**
+     * @param hotelName The name of the hotel.
+     * @param stars The rating of the hotel after the review.
+     * @param numReviews The number of reviews of the hotel after the review.
+     * @return The mutation that records a review.
+     */
+    public static JSONObject rate(String hotelName, Object stars, Object numReviews) {
+        JSONObject mutation = mutation(RATE, hotelName);
+        mutation.put("stars", stars);
+        mutation.put("numReviews", numReviews);
+        return mutation;
+    }
+
+    /**
+     * Applies mutations, in order, to a catalogue of the form {"hotels": [...]}.
+     * Hotels are matched by name ignoring case, the same way the workers look them up.
+     *
+     * @param catalogue The catalogue to update in place.
+     * @param mutations The mutations to apply.
+     */
+    public static void applyAll(JSONObject catalogue, List<JSONObject> mutations) {
+        JSONArray hotels = (JSONArray) catalogue.get("hotels");
+        Map<String, JSONObject> hotelsByName = new HashMap<>();
+        for (Object hotelObj : hotels) {
+            JSONObject hotel = (JSONObject) hotelObj;
+            hotelsByName.put(key((String) hotel.get("hotelName")), hotel);
+        }
+        for (JSONObject mutation : mutations) {
+            String hotelName = (String) mutation.get("hotelName");
+            if (ADD_HOTEL.equals(mutation.get("op"))) {
+                if (!hotelsByName.containsKey(key(hotelName))) {
+                    JSONObject hotel = (JSONObject) mutation.get("hotel");
+                    hotels.add(hotel);
+                    hotelsByName.put(key(hotelName), hotel);
+                }
+                continue;
+            }
+            JSONObject hotel = hotelsByName.get(key(hotelName));
+            if (hotel == null) {
+                continue; // The hotel is not part of this catalogue
+            }
+            switch ((String) mutation.get("op")) {
+                case SET_DATES:
+                    hotel.put("availableDates", mutation.get("availableDates"));
+                    break;
+                case RESERVE:
+                    hotel.put("availableDates", mutation.get("availableDates"));
+                    hotel.put("reservations", mutation.get("reservations"));
+                    break;
+                case RATE:
+                    hotel.put("stars", mutation.get("stars"));
+                    hotel.put("numReviews", mutation.get("numReviews"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown mutation: " + mutation.get("op"));
+            }
+        }
+    }
+
+    /* Creates a mutation of the given operation on a hotel */
+    private static JSONObject mutation(String op, String hotelName) {
+        JSONObject mutation = new JSONObject();
+        mutation.put("op", op);
+        mutation.put("hotelName", hotelName);
+        return mutation;
+    }
+
+    /* Key of a hotel name in the lookup map */
+    private static String key(String hotelName) {
+        return hotelName == null ? "" : hotelName.toLowerCase(Locale.ROOT);
+    }
+}
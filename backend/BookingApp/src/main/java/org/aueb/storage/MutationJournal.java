@@ -0,0 +1,208 @@
+package org.aueb.storage;
+
+import org.aueb.util.JSONReaderWriter;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The MutationJournal is an append-only log of the changes made to the hotel catalogue, kept next to the catalogue snapshot.
+ * A change costs one small append instead of rewriting the whole snapshot. Appends of concurrent sessions are
+ * written and synced together by a single writer thread (group commit), and every caller returns once its change is durable.
+ * The journal is folded into the snapshot on startup and whenever it grows past a threshold.
+ */
+public class MutationJournal {
+    private static final Logger logger = LoggerFactory.getLogger(MutationJournal.class); // Logger for the MutationJournal class
+    private static final long COMPACTION_THRESHOLD = 4 * 1024 * 1024; // Journal size in bytes that triggers a compaction
+    private static final int MAX_BATCH = 1024; // Maximum number of mutations written with a single sync
+    private final Path snapshotPath; // Path of the catalogue snapshot
+    private final Path journalPath; // Path of the journal
+    private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>(); // Mutations waiting to be written
+    private final ConcurrentHashMap<String, HotelLock> hotelLocks = new ConcurrentHashMap<>(); // Order the changes of the same hotel, by hotel name
+    private FileChannel channel; // Open journal, only used by the writer thread after construction
+    private long journalSize; // Current size of the journal in bytes
+
+    /**
+     * Opens the journal of a snapshot, folding any mutations left by a previous run into the snapshot first.
+     *
+     * @param snapshotPath Path of the catalogue snapshot.
+     * @param journalPath Path of the journal.
+     * @throws IOException If the journal or the snapshot cannot be read or written.
+     */
+    public MutationJournal(String snapshotPath, String journalPath) throws IOException {
+        this.snapshotPath = Paths.get(snapshotPath);
+        this.journalPath = Paths.get(journalPath);
+        channel = FileChannel.open(this.journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journalSize = channel.size();
+        if (journalSize > 0) {
+            compact();
+        }
+        Thread writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Appends a mutation and waits until it has been synced to disk.
+     *
+     * @param mutation The mutation to record, built with HotelMutations.
+     * @throws IOException If the mutation could not be written.
+     */
+    public void append(JSONObject mutation) throws IOException {
+        PendingWrite write = new PendingWrite(mutation.toJSONString() + "\n");
+        queue.add(write);
+        try {
+            write.done.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Acquires the lock that orders the changes of a hotel, waiting while another change of the same hotel is in flight.
+     * Mutations carry the new state of a hotel, so two changes of the same hotel must reach the journal in the order
+     * the worker applied them: hold the lock from sending the request to the worker until its mutation is appended.
+     * The lock also keeps the holders of the hotel applying its changes in the same order, since the Master replicates
+     * a change before it releases the lock.
+     * Every hotel has a lock of its own, so a slow worker or sync only delays the changes of its own hotels.
+     *
+     * @param hotelName The name of the hotel.
+     */
+    public void lockHotel(String hotelName) {
+        HotelLock hotelLock = hotelLocks.compute(hotelName.toLowerCase(Locale.ROOT), (name, current) -> {
+            HotelLock entry = current == null ? new HotelLock() : current;
+            entry.users++;
+            return entry;
+        });
+        hotelLock.lock.lock();
+    }
+
+    /**
+     * Releases the lock of a hotel acquired by lockHotel, dropping it once no other change of the hotel waits for it.
+     *
+     * @param hotelName The name of the hotel.
+     */
+    public void unlockHotel(String hotelName) {
+        String key = hotelName.toLowerCase(Locale.ROOT);
+        hotelLocks.get(key).lock.unlock();
+        hotelLocks.computeIfPresent(key, (name, entry) -> --entry.users == 0 ? null : entry);
+    }
+
+    /* Writes the queued mutations in batches, syncing once per batch */
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                StringBuilder lines = new StringBuilder();
+                for (PendingWrite write : batch) {
+                    lines.append(write.line);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                journalSize += buffer.limit();
+                batch.forEach(write -> write.done.complete(null));
+                if (journalSize >= COMPACTION_THRESHOLD) {
+                    compact();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                logger.error("Error writing to the journal: ", e);
+                batch.forEach(write -> write.done.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+    }
+
+    /*
+     * Folds the journal into the snapshot: applies the mutations to the snapshot, writes the result to a temporary file,
+     * moves it over the snapshot and empties the journal. A crash at any point leaves either the old snapshot and the
+     * full journal, or the new snapshot and a journal whose mutations are already part of it and are harmless to re-apply.
+     */
+    private void compact() throws IOException {
+        JSONObject catalogue;
+        try {
+            catalogue = JSONReaderWriter.readJsonFile(snapshotPath.toString());
+        } catch (Exception e) {
+            throw new IOException("Cannot read snapshot " + snapshotPath, e);
+        }
+        List<JSONObject> mutations = readJournal();
+        HotelMutations.applyAll(catalogue, mutations);
+
+        Path temporaryPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (FileChannel snapshot = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(catalogue.toJSONString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                snapshot.write(buffer);
+            }
+            snapshot.force(true);
+        }
+        Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.truncate(0);
+        channel.force(true);
+        journalSize = 0;
+        logger.info("Compacted " + mutations.size() + " journal entries into " + snapshotPath);
+    }
+
+    /* Reads the mutations of the journal. A torn last line, left by a crash in the middle of a write, is ignored. */
+    private List<JSONObject> readJournal() throws IOException {
+        List<JSONObject> mutations = new ArrayList<>();
+        JSONParser parser = new JSONParser();
+        for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                mutations.add((JSONObject) parser.parse(line));
+            } catch (ParseException e) {
+                logger.warn("Ignoring incomplete journal entry: " + line);
+                break;
+            }
+        }
+        return mutations;
+    }
+
+    /* A mutation waiting for the writer thread */
+    /* The lock of a hotel and the number of callers holding or waiting for it, guarded by the map of the locks */
+    private static final class HotelLock {
+        private final ReentrantLock lock = new ReentrantLock(); // Orders the changes of the hotel
+        private int users; // Number of callers holding or waiting for the lock
+    }
+
+    private static class PendingWrite {
+        private final String line; // Encoded mutation, terminated by a newline
+        private final CompletableFuture<Void> done = new CompletableFuture<>(); // Completed once the mutation is durable
+
+        private PendingWrite(String line) {
+            this.line = line;
+        }
+    }
+}
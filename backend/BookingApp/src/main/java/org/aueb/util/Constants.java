@@ -1,10 +1,13 @@
 package org.aueb.util;
 
 public class Constants {
-        public static final Integer NUM_WORKER_NODES = 3;
         public static final Integer MASTER_PORT = 8000;
         public static final Integer REDUCER_PORT = 7000;
         public static final String JSON_FILE_PATH = "bin/hotel.json";
+        public static final String JOURNAL_FILE_PATH = "bin/hotel.journal";
+        public static final String WORKER_DATA_DIRECTORY = "bin/workers";
         public static final int REDUCER_TO_MASTER_PORT = 9000;
+        public static final int WORKER_REGISTRATION_PORT = 9001;
+        public static final long HEARTBEAT_INTERVAL_MILLIS = 2000;
 
 }
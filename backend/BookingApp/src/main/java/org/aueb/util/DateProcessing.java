@@ -8,10 +8,16 @@ import java.util.Scanner;
 /**
  * This class provides utility methods for processing and comparing date strings.
  * It includes methods to validate and parse date strings and to compare two dates.
+ * Dates on the request paths are handled as epoch days: "yyyy-MM-dd" is parsed straight from its characters
+ * into an int, without creating any objects, and compared or shifted with int arithmetic.
  */
 public class DateProcessing {
 
     private static final Scanner scanner = new Scanner(System.in);
+    private static final int DATE_LENGTH = 10; // Length of a date in the format "yyyy-MM-dd"
+    private static final int RANGE_END_OFFSET = DATE_LENGTH + 3; // Offset of the last date in "yyyy-MM-dd - yyyy-MM-dd"
+    private static final int DAYS_PER_ERA = 146097; // Days in a 400-year cycle of the Gregorian calendar
+    private static final int DAYS_0000_TO_1970 = 719468; // Days from 0000-03-01 to 1970-01-01
 
     /**
      * Compares two dates to determine if the first date is before or the same as the second date.
@@ -21,15 +27,11 @@ public class DateProcessing {
      * @throws ParseException If the date strings cannot be parsed into the specified format.
      */
     public static boolean compareDates(String firstDate, String lastDate) throws ParseException {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-        Date date1 = sdf.parse(firstDate);
-        Date date2 = sdf.parse(lastDate);
-        if (date1.equals(date2) || date1.before(date2)) {
-
-            return true;
-
+        try {
+            return toEpochDay(firstDate) <= toEpochDay(lastDate);
+        } catch (IllegalArgumentException e) {
+            throw new ParseException(e.getMessage(), 0);
         }
-        return false;
     }
     /**
      * Validates and processes a user input string containing one or multiple date ranges.
@@ -111,10 +113,149 @@ public class DateProcessing {
      * @throws ParseException If the date string cannot be parsed into the specified format.
      */
     public static String subtractOneDay(String date) throws ParseException {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-        Date parsedDate = sdf.parse(date);
-        parsedDate.setTime(parsedDate.getTime() - (1000 * 60 * 60 * 24)); // subtract one day
-        return sdf.format(parsedDate);
+        try {
+            return fromEpochDay(addDays(toEpochDay(date), -1));
+        } catch (IllegalArgumentException e) {
+            throw new ParseException(e.getMessage(), 0);
+        }
+    }
+
+    /**
+     * Converts a date to the number of days since 1970-01-01, so dates can be compared and shifted as ints.
+     * @param date The date in the format "yyyy-MM-dd".
+     * @return The epoch day of the date.
+     * @throws IllegalArgumentException If the date is not a valid date in the format "yyyy-MM-dd".
+     */
+    public static int toEpochDay(CharSequence date) {
+        if (date.length() != DATE_LENGTH) {
+            throw new IllegalArgumentException("Invalid date: " + date);
+        }
+        return toEpochDay(date, 0);
+    }
+
+    /**
+     * Converts the date at the given position of a character sequence to an epoch day, without copying it out.
+     * @param text The text that contains the date.
+     * @param offset The position of the date in the format "yyyy-MM-dd".
+     * @return The epoch day of the date.
+     * @throws IllegalArgumentException If there is no valid date at the position.
+     */
+    public static int toEpochDay(CharSequence text, int offset) {
+        if (offset < 0 || offset + DATE_LENGTH > text.length()
+                || text.charAt(offset + 4) != '-' || text.charAt(offset + 7) != '-') {
+            throw new IllegalArgumentException("Invalid date: " + text);
+        }
+        int year = digits(text, offset, 4);
+        int month = digits(text, offset + 5, 2);
+        int day = digits(text, offset + 8, 2);
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            throw new IllegalArgumentException("Invalid date: " + text);
+        }
+        return daysFromCivil(year, month, day);
+    }
+
+    /**
+     * @param range A range in the format "yyyy-MM-dd - yyyy-MM-dd".
+     * @return The epoch day of the first date of the range.
+     * @throws IllegalArgumentException If the range is not in the expected format.
+     */
+    public static int rangeStart(CharSequence range) {
+        return toEpochDay(range, 0);
+    }
+
+    /**
+     * @param range A range in the format "yyyy-MM-dd - yyyy-MM-dd".
+     * @return The epoch day of the last date of the range.
+     * @throws IllegalArgumentException If the range is not in the expected format.
+     */
+    public static int rangeEnd(CharSequence range) {
+        if (range.length() != RANGE_END_OFFSET + DATE_LENGTH) {
+            throw new IllegalArgumentException("Invalid date range: " + range);
+        }
+        return toEpochDay(range, RANGE_END_OFFSET);
+    }
+
+    /**
+     * Checks whether the range [first, last] lies within the range [from, to]. All bounds are inclusive epoch days.
+     * @return true if from &lt;= first and last &lt;= to.
+     */
+    public static boolean isWithin(int first, int last, int from, int to) {
+        return from <= first && last <= to;
+    }
+
+    /**
+     * @param epochDay A date as an epoch day.
+     * @param days The number of days to add, negative to go back.
+     * @return The shifted date as an epoch day.
+     */
+    public static int addDays(int epochDay, int days) {
+        return epochDay + days;
+    }
+
+    /**
+     * Converts an epoch day back to a date.
+     * @param epochDay The number of days since 1970-01-01.
+     * @return The date in the format "yyyy-MM-dd".
+     */
+    public static String fromEpochDay(int epochDay) {
+        // Inverse of daysFromCivil, on years that start on March 1st
+        int z = epochDay + DAYS_0000_TO_1970;
+        int era = Math.floorDiv(z, DAYS_PER_ERA);
+        int dayOfEra = z - era * DAYS_PER_ERA;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            throw new IllegalArgumentException("Date out of range: " + epochDay);
+        }
+
+        char[] chars = new char[DATE_LENGTH];
+        chars[0] = (char) ('0' + year / 1000);
+        chars[1] = (char) ('0' + year / 100 % 10);
+        chars[2] = (char) ('0' + year / 10 % 10);
+        chars[3] = (char) ('0' + year % 10);
+        chars[4] = '-';
+        chars[5] = (char) ('0' + month / 10);
+        chars[6] = (char) ('0' + month % 10);
+        chars[7] = '-';
+        chars[8] = (char) ('0' + day / 10);
+        chars[9] = (char) ('0' + day % 10);
+        return new String(chars);
+    }
+
+    /* Days from 1970-01-01 to a date of the proleptic Gregorian calendar, counting years from March 1st */
+    private static int daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * DAYS_PER_ERA + dayOfEra - DAYS_0000_TO_1970;
+    }
+
+    /* Number of days of a month */
+    private static int lengthOfMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /* Parses a fixed number of decimal digits */
+    private static int digits(CharSequence text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid date: " + text);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
     }
 
 }
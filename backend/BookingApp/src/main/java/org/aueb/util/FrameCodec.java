@@ -0,0 +1,172 @@
+package org.aueb.util;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes the length-prefixed binary frames exchanged between all components of the system.
+ * A frame consists of a 4-byte big-endian payload length, a flags byte and the raw UTF-8 payload.
+ * Unlike DataOutputStream.writeUTF, frames are not limited to 65535 bytes and use standard UTF-8.
+ * Encoding and decoding reuse a per-thread buffer, so a message costs a single write call and no intermediate copies.
+ */
+public class FrameCodec {
+    public static final int HEADER_SIZE = 5; // Payload length (int) followed by the flags byte
+    public static final byte FLAG_NONE = 0; // Flags of a plain, self-contained message
+    public static final int MAX_FRAME_SIZE = 256 * 1024 * 1024; // Upper bound on the payload size of a frame
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024; // Larger buffers are not kept after use
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[8192]); // Reusable per-thread buffers
+
+    /**
+     * Writes a message as a single frame without flags.
+     *
+     * @param out The stream to write the frame to.
+     * @param payload The message to send.
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    public static void writeFrame(OutputStream out, String payload) throws IOException {
+        writeFrame(out, payload, FLAG_NONE);
+    }
+
+    /**
+     * Writes a message as a single frame with the given flags.
+     * The header and the payload are encoded into one buffer and written with a single call.
+     *
+     * @param out The stream to write the frame to.
+     * @param payload The message to send.
+     * @param flags The flags byte of the frame.
+     * @throws IOException If an I/O error occurs while writing, or the message exceeds the maximum frame size.
+     */
+    public static void writeFrame(OutputStream out, String payload, byte flags) throws IOException {
+        checkLength(payload.length());
+        byte[] buffer = acquireBuffer(HEADER_SIZE + maxEncodedLength(payload));
+        int length = encode(payload, buffer, HEADER_SIZE);
+        checkLength(length);
+        writeHeader(buffer, 0, length, flags);
+        out.write(buffer, 0, HEADER_SIZE + length);
+        out.flush();
+    }
+
+    /**
+     * Encodes a message as a frame into a buffer of its own, for writers that queue frames instead of writing them directly.
+     *
+     * @param payload The message to encode.
+     * @param flags The flags byte of the frame.
+     * @return A buffer positioned at the start of the frame and limited to its end.
+     * @throws IOException If the message exceeds the maximum frame size.
+     */
+    public static ByteBuffer encode(String payload, byte flags) throws IOException {
+        checkLength(payload.length());
+        byte[] buffer = acquireBuffer(HEADER_SIZE + maxEncodedLength(payload));
+        int length = encode(payload, buffer, HEADER_SIZE);
+        checkLength(length);
+        writeHeader(buffer, 0, length, flags);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length);
+        frame.put(buffer, 0, HEADER_SIZE + length);
+        return frame.flip();
+    }
+
+    /**
+     * Reads a single frame and returns its payload.
+     *
+     * @param in The stream to read the frame from.
+     * @return The payload of the frame.
+     * @throws IOException If an I/O error occurs, the stream ends, or the frame is malformed.
+     */
+    public static String readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        in.readByte(); // flags are not needed by plain request/response exchanges
+        checkLength(length);
+        byte[] buffer = acquireBuffer(length);
+        in.readFully(buffer, 0, length);
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Validates the payload length read from a frame header.
+     *
+     * @param length The payload length.
+     * @throws IOException If the length is negative or exceeds the maximum frame size.
+     */
+    public static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    /**
+     * Writes a frame header into a buffer.
+     *
+     * @param buffer The buffer to write into.
+     * @param offset The position of the header in the buffer.
+     * @param length The payload length.
+     * @param flags The flags byte.
+     */
+    static void writeHeader(byte[] buffer, int offset, int length, byte flags) {
+        buffer[offset] = (byte) (length >>> 24);
+        buffer[offset + 1] = (byte) (length >>> 16);
+        buffer[offset + 2] = (byte) (length >>> 8);
+        buffer[offset + 3] = (byte) length;
+        buffer[offset + 4] = flags;
+    }
+
+    /**
+     * @param payload A message.
+     * @return An upper bound of the UTF-8 encoded size of the message.
+     */
+    static int maxEncodedLength(String payload) {
+        return payload.length() * 3;
+    }
+
+    /**
+     * Encodes a string as UTF-8 directly into a buffer, without intermediate byte arrays.
+     *
+     * @param payload The string to encode.
+     * @param buffer The buffer to write into, with room for at least maxEncodedLength bytes after the offset.
+     * @param offset The position in the buffer where the encoded bytes start.
+     * @return The number of bytes written.
+     */
+    static int encode(String payload, byte[] buffer, int offset) {
+        int position = offset;
+        int length = payload.length();
+        for (int i = 0; i < length; i++) {
+            char c = payload.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(payload.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, payload.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[position++] = (byte) '?'; // Unpaired surrogates cannot be encoded, same as String.getBytes
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position - offset;
+    }
+
+    /*
+     * Returns the buffer of the current thread, growing it if it is smaller than the requested size.
+     * Buffers above MAX_RETAINED_BUFFER are used once and not kept, so a single large message does not pin memory.
+     */
+    private static byte[] acquireBuffer(int size) {
+        byte[] buffer = buffers.get();
+        if (buffer.length < size) {
+            buffer = new byte[Math.max(size, buffer.length * 2)];
+            if (buffer.length <= MAX_RETAINED_BUFFER) {
+                buffers.set(buffer);
+            }
+        }
+        return buffer;
+    }
+}
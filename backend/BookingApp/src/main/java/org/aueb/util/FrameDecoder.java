@@ -0,0 +1,54 @@
+package org.aueb.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Incrementally decodes the frames written by FrameCodec from a non-blocking channel.
+ * Bytes are fed as they arrive, in chunks of any size; every frame that becomes complete is emitted as its payload.
+ * A decoder keeps the state of a partially received frame, so each connection needs its own instance.
+ */
+public class FrameDecoder {
+    private final ByteBuffer header = ByteBuffer.allocate(FrameCodec.HEADER_SIZE); // Header of the frame being received
+    private byte[] payload; // Payload of the frame being received, null while the header is incomplete
+    private int received; // Number of payload bytes received so far
+
+    /**
+     * Consumes all the bytes available in the buffer and collects the payloads of the frames they complete.
+     *
+     * @param in The bytes read from the channel, ready to be read.
+     * @param frames The list to which the payloads of the completed frames are added, in order.
+     * @throws IOException If a frame header is malformed.
+     */
+    public void decode(ByteBuffer in, List<String> frames) throws IOException {
+        while (in.hasRemaining()) {
+            if (payload == null) {
+                while (header.hasRemaining() && in.hasRemaining()) {
+                    header.put(in.get());
+                }
+                if (header.hasRemaining()) {
+                    return; // Wait for the rest of the header
+                }
+                header.flip();
+                int length = header.getInt();
+                header.clear();
+                FrameCodec.checkLength(length);
+                if (length == 0) {
+                    frames.add(""); // Complete already, even if the header used up the bytes read
+                    continue;
+                }
+                payload = new byte[length];
+                received = 0;
+            }
+            int count = Math.min(in.remaining(), payload.length - received);
+            in.get(payload, received, count);
+            received += count;
+            if (received == payload.length) {
+                frames.add(new String(payload, StandardCharsets.UTF_8));
+                payload = null;
+            }
+        }
+    }
+}
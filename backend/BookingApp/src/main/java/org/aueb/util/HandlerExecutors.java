@@ -0,0 +1,38 @@
+package org.aueb.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors that run the connection handlers of the Master, the Workers and the Reducer.
+ * By default every handler gets a platform thread of its own. In virtual-thread mode every handler runs on a
+ * virtual thread instead, so blocking sessions cost no OS thread while they wait for I/O.
+ */
+public class HandlerExecutors {
+    public static final String VIRTUAL_THREADS_OPTION = "--virtual-threads"; // Command line option that enables virtual threads
+
+    /**
+     * @param args The command line arguments of a component.
+     * @return Whether the virtual-thread mode was requested.
+     */
+    public static boolean isVirtualThreadsEnabled(String[] args) {
+        return Arrays.asList(args).contains(VIRTUAL_THREADS_OPTION);
+    }
+
+    /**
+     * Creates an executor that starts a new thread for every task.
+     *
+     * @param virtualThreads Whether the tasks run on virtual threads instead of platform threads.
+     * @param name Prefix of the names of the platform threads.
+     * @return The executor.
+     */
+    public static ExecutorService newPerTaskExecutor(boolean virtualThreads, String name) {
+        if (virtualThreads) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newThreadPerTaskExecutor(r -> new Thread(r, name + "-" + threadCount.incrementAndGet()));
+    }
+}
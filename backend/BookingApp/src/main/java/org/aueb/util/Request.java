@@ -2,12 +2,16 @@ package org.aueb.util;
 
 import org.json.simple.JSONObject;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * The Request class encapsulates data for a single request in the system, including session identification,
  * the type of request, and any additional data associated with the request in a JSON format.
  */
 public class Request {
+    private static final AtomicLong id_counter = new AtomicLong(0); // counter for request ids
     private final Long sessionId; // unique session id
+    private final Long requestId; // unique request id, used to correlate partial results of a fan-out
     private final String type; // type of request
     private final JSONObject body; // additional data associated with the request
 
@@ -15,6 +19,10 @@ public class Request {
         return sessionId;
     }
 
+    public Long getRequestId() {
+        return requestId;
+    }
+
     public String getType() {
         return type;
     }
@@ -25,16 +33,31 @@ public class Request {
 
     /**
      * Constructs a new Request with a session id, a type, and a JSON object as the body.
+     * A new unique request id is assigned to the request.
      * @param sessionId The unique session id associated with the request.
      * @param type The type of request.
      * @param body The additional data associated with the request in a JSON format.
      */
     public Request(Long sessionId, String type, JSONObject body) {
         this.sessionId = sessionId;
+        this.requestId = id_counter.incrementAndGet();
         this.type = type;
         this.body = body;
     }
 
+    /**
+     * Constructs a copy of a request with another body, keeping its session and request ids,
+     * e.g. to send every worker of a fan-out its own part of the request.
+     * @param request The request to copy.
+     * @param body The body of the copy.
+     */
+    public Request(Request request, JSONObject body) {
+        this.sessionId = request.sessionId;
+        this.requestId = request.requestId;
+        this.type = request.type;
+        this.body = body;
+    }
+
     /**
      * Constructs a new Request from a JSON formatted string.
      * @param request The JSON formatted string that represents the request.
@@ -42,6 +65,7 @@ public class Request {
     public Request(String request) {
         JSONObject json =  JSONUtils.parseJSONString(request);
         this.sessionId = (Long)  json.get("sessionId");
+        this.requestId = (Long) json.get("requestId");
         this.type = (String) json.get("type");
         this.body = (JSONObject) json.get("body");
     }
@@ -53,6 +77,7 @@ public class Request {
     public JSONObject toJSON() {
         JSONObject response = new JSONObject();
         response.put("sessionId", sessionId);
+        response.put("requestId", requestId);
         response.put("type",type);
         response.put("body", body);
         return response;
@@ -80,6 +105,6 @@ public class Request {
      * @return A string representation of this Request.
      */
     public String toString() {
-        return "Request {" + "sessionId=" + sessionId + ", type='" + type + '\'' + ((body != null) ? ", body=" + body.toString() : "") + '}';
+        return "Request {" + "sessionId=" + sessionId + ", requestId=" + requestId + ", type='" + type + '\'' + ((body != null) ? ", body=" + body.toString() : "") + '}';
     }
 }
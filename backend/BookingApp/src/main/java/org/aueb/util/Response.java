@@ -19,6 +19,7 @@ public class Response {
     };
 
     private final Long sessionId;
+    private final Long requestId;
     private final String type;
     private final String message;
     private final JSONObject body;
@@ -34,7 +35,21 @@ public class Response {
      * @param body A JSONObject containing all other response-specific data.
      */
     public Response(Long sessionId,  String type, Status status, String message, JSONObject body) {
+        this(sessionId, null, type, status, message, body);
+    }
+
+    /**
+     * Constructs a Response object that answers a specific request.
+     * @param sessionId Unique identifier for the session this response belongs to.
+     * @param requestId Identifier of the request this response answers.
+     * @param type The type of the response, generally reflecting the operation or request type.
+     * @param status The status of the response, indicating success or specific types of failures.
+     * @param message A human-readable message providing more details about the response.
+     * @param body A JSONObject containing all other response-specific data.
+     */
+    public Response(Long sessionId, Long requestId, String type, Status status, String message, JSONObject body) {
         this.sessionId = sessionId;
+        this.requestId = requestId;
         this.type = type;
         this.status = status;
         this.message = message;
@@ -49,6 +64,7 @@ public class Response {
     public Response(String response) {
         JSONObject json =  JSONUtils.parseJSONString(response);
         this.sessionId = (Long)  json.get("sessionId");
+        this.requestId = (Long) json.get("requestId");
         this.type = (String) json.get("type");
         this.status = Status.valueOf((String) json.get("status"));
         this.message = (String) json.get("message");
@@ -58,6 +74,9 @@ public class Response {
     public Long getSessionId() {
         return sessionId;
     }
+    public Long getRequestId() {
+        return requestId;
+    }
     public String getMessage() {
         return message;
     }
@@ -75,6 +94,7 @@ public class Response {
     public JSONObject toJSON() {
         JSONObject response = new JSONObject();
         response.put("sessionId", sessionId);
+        response.put("requestId", requestId);
         response.put("type",type);
         response.put("status", status.toString());
         response.put("message", message);
@@ -100,6 +120,6 @@ public class Response {
     }
 
     public  String toString() {
-        return "Response {" + "sessionId=" + sessionId + ", type='" + type + '\'' + ", status=" + status + ", message='" + message + '\'' + ((body != null) ? ", body=" + body.toString() : "") + '}';
+        return "Response {" + "sessionId=" + sessionId + ", requestId=" + requestId + ", type='" + type + '\'' + ", status=" + status + ", message='" + message + '\'' + ((body != null) ? ", body=" + body.toString() : "") + '}';
     }
 }
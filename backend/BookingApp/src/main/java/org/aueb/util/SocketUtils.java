@@ -11,7 +11,7 @@ import java.util.NoSuchElementException;
 public class SocketUtils {
 
     /**
-     * Sends a message safely through a DataOutputStream.
+     * Sends a message safely through a DataOutputStream as a single length-prefixed frame.
      * Ensures that the message is written and flushed without needing to handle IOExceptions externally.
      *
      * @param out The DataOutputStream through which the message will be sent.
@@ -20,15 +20,14 @@ public class SocketUtils {
      */
     public static void safeSend(DataOutputStream out, String message) {
         try {
-            out.writeUTF(message);
-            out.flush();
+            FrameCodec.writeFrame(out, message);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * Receives a UTF-encoded string message from a DataInputStream safely.
+     * Receives a single length-prefixed frame from a DataInputStream safely and returns its payload.
      * This method abstracts the IOException handling, simplifying method calls.
      *
      * @param in The DataInputStream from which to read the message.
@@ -37,14 +36,15 @@ public class SocketUtils {
      */
     public static String safeReceive(DataInputStream in) throws IOException {
         try {
-            return in.readUTF();
+            return FrameCodec.readFrame(in);
         } catch (IOException e) {
             throw new IOException(e);
         }
     }
 
     /**
-     * Creates a DataInputStream from a given Socket's input stream.
+     * Creates a buffered DataInputStream from a given Socket's input stream, so that frame headers
+     * do not cost one system call per byte.
      * This method handles the IOException internally, throwing a RuntimeException if an error occurs.
      *
      * @param socket The Socket from which the input stream is created.
@@ -53,7 +53,7 @@ public class SocketUtils {
      */
     public static DataInputStream createDataInputStream(Socket socket) {
         try {
-            return new DataInputStream(socket.getInputStream());
+            return new DataInputStream(new BufferedInputStream(socket.getInputStream()));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,152 @@
+package org.aueb.util;
+
+import org.json.simple.JSONObject;
+
+/**
+ * The order and page of a sorted search, read from the body of a client request:
+ * "sort" is the sort key (price, stars or numReviews), "order" is "asc" (the default) or "desc",
+ * "limit" is the page size, and "after" is the cursor returned with the previous page, if any.
+ * <p>
+ * Hotels with the same value of the sort key are ordered by name, so the order is total and a cursor, which holds
+ * the value and the name of the last hotel of a page, tells exactly where the next page starts, even if hotels are
+ * added or rated between the pages. Workers and the Reducer read the same fields, so both sort the same way.
+ */
+public class SortOrder {
+    public static final int DEFAULT_LIMIT = 20; // Page size when the request has no limit
+    public static final int MAX_LIMIT = 1000; // Largest page size a request may ask for
+
+    /**
+     * The fields hotels can be sorted by, named as in the JSON representation of a hotel.
+     */
+    public enum Key {
+        PRICE("price"),
+        STARS("stars"),
+        NUM_REVIEWS("numReviews");
+
+        private final String field; // Name of the field in the JSON representation of a hotel
+
+        Key(String field) {
+            this.field = field;
+        }
+
+        public String getField() {
+            return field;
+        }
+    }
+
+    private final Key key; // Sort key
+    private final boolean descending; // Whether higher values come first
+    private final int limit; // Page size
+    private final Double afterValue; // Value of the sort key of the cursor, or null on the first page
+    private final String afterName; // Hotel name of the cursor, or null on the first page
+
+    private SortOrder(Key key, boolean descending, int limit, Double afterValue, String afterName) {
+        this.key = key;
+        this.descending = descending;
+        this.limit = limit;
+        this.afterValue = afterValue;
+        this.afterName = afterName;
+    }
+
+    /**
+     * Reads the order of a sorted search from a request body.
+     *
+     * @param body The body of the request, or of a worker response that repeats its order.
+     * @return The order, or null if the body has no sort key and the results are not to be sorted.
+     * @throws IllegalArgumentException If the sort key, the direction or the cursor is not valid.
+     */
+    public static SortOrder fromRequest(JSONObject body) {
+        Object sort = body.get("sort");
+        if (sort == null) {
+            return null;
+        }
+        Key key = null;
+        for (Key candidate : Key.values()) {
+            if (candidate.field.equalsIgnoreCase(sort.toString())) {
+                key = candidate;
+            }
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("Unknown sort key: " + sort);
+        }
+
+        Object order = body.getOrDefault("order", "asc");
+        if (!"asc".equalsIgnoreCase(order.toString()) && !"desc".equalsIgnoreCase(order.toString())) {
+            throw new IllegalArgumentException("Unknown sort order: " + order);
+        }
+        Object limit = body.get("limit");
+        int pageSize = limit instanceof Number ? (int) Math.max(1, Math.min(MAX_LIMIT, ((Number) limit).longValue())) : DEFAULT_LIMIT;
+
+        Double afterValue = null;
+        String afterName = null;
+        Object after = body.get("after");
+        if (after != null) {
+            if (!(after instanceof JSONObject cursor) || !(cursor.get("value") instanceof Number) || !(cursor.get("hotelName") instanceof String)) {
+                throw new IllegalArgumentException("Invalid cursor: " + after);
+            }
+            afterValue = ((Number) cursor.get("value")).doubleValue();
+            afterName = (String) cursor.get("hotelName");
+        }
+        return new SortOrder(key, "desc".equalsIgnoreCase(order.toString()), pageSize, afterValue, afterName);
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Compares two hotels in this order.
+     *
+     * @return A negative number if the first hotel comes first, a positive number if it comes second, 0 if they are the same hotel.
+     */
+    public int compare(double value, String hotelName, double otherValue, String otherHotelName) {
+        int result = Double.compare(value, otherValue);
+        if (descending) {
+            result = -result;
+        }
+        return result != 0 ? result : hotelName.compareTo(otherHotelName);
+    }
+
+    /**
+     * @return True if a hotel comes after the cursor of the request, i.e. belongs to this page or a later one.
+     */
+    public boolean isAfterCursor(double value, String hotelName) {
+        return afterName == null || compare(value, hotelName, afterValue, afterName) > 0;
+    }
+
+    /**
+     * @param hotel The JSON representation of a hotel.
+     * @return The value of the sort key of the hotel.
+     */
+    public double valueOf(JSONObject hotel) {
+        return ((Number) hotel.get(key.field)).doubleValue();
+    }
+
+    /**
+     * Builds the cursor of the page that ends with the given hotel, to be passed back as "after" for the next page.
+     *
+     * @param lastHotel The JSON representation of the last hotel of a page.
+     * @return The cursor.
+     */
+    public JSONObject cursorAfter(JSONObject lastHotel) {
+        JSONObject cursor = new JSONObject();
+        cursor.put("value", valueOf(lastHotel));
+        cursor.put("hotelName", lastHotel.get("hotelName"));
+        return cursor;
+    }
+
+    /**
+     * Writes the order into the body of a worker response, so the Reducer merges the pages of the workers in the same order.
+     *
+     * @param body The body of the response.
+     */
+    public void writeTo(JSONObject body) {
+        body.put("sort", key.field);
+        body.put("order", descending ? "desc" : "asc");
+        body.put("limit", limit);
+    }
+}
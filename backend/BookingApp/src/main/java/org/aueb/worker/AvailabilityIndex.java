@@ -0,0 +1,144 @@
+package org.aueb.worker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The AvailabilityIndex records, for every day, which rows of the HotelStore are available on it.
+ * A query for the hotels that are free on every day of a range ANDs the bitmaps of its days, 64 hotels per word,
+ * instead of asking every hotel; the days on which no hotel of a block is available cost nothing at all.
+ * <p>
+ * Bitmaps are split in chunks of CHUNK_ROWS rows, created the first time a row of the chunk becomes available on the day.
+ * Bits are set and cleared atomically, so hotels that share a word can be updated concurrently under their own locks.
+ * The AvailabilitySet of a hotel stays authoritative: a query that races with an update may see the day bits of a hotel
+ * half updated, so the callers confirm the hotels the index selects with the hotel itself.
+ * <p>
+ * Every indexed day costs a chunk of 8 KB per 65536 rows, so only the days from PAST_DAYS before to FUTURE_DAYS after
+ * the day the index was created are indexed, about 15 MB per chunk at most; the days of a range outside of them are
+ * not recorded, and a query that reaches outside of them selects every row, leaving the hotels to answer it.
+ */
+final class AvailabilityIndex {
+    static final int PAST_DAYS = 3 * 366; // Number of days before the creation of the index that are indexed
+    static final int FUTURE_DAYS = 2 * 366; // Number of days after the creation of the index that are indexed
+    private static final int CHUNK_SHIFT = 16; // Log2 of the number of rows per chunk
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT; // Number of rows per chunk
+    private static final int CHUNK_WORDS = CHUNK_ROWS / 64; // Number of bitmap words per chunk
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L; // Number of milliseconds of a day
+
+    private final ConcurrentHashMap<Long, AtomicLongArray> chunks = new ConcurrentHashMap<>(); // Bitmap chunks by day and chunk number
+    private final int firstDay; // First indexed day, as an epoch day
+    private final int lastDay; // Last indexed day, as an epoch day
+
+    /**
+     * Constructs an empty index of the days around today.
+     */
+    AvailabilityIndex() {
+        this(today() - PAST_DAYS, today() + FUTURE_DAYS);
+    }
+
+    /**
+     * Constructs an empty index of the given days.
+     *
+     * @param firstDay The first indexed day, as an epoch day.
+     * @param lastDay The last indexed day, as an epoch day.
+     */
+    AvailabilityIndex(int firstDay, int lastDay) {
+        this.firstDay = firstDay;
+        this.lastDay = lastDay;
+    }
+
+    /**
+     * Marks a row as available on every indexed day from first to last.
+     *
+     * @param row The row of the hotel.
+     * @param first The first day, as an epoch day.
+     * @param last The last day, as an epoch day.
+     */
+    void set(int row, int first, int last) {
+        long bit = 1L << row;
+        int word = (row & (CHUNK_ROWS - 1)) >>> 6;
+        for (int day = Math.max(first, firstDay); day <= Math.min(last, lastDay); day++) {
+            chunks.computeIfAbsent(key(day, row >>> CHUNK_SHIFT), k -> new AtomicLongArray(CHUNK_WORDS))
+                    .accumulateAndGet(word, bit, (current, mask) -> current | mask);
+        }
+    }
+
+    /**
+     * Marks a row as unavailable on every indexed day from first to last.
+     *
+     * @param row The row of the hotel.
+     * @param first The first day, as an epoch day.
+     * @param last The last day, as an epoch day.
+     */
+    void clear(int row, int first, int last) {
+        long bit = 1L << row;
+        int word = (row & (CHUNK_ROWS - 1)) >>> 6;
+        for (int day = Math.max(first, firstDay); day <= Math.min(last, lastDay); day++) {
+            AtomicLongArray chunk = chunks.get(key(day, row >>> CHUNK_SHIFT));
+            if (chunk != null) {
+                chunk.accumulateAndGet(word, bit, (current, mask) -> current & ~mask);
+            }
+        }
+    }
+
+    /**
+     * Returns the rows that are available on every day from first to last.
+     * A range that ends before it starts stands for its first day, as in AvailabilitySet.contains.
+     *
+     * @param first The first day, as an epoch day.
+     * @param last The last day, as an epoch day.
+     * @param size The number of rows to consider.
+     * @return The bitmap of the available rows, one bit per row in the words of the array,
+     *         or null if the range is not within the indexed days, so any row may be available.
+     */
+    long[] available(int first, int last, int size) {
+        last = Math.max(first, last);
+        if (first < firstDay || last > lastDay) {
+            return null;
+        }
+        long[] rows = new long[(size + 63) >>> 6];
+        for (int chunk = 0; (long) chunk * CHUNK_ROWS < size; chunk++) {
+            int base = chunk * CHUNK_WORDS;
+            int words = Math.min(CHUNK_WORDS, rows.length - base);
+            AtomicLongArray bitmap = chunks.get(key(first, chunk));
+            if (bitmap == null) {
+                continue;
+            }
+            for (int i = 0; i < words; i++) {
+                rows[base + i] = bitmap.get(i);
+            }
+            for (int day = first + 1; day <= last; day++) {
+                bitmap = chunks.get(key(day, chunk));
+                long any = 0;
+                for (int i = 0; i < words; i++) {
+                    rows[base + i] &= bitmap == null ? 0 : bitmap.get(i);
+                    any |= rows[base + i];
+                }
+                if (any == 0) {
+                    break; // No row of the chunk is available on every day so far
+                }
+            }
+        }
+        if (size % 64 != 0) {
+            rows[rows.length - 1] &= (1L << size) - 1; // Rows past the size may be set while they are being added
+        }
+        return rows;
+    }
+
+    /**
+     * @return The number of bitmap chunks, each taking 8 KB.
+     */
+    int chunkCount() {
+        return chunks.size();
+    }
+
+    /* The current day in UTC, as an epoch day */
+    private static int today() {
+        return (int) Math.floorDiv(System.currentTimeMillis(), MILLIS_PER_DAY);
+    }
+
+    /* Key of the bitmap chunk of a day */
+    private static Long key(int day, int chunk) {
+        return ((long) day << 32) | chunk;
+    }
+}
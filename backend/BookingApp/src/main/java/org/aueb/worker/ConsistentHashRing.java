@@ -0,0 +1,164 @@
+package org.aueb.worker;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The ConsistentHashRing places hotels on workers. Every worker owns a number of virtual nodes, points spread over a
+ * 64-bit ring, and a hotel belongs to the worker of the first point at or after the hash of its name.
+ * Adding or removing a worker only moves the hotels between its points and their predecessors, about 1/N of all hotels,
+ * while every other hotel stays where it is.
+ * <p>
+ * A ring is immutable; adding or removing a worker returns a new ring. The points depend only on the worker ids,
+ * so the Master and the workers that build a ring of the same workers place every hotel on the same worker.
+ * Names are hashed ignoring case, because workers look hotels up by name ignoring case.
+ * <p>
+ * The worker a hotel is placed on is its primary. A shard, the hotels of one primary, can be replicated: its holders
+ * are the primary and the workers that follow it in ascending order of id, so all the hotels of a shard are held by
+ * the same workers and any one of them can answer for the whole shard.
+ */
+public final class ConsistentHashRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 160; // Points per worker, enough to keep the shards within a few percent of each other
+
+    private final int virtualNodes; // Number of points of every worker
+    private final SortedSet<Integer> workers; // Ids of the workers of the ring
+    private final int[] ids; // Ids of the workers of the ring, in ascending order
+    private final long[] points; // Points of the ring, in ascending order
+    private final int[] owners; // Worker of every point
+
+    /**
+     * Builds a ring of the given workers with the default number of virtual nodes.
+     *
+     * @param workers The ids of the workers.
+     */
+    public ConsistentHashRing(Collection<Integer> workers) {
+        this(workers, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Builds a ring of the given workers.
+     *
+     * @param workers The ids of the workers.
+     * @param virtualNodes The number of points of every worker.
+     */
+    public ConsistentHashRing(Collection<Integer> workers, int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+        this.workers = Collections.unmodifiableSortedSet(new TreeSet<>(workers));
+        this.ids = this.workers.stream().mapToInt(Integer::intValue).toArray();
+        long[][] entries = new long[this.workers.size() * virtualNodes][];
+        int i = 0;
+        for (int worker : this.workers) {
+            for (int node = 0; node < virtualNodes; node++) {
+                entries[i++] = new long[]{hash("worker-" + worker + "#" + node), worker};
+            }
+        }
+        // Ties between points are broken by worker id, so every ring of the same workers is the same
+        Arrays.sort(entries, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        points = new long[entries.length];
+        owners = new int[entries.length];
+        for (i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            owners[i] = (int) entries[i][1];
+        }
+    }
+
+    /**
+     * @return The ids of the workers of the ring, in ascending order.
+     */
+    public SortedSet<Integer> getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @param worker The id of the worker to add.
+     * @return A ring with the same workers and the given one.
+     */
+    public ConsistentHashRing withWorker(int worker) {
+        SortedSet<Integer> ids = new TreeSet<>(workers);
+        ids.add(worker);
+        return new ConsistentHashRing(ids, virtualNodes);
+    }
+
+    /**
+     * @param worker The id of the worker to remove.
+     * @return A ring with the same workers but the given one.
+     */
+    public ConsistentHashRing withoutWorker(int worker) {
+        SortedSet<Integer> ids = new TreeSet<>(workers);
+        ids.remove(worker);
+        return new ConsistentHashRing(ids, virtualNodes);
+    }
+
+    /**
+     * Finds the worker a hotel belongs to.
+     *
+     * @param hotelName The name of the hotel, in any case.
+     * @return The id of the worker.
+     * @throws IllegalStateException If the ring has no workers.
+     */
+    public int workerFor(String hotelName) {
+        if (points.length == 0) {
+            throw new IllegalStateException("No workers to place " + hotelName + " on");
+        }
+        int index = Arrays.binarySearch(points, hash(hotelName.toLowerCase(Locale.ROOT)));
+        if (index < 0) {
+            index = -index - 1; // First point after the hash
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Finds the workers that hold a shard.
+     *
+     * @param primary The id of the primary of the shard.
+     * @param replicas The number of workers that hold every shard, at most the number of workers of the ring.
+     * @return The primary followed by the workers that hold replicas of the shard.
+     * @throws IllegalArgumentException If the primary is not a worker of the ring.
+     */
+    public List<Integer> holders(int primary, int replicas) {
+        int index = Arrays.binarySearch(ids, primary);
+        if (index < 0) {
+            throw new IllegalArgumentException("No worker " + primary);
+        }
+        int count = Math.min(Math.max(replicas, 1), ids.length);
+        List<Integer> holders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            holders.add(ids[(index + i) % ids.length]);
+        }
+        return holders;
+    }
+
+    /**
+     * Finds the workers that hold a hotel.
+     *
+     * @param hotelName The name of the hotel, in any case.
+     * @param replicas The number of workers that hold every hotel.
+     * @return The primary of the hotel followed by the workers that hold replicas of it.
+     * @throws IllegalStateException If the ring has no workers.
+     */
+    public List<Integer> holdersFor(String hotelName, int replicas) {
+        return holders(workerFor(hotelName), replicas);
+    }
+
+    /* 64-bit FNV-1a over the UTF-8 bytes of a key, followed by the MurmurHash3 finalizer to spread similar keys apart */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb3fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
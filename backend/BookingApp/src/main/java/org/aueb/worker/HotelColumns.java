@@ -0,0 +1,340 @@
+package org.aueb.worker;
+
+import org.aueb.entities.Hotel;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A snapshot of the hotels of a worker, stored column by column in primitive arrays, with secondary indexes over
+ * the columns. Row i of every column describes hotels[i], and rows never move, so a row number identifies a hotel for
+ * the lifetime of the store. A hotel that leaves the store, e.g. to move to another worker, keeps its row but is marked
+ * as removed, and searches skip it.
+ * <p>
+ * A search starts from the most selective of its predicates that has an index: the postings of an area, the
+ * sorted indexes of price and stars, or the bitmap of the hotels available on the requested days. Only the candidates of that index are checked against the other predicates,
+ * so the cost follows the size of the result rather than the size of the shard. When no index narrows the search
+ * down enough, the predicates run as tight loops over one column at a time instead, clearing the bits of the rows
+ * that fail them, without touching the Hotel objects or boxing a value.
+ * <p>
+ * A snapshot is immutable apart from the stars column, which ratings update in place. Changes return a new snapshot
+ * that may share arrays with this one; entries at or past the sizes of a snapshot are never read through it.
+ */
+final class HotelColumns {
+    static final int NO_AREA = -1; // Area code of an area that no hotel is in
+    private static final int INITIAL_CAPACITY = 16; // Number of rows of the first arrays
+    private static final int SCAN_FRACTION = 8; // An index is used when it selects at most 1/SCAN_FRACTION of the rows
+
+    final Hotel[] hotels; // The hotel of every row
+    final int[] numPeople; // Capacity of every row
+    final double[] price; // Price of every row
+    final double[] stars; // Rating of every row, updated in place
+    final int[] area; // Dictionary code of the area of every row
+    final int size; // Number of rows of this snapshot
+    private final int[][] areaRows; // Rows of every area code, in ascending order
+    private final int[] areaCounts; // Number of rows of every area code in this snapshot
+    private final SortedColumnIndex priceIndex; // Sorted index of the price column
+    private final SortedColumnIndex starsIndex; // Sorted index of the stars column
+    private final long[] removed; // Bitmap of the rows whose hotel has left the store, or null if none has
+
+    HotelColumns() {
+        this(new Hotel[INITIAL_CAPACITY], new int[INITIAL_CAPACITY], new double[INITIAL_CAPACITY],
+                new double[INITIAL_CAPACITY], new int[INITIAL_CAPACITY], 0, new int[0][], new int[0],
+                SortedColumnIndex.build(new double[0], 0), SortedColumnIndex.build(new double[0], 0), null);
+    }
+
+    private HotelColumns(Hotel[] hotels, int[] numPeople, double[] price, double[] stars, int[] area, int size,
+                         int[][] areaRows, int[] areaCounts, SortedColumnIndex priceIndex, SortedColumnIndex starsIndex,
+                         long[] removed) {
+        this.hotels = hotels;
+        this.numPeople = numPeople;
+        this.price = price;
+        this.stars = stars;
+        this.area = area;
+        this.size = size;
+        this.areaRows = areaRows;
+        this.areaCounts = areaCounts;
+        this.priceIndex = priceIndex;
+        this.starsIndex = starsIndex;
+        this.removed = removed;
+    }
+
+    /**
+     * Returns a snapshot with hotels appended after the last row, and the indexes updated to cover them.
+     * Only called by the single writer of the store.
+     *
+     * @param newHotels The hotels to append.
+     * @param areaCodes The dictionary code of the area of every new hotel.
+     * @return The new snapshot.
+     */
+    HotelColumns append(List<Hotel> newHotels, int[] areaCodes) {
+        int newSize = size + newHotels.size();
+        Hotel[] hotels = this.hotels;
+        int[] numPeople = this.numPeople;
+        double[] price = this.price;
+        double[] stars = this.stars;
+        int[] area = this.area;
+        if (newSize > hotels.length) {
+            int capacity = Math.max(newSize, hotels.length * 2);
+            hotels = Arrays.copyOf(hotels, capacity);
+            numPeople = Arrays.copyOf(numPeople, capacity);
+            price = Arrays.copyOf(price, capacity);
+            stars = Arrays.copyOf(stars, capacity);
+            area = Arrays.copyOf(area, capacity);
+        }
+
+        int areaCount = areaCounts.length;
+        for (int code : areaCodes) {
+            areaCount = Math.max(areaCount, code + 1);
+        }
+        int[][] areaRows = Arrays.copyOf(this.areaRows, areaCount);
+        int[] areaCounts = Arrays.copyOf(this.areaCounts, areaCount);
+
+        int[] rows = new int[newHotels.size()];
+        for (int i = 0; i < rows.length; i++) {
+            int row = size + i;
+            Hotel hotel = newHotels.get(i);
+            hotels[row] = hotel;
+            numPeople[row] = hotel.getNumPeople();
+            price[row] = hotel.getPrice();
+            stars[row] = hotel.getStars();
+            area[row] = areaCodes[i];
+            rows[i] = row;
+
+            int code = areaCodes[i];
+            if (areaRows[code] == null || areaCounts[code] == areaRows[code].length) {
+                areaRows[code] = Arrays.copyOf(areaRows[code] == null ? new int[0] : areaRows[code], Math.max(8, areaCounts[code] * 2));
+            }
+            areaRows[code][areaCounts[code]++] = row;
+        }
+        return new HotelColumns(hotels, numPeople, price, stars, area, newSize, areaRows, areaCounts,
+                priceIndex.withRows(rows, rows.length, price, newSize), starsIndex.withRows(rows, rows.length, stars, newSize), removed);
+    }
+
+    /**
+     * Returns a snapshot in which a row has a new rating. Only called by the single writer of the store.
+     *
+     * @param row The row.
+     * @param value The new rating.
+     * @return The new snapshot.
+     */
+    HotelColumns withStars(int row, double value) {
+        stars[row] = value;
+        return new HotelColumns(hotels, numPeople, price, stars, area, size, areaRows, areaCounts,
+                priceIndex, starsIndex.withRows(new int[]{row}, 1, stars, size), removed);
+    }
+
+    /**
+     * Returns a snapshot in which some rows are removed. Their hotels are no longer selected or listed, but the rows
+     * keep their numbers. Only called by the single writer of the store.
+     *
+     * @param rows The rows to remove.
+     * @return The new snapshot.
+     */
+    HotelColumns withRemoved(int[] rows) {
+        long[] removed = this.removed == null ? new long[(size + 63) >>> 6] : Arrays.copyOf(this.removed, Math.max(this.removed.length, (size + 63) >>> 6));
+        for (int row : rows) {
+            removed[row >>> 6] |= 1L << row;
+        }
+        return new HotelColumns(hotels, numPeople, price, stars, area, size, areaRows, areaCounts, priceIndex, starsIndex, removed);
+    }
+
+    /**
+     * @param row A row of this snapshot.
+     * @return True if the hotel of the row has left the store.
+     */
+    boolean isRemoved(int row) {
+        return removed != null && row >>> 6 < removed.length && (removed[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * @return True if some rows of this snapshot have been removed.
+     */
+    boolean hasRemoved() {
+        return removed != null;
+    }
+
+    /**
+     * Selects the rows that satisfy all the given predicates. A null predicate matches every row.
+     *
+     * @param areaCode Dictionary code the area must have, NO_AREA if the area is unknown, or null. The code may be
+     *                 newer than this snapshot, in which case no row has it.
+     * @param minPeople Minimum capacity, or null.
+     * @param maxPrice Maximum price, or null.
+     * @param minStars Minimum rating, or null.
+     * @param available Bitmap of the rows that may be selected, one bit per row of this snapshot, or null.
+     * @return The matching rows, in ascending order.
+     */
+    int[] select(Integer areaCode, Integer minPeople, Double maxPrice, Double minStars, long[] available) {
+        int[] rows = selectRows(areaCode, minPeople, maxPrice, minStars, available);
+        if (removed == null) {
+            return rows;
+        }
+        int count = 0;
+        for (int row : rows) {
+            if (!isRemoved(row)) {
+                rows[count++] = row;
+            }
+        }
+        return count == rows.length ? rows : Arrays.copyOf(rows, count);
+    }
+
+    /* Selects the rows that satisfy all the given predicates, including the removed ones */
+    private int[] selectRows(Integer areaCode, Integer minPeople, Double maxPrice, Double minStars, long[] available) {
+        // A code past those of this snapshot is that of an area whose first hotels are being added after it
+        if (areaCode != null && (areaCode == NO_AREA || areaCode >= areaCounts.length)) {
+            return new int[0];
+        }
+        // Pick the index with the fewest candidates
+        int[] candidates = null;
+        int fewest = size / SCAN_FRACTION + 1;
+        boolean sorted = true; // Whether the candidates are in ascending order, without duplicates
+        int availableCount = available == null ? size : bitCount(available);
+        if (available != null && availableCount < fewest) {
+            fewest = availableCount;
+            candidates = toRows(available);
+        }
+        if (areaCode != null && areaCounts[areaCode] < fewest) {
+            fewest = areaCounts[areaCode];
+            candidates = Arrays.copyOf(areaRows[areaCode], areaCounts[areaCode]);
+        }
+        if (maxPrice != null && priceIndex.estimateAtMost(maxPrice) < fewest) {
+            fewest = priceIndex.estimateAtMost(maxPrice);
+            candidates = priceIndex.candidatesAtMost(maxPrice);
+            sorted = false;
+        }
+        if (minStars != null && starsIndex.estimateAtLeast(minStars) < fewest) {
+            candidates = starsIndex.candidatesAtLeast(minStars);
+            sorted = false;
+        }
+        if (candidates == null) {
+            return toRows(scan(areaCode, minPeople, maxPrice, minStars, available));
+        }
+
+        int count = 0;
+        for (int row : candidates) {
+            if ((available == null || (available[row >>> 6] & (1L << row)) != 0)
+                    && (areaCode == null || area[row] == areaCode)
+                    && (minPeople == null || numPeople[row] >= minPeople)
+                    && (maxPrice == null || price[row] <= maxPrice)
+                    && (minStars == null || stars[row] >= minStars)) {
+                candidates[count++] = row;
+            }
+        }
+        if (sorted) {
+            return Arrays.copyOf(candidates, count);
+        }
+        // Rows come in the order of the index, and a changed row can appear twice
+        Arrays.sort(candidates, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || candidates[i] != candidates[distinct - 1]) {
+                candidates[distinct++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(candidates, distinct);
+    }
+
+    /* Evaluates the predicates over the whole columns, starting from the available rows, returning the bitmap of the matching rows */
+    private long[] scan(Integer areaCode, Integer minPeople, Double maxPrice, Double minStars, long[] available) {
+        long[] rows;
+        if (available != null) {
+            rows = available; // Owned by this search, so the predicates can clear its bits in place
+        } else {
+            rows = new long[(size + 63) >>> 6];
+            Arrays.fill(rows, -1L);
+            if (size % 64 != 0) {
+                rows[rows.length - 1] = (1L << size) - 1; // Shifts are modulo 64, so this keeps the low size % 64 bits
+            }
+        }
+        if (areaCode != null) {
+            keepEqual(rows, area, areaCode);
+        }
+        if (minPeople != null) {
+            keepAtLeast(rows, numPeople, minPeople);
+        }
+        if (maxPrice != null) {
+            keepAtMost(rows, price, maxPrice);
+        }
+        if (minStars != null) {
+            keepAtLeast(rows, stars, minStars);
+        }
+        return rows;
+    }
+
+    /* The number of bits set in a bitmap */
+    private static int bitCount(long[] bitmap) {
+        int count = 0;
+        for (long word : bitmap) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /* The rows whose bits are set, in ascending order */
+    private static int[] toRows(long[] bitmap) {
+        int[] rows = new int[bitCount(bitmap)];
+        int index = 0;
+        for (int word = 0; word < bitmap.length; word++) {
+            long bits = bitmap[word];
+            while (bits != 0) {
+                rows[index++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return rows;
+    }
+
+    /*
+     * The predicate kernels build each word of 64 rows without branches and AND it into the bitmap,
+     * so the inner loops are straight-line code over a single primitive array.
+     */
+
+    private void keepEqual(long[] rows, int[] column, int value) {
+        for (int word = 0; word < rows.length; word++) {
+            int base = word << 6;
+            int end = Math.min(64, size - base);
+            long bits = 0;
+            for (int bit = 0; bit < end; bit++) {
+                bits |= (column[base + bit] == value ? 1L : 0L) << bit;
+            }
+            rows[word] &= bits;
+        }
+    }
+
+    private void keepAtLeast(long[] rows, int[] column, int min) {
+        for (int word = 0; word < rows.length; word++) {
+            int base = word << 6;
+            int end = Math.min(64, size - base);
+            long bits = 0;
+            for (int bit = 0; bit < end; bit++) {
+                bits |= (column[base + bit] >= min ? 1L : 0L) << bit;
+            }
+            rows[word] &= bits;
+        }
+    }
+
+    private void keepAtLeast(long[] rows, double[] column, double min) {
+        for (int word = 0; word < rows.length; word++) {
+            int base = word << 6;
+            int end = Math.min(64, size - base);
+            long bits = 0;
+            for (int bit = 0; bit < end; bit++) {
+                bits |= (column[base + bit] >= min ? 1L : 0L) << bit;
+            }
+            rows[word] &= bits;
+        }
+    }
+
+    private void keepAtMost(long[] rows, double[] column, double max) {
+        for (int word = 0; word < rows.length; word++) {
+            int base = word << 6;
+            int end = Math.min(64, size - base);
+            long bits = 0;
+            for (int bit = 0; bit < end; bit++) {
+                bits |= (column[base + bit] <= max ? 1L : 0L) << bit;
+            }
+            rows[word] &= bits;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package org.aueb.worker;
+
+import org.aueb.entities.AvailabilitySet;
+import org.aueb.entities.Hotel;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * The HotelStore holds the hotels of a worker, shared by all its connections.
+ * Next to the hotels it keeps a case-insensitive index from hotel name to row,
+ * so bookings, ratings and date updates find their hotel in constant time however large the shard grows.
+ * <p>
+ * The fields that searches filter on (capacity, price, rating and area) are also kept in columns of primitive arrays
+ * (see HotelColumns), with an index of the hotels of every area and sorted indexes of price and rating.
+ * A search starts from its most selective indexed predicate, or scans the columns, and only looks at the hotels that match.
+ * The available dates of the hotels are indexed by day as well (see AvailabilityIndex), so a search for the hotels free
+ * on a range of days ANDs a bitmap per day instead of asking every hotel; bookings and new dates must therefore go
+ * through the store, which keeps the index in step with the hotels.
+ * Hotels are appended by a single writer at a time and published as a new snapshot of the columns;
+ * searches and lookups read the current snapshot without locking. Hotels that leave the store keep their rows,
+ * marked as removed, so rows are never renumbered.
+ * <p>
+ * The mutable state of a hotel (available dates and reservations) is guarded by one of a fixed set of striped locks,
+ * chosen by the hotel's name, so requests on different hotels rarely wait for each other.
+ * <p>
+ * If the store has a ShardLog, every change is recorded in it, and the method that makes it returns once the record
+ * is durable: additions and removals record themselves, and in-place changes are recorded with {@link #persist}.
+ */
+public class HotelStore {
+    private static final int LOCK_STRIPES = 256; // Number of locks that guard the state of the hotels
+    private volatile HotelColumns columns = new HotelColumns(); // Current snapshot of the hotels, in the order they were added
+    private final ConcurrentHashMap<String, Integer> rowsByName = new ConcurrentHashMap<>(); // Rows by lower-case hotel name
+    private final AvailabilityIndex availability = new AvailabilityIndex(); // Rows available on every day
+    private final ConcurrentHashMap<String, Integer> areaCodes = new ConcurrentHashMap<>(); // Dictionary codes by lower-case area
+    private final ReentrantLock writeLock = new ReentrantLock(); // Serializes additions and updates of the columns
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES]; // Striped locks of the hotels
+    private volatile ShardLog log; // Records the changes on disk, or null if the hotels are only kept in memory
+
+    /**
+     * Constructs an empty HotelStore.
+     */
+    public HotelStore() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Starts recording the changes of the hotels in a log. Changes made before are not recorded.
+     *
+     * @param log The log.
+     */
+    public void setLog(ShardLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Adds a hotel unless a hotel with the same name, ignoring case, already exists.
+     *
+     * @param hotel The hotel to add.
+     * @return True if the hotel was added, false if its name is already taken.
+     */
+    public boolean add(Hotel hotel) {
+        return addAll(List.of(hotel)) == 1;
+    }
+
+    /**
+     * Adds hotels in bulk, skipping those whose name, ignoring case, is already taken.
+     * The whole batch is published as a single snapshot: the columns grow geometrically and the sorted indexes are
+     * rebuilt at most once, so loading a shard costs O(n log n) rather than a copy per hotel.
+     *
+     * @param newHotels The hotels to add.
+     * @return The number of hotels that were added.
+     */
+    public int addAll(Collection<Hotel> newHotels) {
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        writeLock.lock();
+        try {
+            Map<String, Integer> added = new HashMap<>(); // Rows of the new hotels by lower-case name
+            List<Hotel> hotels = new ArrayList<>(newHotels.size());
+            int[] codes = new int[newHotels.size()];
+            int row = columns.size;
+            for (Hotel hotel : newHotels) {
+                String name = key(hotel.getHotelName());
+                if (rowsByName.containsKey(name) || added.containsKey(name)) {
+                    continue;
+                }
+                indexAvailability(row, hotel.getAvailability());
+                added.put(name, row++);
+                codes[hotels.size()] = areaCodes.computeIfAbsent(key(hotel.getArea()), area -> areaCodes.size());
+                hotels.add(hotel);
+            }
+            ShardLog log = this.log;
+            if (log != null) {
+                hotels.forEach(hotel -> writes.add(log.put(hotel))); // Recorded before they are published and can change
+            }
+            // The days of the new rows were indexed first; searches ignore rows past the size of the snapshot they read
+            columns = columns.append(hotels, Arrays.copyOf(codes, hotels.size()));
+            // Names are indexed only once their rows are published, so a lookup never finds a row it cannot read
+            rowsByName.putAll(added);
+            return hotels.size();
+        } finally {
+            writeLock.unlock();
+            ShardLog.await(writes);
+        }
+    }
+
+    /**
+     * Finds a hotel by name, ignoring case.
+     *
+     * @param hotelName The name of the hotel.
+     * @return The hotel, or null if this worker has no hotel with that name.
+     */
+    public Hotel find(String hotelName) {
+        Integer row = rowsByName.get(key(hotelName));
+        return row == null ? null : columns.hotels[row];
+    }
+
+    /**
+     * @return The number of hotels of the worker.
+     */
+    public int size() {
+        return rowsByName.size();
+    }
+
+    /**
+     * @return The hotels of the worker. The list is a snapshot: hotels added or removed later do not change it.
+     */
+    public List<Hotel> getHotels() {
+        HotelColumns current = columns;
+        if (!current.hasRemoved()) {
+            return Collections.unmodifiableList(Arrays.asList(current.hotels).subList(0, current.size));
+        }
+        List<Hotel> hotels = new ArrayList<>(current.size);
+        for (int row = 0; row < current.size; row++) {
+            if (!current.isRemoved(row)) {
+                hotels.add(current.hotels[row]);
+            }
+        }
+        return Collections.unmodifiableList(hotels);
+    }
+
+    /**
+     * Removes the hotels that satisfy a predicate, e.g. those that move to another worker.
+     * Their rows are only marked as removed, so the rows of the other hotels and the searches in progress are not disturbed.
+     * A removed hotel can be added again later, and gets a new row.
+     *
+     * @param filter Selects the hotels to remove.
+     * @return The removed hotels.
+     */
+    public List<Hotel> removeIf(Predicate<Hotel> filter) {
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        writeLock.lock();
+        try {
+            HotelColumns current = columns;
+            List<Hotel> removed = new ArrayList<>();
+            int[] rows = new int[current.size];
+            for (int row = 0; row < current.size; row++) {
+                if (!current.isRemoved(row) && filter.test(current.hotels[row])) {
+                    rows[removed.size()] = row;
+                    removed.add(current.hotels[row]);
+                }
+            }
+            if (removed.isEmpty()) {
+                return removed;
+            }
+            // The rows are hidden from searches first, then the names stop finding them
+            columns = current.withRemoved(Arrays.copyOf(rows, removed.size()));
+            ShardLog log = this.log;
+            for (int i = 0; i < removed.size(); i++) {
+                rowsByName.remove(key(removed.get(i).getHotelName()), rows[i]);
+                if (log != null) {
+                    writes.add(log.remove(removed.get(i).getHotelName()));
+                }
+            }
+            return removed;
+        } finally {
+            writeLock.unlock();
+            ShardLog.await(writes);
+        }
+    }
+
+    /**
+     * Records the state of a hotel after an in-place change, such as a booking, a rating or new dates, and waits until
+     * it is durable. Call it after releasing the lock of the hotel; the state is read under the lock.
+     * Does nothing if the store has no log.
+     *
+     * @param hotel The hotel.
+     */
+    public void persist(Hotel hotel) {
+        ShardLog log = this.log;
+        if (log == null) {
+            return;
+        }
+        CompletableFuture<Void> write = null;
+        ReentrantLock lock = lockFor(hotel);
+        lock.lock();
+        writeLock.lock(); // Orders the record with the removal of the hotel, which must stay last if it comes
+        try {
+            if (find(hotel.getHotelName()) == hotel) {
+                write = log.put(hotel);
+            }
+        } finally {
+            writeLock.unlock();
+            lock.unlock();
+        }
+        if (write != null) {
+            ShardLog.await(List.of(write));
+        }
+    }
+
+    /**
+     * Returns the hotel of a row, as returned by {@link #select}.
+     *
+     * @param row The row of the hotel.
+     * @return The hotel.
+     */
+    public Hotel getHotel(int row) {
+        return columns.hotels[row];
+    }
+
+    /**
+     * Selects the hotels that satisfy all the given predicates. A null predicate matches every hotel.
+     * The most selective index of the predicates is used, or the columns are scanned if no index narrows the search.
+     *
+     * @param area Area of the hotels, ignoring case, or null.
+     * @param minPeople Minimum number of people the hotels accommodate, or null.
+     * @param maxPrice Maximum price, or null.
+     * @param minStars Minimum rating, or null.
+     * @return The rows of the matching hotels, in the order the hotels were added.
+     */
+    public int[] select(String area, Integer minPeople, Double maxPrice, Double minStars) {
+        return select(area, minPeople, maxPrice, minStars, null);
+    }
+
+    /**
+     * Selects the hotels that satisfy all the given predicates and may be available on every day of a range.
+     * The index of the available dates can lag behind a booking or an update that runs at the same time, and does not
+     * filter ranges outside of the days it indexes, so callers confirm the hotels with {@link #isAvailable} before
+     * they report them.
+     *
+     * @param area Area of the hotels, ignoring case, or null.
+     * @param minPeople Minimum number of people the hotels accommodate, or null.
+     * @param maxPrice Maximum price, or null.
+     * @param minStars Minimum rating, or null.
+     * @param days The first and the last day the hotels must be available on, as epoch days, or null.
+     * @return The rows of the matching hotels, in the order the hotels were added.
+     */
+    public int[] select(String area, Integer minPeople, Double maxPrice, Double minStars, int[] days) {
+        Integer areaCode = area == null ? null : areaCodes.getOrDefault(key(area), HotelColumns.NO_AREA);
+        HotelColumns current = columns;
+        long[] available = days == null ? null : availability.available(days[0], days[1], current.size);
+        return current.select(areaCode, minPeople, maxPrice, minStars, available);
+    }
+
+    /**
+     * Updates the rating of a hotel, in the hotel, in the columns and in the stars index.
+     *
+     * @param hotel The hotel.
+     * @param stars The new rating.
+     */
+    public void setStars(Hotel hotel, double stars) {
+        writeLock.lock();
+        try {
+            hotel.setStars(stars);
+            Integer row = rowsByName.get(key(hotel.getHotelName()));
+            if (row != null) { // Null if the hotel has left the store meanwhile
+                columns = columns.withStars(row, stars);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the lock that guards the available dates and reservations of a hotel.
+     * Operations that read and then change that state hold it for their whole duration.
+     *
+     * @param hotel The hotel.
+     * @return The lock of the hotel.
+     */
+    public ReentrantLock lockFor(Hotel hotel) {
+        return locks[Math.floorMod(key(hotel.getHotelName()).hashCode(), LOCK_STRIPES)];
+    }
+
+    /**
+     * Checks whether a hotel is available on every day of a range.
+     *
+     * @param hotel The hotel.
+     * @param first The first day of the range, as an epoch day.
+     * @param last The last day of the range, as an epoch day.
+     * @return True if the whole range is available.
+     */
+    public boolean isAvailable(Hotel hotel, int first, int last) {
+        ReentrantLock lock = lockFor(hotel);
+        lock.lock();
+        try {
+            return hotel.getAvailability().contains(first, last);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Books a stay at a hotel, removing the booked nights from its available dates and from the index.
+     * The caller holds the lock of the hotel.
+     *
+     * @param hotel The hotel.
+     * @param checkIn The check-in day, as an epoch day.
+     * @param checkOut The check-out day, as an epoch day.
+     * @return True if the stay was available and has been booked, false if nothing changed.
+     */
+    public boolean book(Hotel hotel, int checkIn, int checkOut) {
+        if (!hotel.getAvailability().book(checkIn, checkOut)) {
+            return false;
+        }
+        Integer row = rowsByName.get(key(hotel.getHotelName()));
+        if (row != null) { // Null if the hotel has left the store meanwhile
+            availability.clear(row, checkIn, checkOut - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Adds available dates to a hotel and to the index. The caller holds the lock of the hotel.
+     *
+     * @param hotel The hotel.
+     * @param ranges A range as "yyyy-MM-dd - yyyy-MM-dd", or a list of them separated by " , ".
+     */
+    public void addAvailableDates(Hotel hotel, String ranges) {
+        AvailabilitySet added = new AvailabilitySet(List.of(ranges));
+        for (int i = 0; i < added.rangeCount(); i++) {
+            addAvailableDates(hotel, added.rangeStart(i), added.rangeEnd(i));
+        }
+    }
+
+    /**
+     * Adds the days from first to last to the available dates of a hotel and to the index.
+     * The caller holds the lock of the hotel.
+     *
+     * @param hotel The hotel.
+     * @param first The first day, as an epoch day.
+     * @param last The last day, as an epoch day.
+     */
+    public void addAvailableDates(Hotel hotel, int first, int last) {
+        hotel.getAvailability().add(first, last);
+        Integer row = rowsByName.get(key(hotel.getHotelName()));
+        if (row != null) { // Null if the hotel has left the store meanwhile
+            availability.set(row, first, last);
+        }
+    }
+
+    /**
+     * Converts a hotel to JSON while holding its lock, so the result is consistent.
+     *
+     * @param hotel The hotel.
+     * @return The JSON representation of the hotel.
+     */
+    public JSONObject toJson(Hotel hotel) {
+        ReentrantLock lock = lockFor(hotel);
+        lock.lock();
+        try {
+            return hotel.toJson();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* Marks the days of the available ranges of a hotel in the index */
+    private void indexAvailability(int row, AvailabilitySet dates) {
+        for (int i = 0; i < dates.rangeCount(); i++) {
+            availability.set(row, dates.rangeStart(i), dates.rangeEnd(i));
+        }
+    }
+
+    /* Key of a hotel name or an area in the indexes */
+    private static String key(String hotelName) {
+        return hotelName.toLowerCase(Locale.ROOT);
+    }
+}
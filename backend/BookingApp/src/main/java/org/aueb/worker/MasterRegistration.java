@@ -0,0 +1,94 @@
+package org.aueb.worker;
+
+import org.aueb.util.Constants;
+import org.aueb.util.SocketUtils;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Registers a worker with the Master and keeps telling it that the worker is alive. The worker connects to the
+ * registration port of the Master, announces the port it serves on, and then sends a heartbeat every
+ * {@link Constants#HEARTBEAT_INTERVAL_MILLIS} with the number of its hotels and the number of requests it is running.
+ * <p>
+ * The registration says whether the worker still waits for its initial hotels, so the Master can tell a worker that
+ * has just started from one whose heartbeat connection was only interrupted, and whether it restored its hotels from
+ * disk, so the Master knows if they must be copied to it again. The Master may start after the worker,
+ * so the connection is retried until it succeeds, and opened again whenever it is lost.
+ */
+public class MasterRegistration implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(MasterRegistration.class); // Logger for the MasterRegistration class
+    private final String host; // Host of the Master
+    private final int port; // Port on which the worker serves the Master
+    private final HotelStore hotels; // Hotels of the worker, whose number is reported
+    private final AtomicInteger inFlight; // Number of requests the worker is running
+    private final BooleanSupplier awaitingHotels; // Whether the worker still waits for its initial hotels
+    private final boolean restored; // Whether the worker restored its hotels from disk when it started
+
+    /**
+     * @param host Host of the Master.
+     * @param port Port on which the worker serves the Master.
+     * @param hotels Hotels of the worker.
+     * @param inFlight Number of requests the worker is running.
+     * @param awaitingHotels Whether the worker still waits for its initial hotels.
+     * @param restored Whether the worker restored its hotels from disk when it started.
+     */
+    public MasterRegistration(String host, int port, HotelStore hotels, AtomicInteger inFlight, BooleanSupplier awaitingHotels, boolean restored) {
+        this.host = host;
+        this.port = port;
+        this.hotels = hotels;
+        this.inFlight = inFlight;
+        this.awaitingHotels = awaitingHotels;
+        this.restored = restored;
+    }
+
+    /**
+     * Registers with the Master and sends heartbeats until the worker stops.
+     */
+    public void run() {
+        boolean warned = false;
+        while (true) {
+            try (Socket socket = new Socket(host, Constants.WORKER_REGISTRATION_PORT)) {
+                DataOutputStream outputStream = SocketUtils.createDataOutputStream(socket);
+                JSONObject registration = status("register");
+                registration.put("awaitingHotels", awaitingHotels.getAsBoolean());
+                registration.put("restored", restored);
+                SocketUtils.safeSend(outputStream, registration.toJSONString());
+                logger.info("Registered with Master at " + host + ":" + Constants.WORKER_REGISTRATION_PORT);
+                warned = false;
+                while (true) {
+                    Thread.sleep(Constants.HEARTBEAT_INTERVAL_MILLIS);
+                    SocketUtils.safeSend(outputStream, status("heartbeat").toJSONString());
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!warned) {
+                    logger.warn("Cannot reach Master, retrying: " + e.getMessage());
+                    warned = true;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Thread.sleep(Constants.HEARTBEAT_INTERVAL_MILLIS / 2);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /* Message with the port and the load of the worker */
+    private JSONObject status(String type) {
+        JSONObject message = new JSONObject();
+        message.put("type", type);
+        message.put("port", port);
+        message.put("hotels", hotels.size());
+        message.put("load", inFlight.get());
+        return message;
+    }
+}
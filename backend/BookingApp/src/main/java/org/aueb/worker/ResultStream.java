@@ -0,0 +1,69 @@
+package org.aueb.worker;
+
+import org.aueb.util.Request;
+import org.aueb.util.Response;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.function.Consumer;
+
+/**
+ * Sends the results of a streamed request to the Reducer in chunks, as they are produced, instead of in one response.
+ * A worker holds a single chunk of a stream in memory; every chunk is sent as soon as it is full, and the last one is
+ * flagged, so the Reducer knows when this worker is done. The last chunk may be empty.
+ * <p>
+ * A chunk is a worker response with the usual "result", "option" and "user_role" fields of the body,
+ * plus "stream" set to true and "last" telling whether it ends the worker's part of the stream.
+ */
+final class ResultStream implements Consumer<JSONObject> {
+    static final int CHUNK_SIZE = 100; // Maximum number of results of a chunk
+
+    private final Request request; // The request that is answered
+    private final String option; // Type of the request, copied into the "option" field of every chunk
+    private final Consumer<Response> sink; // Sends a chunk to the reducer
+    private JSONArray chunk = new JSONArray(); // Results of the chunk being filled
+
+    /**
+     * @param request The request that is answered.
+     * @param option The type of the request.
+     * @param sink Sends a chunk to the reducer.
+     */
+    ResultStream(Request request, String option, Consumer<Response> sink) {
+        this.request = request;
+        this.option = option;
+        this.sink = sink;
+    }
+
+    /**
+     * Adds a result to the current chunk, sending the chunk once it is full.
+     *
+     * @param result The result.
+     */
+    @Override
+    public void accept(JSONObject result) {
+        chunk.add(result);
+        if (chunk.size() == CHUNK_SIZE) {
+            flush(false);
+        }
+    }
+
+    /**
+     * Sends the remaining results as the last chunk of the worker.
+     */
+    void finish() {
+        flush(true);
+    }
+
+    /* Sends the current chunk and starts a new one */
+    private void flush(boolean last) {
+        JSONObject body = new JSONObject();
+        body.put("result", chunk);
+        body.put("option", option);
+        body.put("user_role", "Client");
+        body.put("stream", true);
+        body.put("last", last);
+        sink.accept(new Response(request.getSessionId(), request.getRequestId(), option, Response.Status.SUCCESS,
+                last ? "Search completed" : "Partial results", body));
+        chunk = new JSONArray();
+    }
+}
@@ -0,0 +1,342 @@
+package org.aueb.worker;
+
+import org.aueb.entities.Hotel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The ShardLog keeps the hotels of a worker on its local disk, so a worker that restarts has its shard back before it
+ * accepts a connection, instead of waiting for the Master to send it again. It is a binary snapshot of the shard plus
+ * an append-only log of the changes made since: every change appends the new state of a hotel, or the name of a hotel
+ * that left the worker, as a framed record with a checksum.
+ * <p>
+ * Like the MutationJournal of the Master, records of concurrent requests are written and synced together by a single
+ * writer thread, and every caller waits until its change is durable, so a worker only acknowledges changes it will
+ * still have after a crash. The log is folded into a new snapshot once it grows larger than the snapshot.
+ * A record is encoded while its hotel is locked, after the change, so the records of a hotel follow the order of its
+ * changes and replaying them leaves the last state.
+ * <p>
+ * If the disk fails, the files are deleted and the worker keeps serving from memory; after a restart it gets its
+ * hotels from the Master again.
+ */
+public class ShardLog {
+    private static final Logger logger = LoggerFactory.getLogger(ShardLog.class); // Logger for the ShardLog class
+    private static final int SNAPSHOT_MAGIC = 0x53484431; // "SHD1", first int of a snapshot
+    private static final long COMPACTION_THRESHOLD = 16 * 1024 * 1024; // Least log size in bytes that triggers a compaction
+    private static final int MAX_BATCH = 1024; // Maximum number of records written with a single sync
+    private static final byte PUT = 1; // Record of the new state of a hotel
+    private static final byte REMOVE = 2; // Record of a hotel that left the worker
+    private final Path snapshotPath; // Path of the snapshot of the shard
+    private final Path logPath; // Path of the log of the changes made since the snapshot
+    private final HotelStore hotels; // Hotels of the worker, written to the snapshot
+    private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>(); // Records waiting to be written
+    private FileChannel channel; // Open log, only used by the writer thread once it runs
+    private long logSize; // Current size of the log in bytes
+    private long snapshotSize; // Size of the last snapshot in bytes
+    private boolean damaged; // Whether the log ends with a record that cannot be read, which the next compaction drops
+    private volatile boolean failed; // Whether the disk failed, so changes are no longer recorded
+
+    /**
+     * @param directory The directory of the files of the worker, created if missing.
+     * @param hotels The hotels of the worker.
+     * @throws IOException If the directory cannot be created.
+     */
+    public ShardLog(Path directory, HotelStore hotels) throws IOException {
+        Files.createDirectories(directory);
+        this.snapshotPath = directory.resolve("shard.snapshot");
+        this.logPath = directory.resolve("shard.log");
+        this.hotels = hotels;
+    }
+
+    /**
+     * Reads the snapshot and replays the log into the hotel store. A torn last record, left by a crash in the middle
+     * of a write, is ignored; a damaged snapshot is ignored along with its log.
+     *
+     * @return The number of hotels restored, or -1 if there was nothing to restore.
+     */
+    public int restore() {
+        if (!Files.exists(snapshotPath) && !Files.exists(logPath)) {
+            return -1;
+        }
+        long start = System.nanoTime();
+        Map<String, Hotel> restored = new LinkedHashMap<>();
+        try {
+            if (Files.exists(snapshotPath)) {
+                readSnapshot(restored);
+            }
+            int records = Files.exists(logPath) ? replayLog(restored) : 0;
+            hotels.addAll(restored.values());
+            logger.info("Restored " + restored.size() + " hotels and " + records + " changes in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return restored.size();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring the files of the shard, they cannot be read: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Starts recording the changes of the hotel store. If the store was filled with other hotels than the restored
+     * ones, or the log ends with a damaged record that new records would follow, a snapshot of the store is written
+     * first and the old log is dropped.
+     *
+     * @param replaced Whether the restored hotels were replaced.
+     * @throws IOException If the files cannot be written.
+     */
+    public void start(boolean replaced) throws IOException {
+        channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        logSize = channel.size();
+        snapshotSize = Files.exists(snapshotPath) ? Files.size(snapshotPath) : 0;
+        if (replaced || damaged || !Files.exists(snapshotPath)) {
+            compact();
+        }
+        Thread writer = new Thread(this::writeLoop, "shard-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records the state of a hotel after a change. The caller holds the lock of the hotel, or no one else can reach it yet.
+     *
+     * @param hotel The hotel.
+     * @return Completed once the record is durable.
+     */
+    CompletableFuture<Void> put(Hotel hotel) {
+        return append(PUT, hotel, null);
+    }
+
+    /**
+     * Records that a hotel left the worker.
+     *
+     * @param hotelName The name of the hotel.
+     * @return Completed once the record is durable.
+     */
+    CompletableFuture<Void> remove(String hotelName) {
+        return append(REMOVE, null, hotelName);
+    }
+
+    /**
+     * Waits until records are durable. A record that could not be written has already been reported, and the files
+     * dropped, so it does not fail the change.
+     *
+     * @param writes The records.
+     */
+    static void await(List<CompletableFuture<Void>> writes) {
+        for (CompletableFuture<Void> write : writes) {
+            try {
+                write.get();
+            } catch (ExecutionException e) {
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /* Encodes a record and queues it for the writer thread */
+    private CompletableFuture<Void> append(byte type, Hotel hotel, String hotelName) {
+        if (failed) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeInt(0); // Length, filled in below
+            record.writeInt(0); // Checksum, filled in below
+            record.writeByte(type);
+            if (type == PUT) {
+                hotel.writeTo(record);
+            } else {
+                record.writeUTF(hotelName);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Writing to memory does not fail
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 8, buffer.limit() - 8);
+        buffer.putInt(0, buffer.limit() - 8);
+        buffer.putInt(4, (int) checksum.getValue());
+        PendingWrite write = new PendingWrite(buffer);
+        queue.add(write);
+        return write.done;
+    }
+
+    /* Writes the queued records in batches, syncing once per batch */
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                if (!failed) {
+                    ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+                    long size = 0;
+                    for (int i = 0; i < buffers.length; i++) {
+                        buffers[i] = batch.get(i).record;
+                        size += buffers[i].remaining();
+                    }
+                    for (long written = 0; written < size; ) {
+                        written += channel.write(buffers);
+                    }
+                    channel.force(false);
+                    logSize += size;
+                }
+                batch.forEach(write -> write.done.complete(null));
+                if (!failed && logSize >= Math.max(COMPACTION_THRESHOLD, snapshotSize)) {
+                    compact();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                batch.forEach(write -> write.done.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+    }
+
+    /*
+     * Writes a snapshot of the hotel store to a temporary file, moves it over the snapshot and empties the log.
+     * Records queued meanwhile are written after it; they describe states at least as new as the snapshot, so
+     * replaying them is harmless. A crash at any point leaves either the old snapshot and the full log, or the new
+     * snapshot and a log whose records are already part of it.
+     */
+    private void compact() throws IOException {
+        Path temporaryPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        List<Hotel> shard = hotels.getHotels();
+        try (FileChannel snapshot = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BufferedOutputStream file = new BufferedOutputStream(Channels.newOutputStream(snapshot), 1 << 16);
+            CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(shard.size());
+            for (Hotel hotel : shard) {
+                ReentrantLock lock = hotels.lockFor(hotel);
+                lock.lock();
+                try {
+                    hotel.writeTo(out);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            new DataOutputStream(file).writeLong(checked.getChecksum().getValue()); // Trailer, outside the checksum
+            file.flush();
+            snapshot.force(true);
+            snapshotSize = snapshot.size();
+        }
+        Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.truncate(0);
+        channel.force(true);
+        logSize = 0;
+        logger.info("Wrote a snapshot of " + shard.size() + " hotels, " + snapshotSize + " bytes");
+    }
+
+    /* Reads the hotels of the snapshot, checking its checksum */
+    private void readSnapshot(Map<String, Hotel> restored) throws IOException {
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(snapshotPath), 1 << 16)) {
+            CheckedInputStream checked = new CheckedInputStream(file, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot: " + snapshotPath);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Hotel hotel = Hotel.readFrom(in);
+                restored.put(hotel.getHotelName().toLowerCase(Locale.ROOT), hotel);
+            }
+            if (new DataInputStream(file).readLong() != checked.getChecksum().getValue()) {
+                throw new IOException("Damaged snapshot: " + snapshotPath);
+            }
+        }
+    }
+
+    /* Applies the records of the log to the restored hotels, stopping at the first incomplete or damaged one */
+    private int replayLog(Map<String, Hotel> restored) throws IOException {
+        int records = 0;
+        long remaining = Files.size(logPath);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath), 1 << 16))) {
+            while (remaining > 0) {
+                int length = remaining >= 8 ? in.readInt() : -1;
+                if (length <= 0 || length > remaining - 8) {
+                    logger.warn("Ignoring an incomplete record at the end of " + logPath);
+                    damaged = true;
+                    return records;
+                }
+                int expected = in.readInt();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                remaining -= 8 + length;
+                CRC32 checksum = new CRC32();
+                checksum.update(payload);
+                if ((int) checksum.getValue() != expected) {
+                    logger.warn("Ignoring a damaged record and the rest of " + logPath);
+                    damaged = true;
+                    return records;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                if (record.readByte() == PUT) {
+                    Hotel hotel = Hotel.readFrom(record);
+                    restored.remove(hotel.getHotelName().toLowerCase(Locale.ROOT)); // The new state goes last, like a hotel added again
+                    restored.put(hotel.getHotelName().toLowerCase(Locale.ROOT), hotel);
+                } else {
+                    restored.remove(record.readUTF().toLowerCase(Locale.ROOT));
+                }
+                records++;
+            }
+        }
+        return records;
+    }
+
+    /* Stops recording changes after the disk failed, and deletes the files so a restart does not restore stale hotels */
+    private void fail(Exception e) {
+        failed = true;
+        logger.error("Cannot write the shard to " + logPath + ", keeping the hotels in memory only", e);
+        try {
+            Files.deleteIfExists(snapshotPath);
+            channel.close();
+            Files.deleteIfExists(logPath);
+        } catch (IOException deleteFailure) {
+            logger.error("Cannot delete the files of the shard", deleteFailure);
+        }
+    }
+
+    /* A record waiting for the writer thread */
+    private static class PendingWrite {
+        private final ByteBuffer record; // Framed record
+        private final CompletableFuture<Void> done = new CompletableFuture<>(); // Completed once the record is durable
+
+        private PendingWrite(ByteBuffer record) {
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.aueb.worker;
+
+import java.util.Arrays;
+
+/**
+ * A sorted index over a double column of HotelColumns, answering "rows with a value at most / at least x"
+ * in time proportional to the number of rows returned.
+ * <p>
+ * The index is a sorted run of (value, row) entries plus a short tail of rows that were added or changed since
+ * the run was sorted. Queries binary-search the run, add every row of the tail, and leave it to the caller to check
+ * the candidates against the column, which is always authoritative: an entry of the run whose value has changed since
+ * is a false candidate that the check removes, and its current value is covered by the tail. When the tail is full,
+ * the run is rebuilt from the column, so a change costs amortized O(log n).
+ * <p>
+ * Entries pack a float approximation of the value and the row into a long, so the run sorts as primitives.
+ * Rounding to float is monotonic, so the candidates are always a superset of the exact answer.
+ * <p>
+ * A snapshot is immutable; the tail array is shared with later snapshots, which only append past this one's tail size.
+ */
+final class SortedColumnIndex {
+    private static final int MIN_TAIL_CAPACITY = 1024; // Smallest number of rows the tail holds before a rebuild
+    private static final int TAIL_FRACTION = 8; // The tail holds up to 1/TAIL_FRACTION of the rows before a rebuild
+
+    private final long[] run; // Sorted entries: the sortable bits of the value in the high half, the row in the low half
+    private final int[] tail; // Rows added or changed since the run was sorted
+    private final int tailSize; // Number of rows of the tail in this snapshot
+
+    private SortedColumnIndex(long[] run, int[] tail, int tailSize) {
+        this.run = run;
+        this.tail = tail;
+        this.tailSize = tailSize;
+    }
+
+    /**
+     * Builds the index of the first rows of a column.
+     *
+     * @param column The column.
+     * @param size The number of rows to index.
+     * @return The index, with an empty tail.
+     */
+    static SortedColumnIndex build(double[] column, int size) {
+        long[] run = new long[size];
+        for (int row = 0; row < size; row++) {
+            run[row] = ((long) sortable(column[row]) << 32) | row;
+        }
+        Arrays.sort(run);
+        return new SortedColumnIndex(run, new int[Math.max(MIN_TAIL_CAPACITY, size / TAIL_FRACTION)], 0);
+    }
+
+    /**
+     * Returns an index that also covers rows that were added or whose value changed.
+     * Only called by the single writer of the store.
+     *
+     * @param rows The rows, in the first count entries of the array.
+     * @param count The number of rows.
+     * @param column The column, already holding the values of the rows.
+     * @param size The number of rows of the column.
+     * @return The new index.
+     */
+    SortedColumnIndex withRows(int[] rows, int count, double[] column, int size) {
+        if (tailSize + count > tail.length) {
+            return build(column, size);
+        }
+        System.arraycopy(rows, 0, tail, tailSize, count);
+        return new SortedColumnIndex(run, tail, tailSize + count);
+    }
+
+    /**
+     * @return An upper bound of the number of rows with a value at most max.
+     */
+    int estimateAtMost(double max) {
+        return upperBound(sortable((float) max)) + tailSize;
+    }
+
+    /**
+     * @return An upper bound of the number of rows with a value at least min.
+     */
+    int estimateAtLeast(double min) {
+        return run.length - lowerBound(sortable((float) min)) + tailSize;
+    }
+
+    /**
+     * @return The rows that may have a value at most max, a superset of those that do. A row may appear twice.
+     */
+    int[] candidatesAtMost(double max) {
+        return candidates(0, upperBound(sortable((float) max)));
+    }
+
+    /**
+     * @return The rows that may have a value at least min, a superset of those that do. A row may appear twice.
+     */
+    int[] candidatesAtLeast(double min) {
+        return candidates(lowerBound(sortable((float) min)), run.length);
+    }
+
+    /* The rows of the run from start (inclusive) to end (exclusive), followed by the rows of the tail */
+    private int[] candidates(int start, int end) {
+        int[] rows = new int[end - start + tailSize];
+        for (int i = start; i < end; i++) {
+            rows[i - start] = (int) run[i];
+        }
+        System.arraycopy(tail, 0, rows, end - start, tailSize);
+        return rows;
+    }
+
+    /* Index of the first entry whose value is at least the given sortable value */
+    private int lowerBound(int key) {
+        return search(((long) key << 32));
+    }
+
+    /* Index of the first entry whose value is greater than the given sortable value */
+    private int upperBound(int key) {
+        return key == Integer.MAX_VALUE ? run.length : search(((long) key + 1) << 32);
+    }
+
+    /* Index of the first entry that is not less than the given entry */
+    private int search(long entry) {
+        int lo = 0;
+        int hi = run.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (run[mid] < entry) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /* Maps a float to an int with the same order, negative values included */
+    private static int sortable(double value) {
+        int bits = Float.floatToIntBits((float) value);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+}
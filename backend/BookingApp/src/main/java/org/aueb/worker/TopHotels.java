@@ -0,0 +1,100 @@
+package org.aueb.worker;
+
+import org.aueb.entities.Hotel;
+import org.aueb.util.SortOrder;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the first hotels of a sorted search while the matching hotels are produced, in a heap bounded by the page size:
+ * the heap holds the K best hotels seen so far with the worst of them on top, so a hotel that does not make the page
+ * costs a single comparison and the whole search O(n log K) time and O(K) memory, however many hotels match.
+ * Only the hotels that make the page are converted to JSON.
+ */
+final class TopHotels implements Consumer<Hotel> {
+    private final SortOrder order; // Order and page of the search
+    private final PriorityQueue<Entry> heap; // Best hotels so far, the worst first
+    private int matches; // Number of matching hotels past the cursor
+
+    /**
+     * @param order The order and page of the search.
+     */
+    TopHotels(SortOrder order) {
+        this.order = order;
+        this.heap = new PriorityQueue<>(order.getLimit() + 1, (a, b) -> order.compare(b.value, b.name, a.value, a.name));
+    }
+
+    /**
+     * Offers a matching hotel to the page.
+     *
+     * @param hotel The hotel.
+     */
+    @Override
+    public void accept(Hotel hotel) {
+        double value = valueOf(hotel);
+        String name = hotel.getHotelName();
+        if (!order.isAfterCursor(value, name)) {
+            return; // On a page the client has already seen
+        }
+        matches++;
+        if (heap.size() < order.getLimit()) {
+            heap.add(new Entry(value, name, hotel));
+        } else if (order.compare(value, name, heap.peek().value, heap.peek().name) < 0) {
+            heap.poll();
+            heap.add(new Entry(value, name, hotel));
+        }
+    }
+
+    /**
+     * @return True if more hotels matched than fit in the page.
+     */
+    boolean hasMore() {
+        return matches > order.getLimit();
+    }
+
+    /**
+     * Converts the hotels of the page to JSON, in order.
+     * The hotels are sorted again by the values of their JSON representation, which may differ from the values they
+     * were selected by if a hotel was rated meanwhile, so the Reducer always merges lists that are sorted.
+     *
+     * @param store The store of the hotels, which converts them under their locks.
+     * @return The JSON representations of the hotels of the page.
+     */
+    JSONArray toJson(HotelStore store) {
+        List<JSONObject> page = new ArrayList<>(heap.size());
+        for (Entry entry : heap) {
+            page.add(store.toJson(entry.hotel));
+        }
+        page.sort((a, b) -> order.compare(order.valueOf(a), (String) a.get("hotelName"), order.valueOf(b), (String) b.get("hotelName")));
+        JSONArray result = new JSONArray();
+        result.addAll(page);
+        return result;
+    }
+
+    /* Value of the sort key of a hotel */
+    private double valueOf(Hotel hotel) {
+        return switch (order.getKey()) {
+            case PRICE -> hotel.getPrice();
+            case STARS -> hotel.getStars();
+            case NUM_REVIEWS -> hotel.getNumReviews();
+        };
+    }
+
+    /* A hotel of the page with the values it was ranked by */
+    private static final class Entry {
+        private final double value; // Value of the sort key
+        private final String name; // Name of the hotel, which breaks ties
+        private final Hotel hotel; // The hotel
+
+        private Entry(double value, String name, Hotel hotel) {
+            this.value = value;
+            this.name = name;
+            this.hotel = hotel;
+        }
+    }
+}
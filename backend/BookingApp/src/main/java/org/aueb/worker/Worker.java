@@ -1,6 +1,8 @@
 package org.aueb.worker;
 
 import org.aueb.entities.Hotel;
+import org.aueb.util.Constants;
+import org.aueb.util.HandlerExecutors;
 import org.aueb.util.JSONUtils;
 import org.aueb.util.SocketUtils;
 import org.json.simple.JSONArray;
@@ -11,35 +13,48 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Worker class functions as a server node in a distributed system handling specific tasks like managing hotel data.
  * Each worker maintains a subset of the entire dataset (hotels in this instance) and processes requests pertaining to its data.
+ * The hotels are also kept on local disk (see ShardLog), in a directory named after the port, so a worker restarted on
+ * the same port serves its hotels again without waiting for the Master to send them.
  */
 public class Worker {
     private static final Logger logger = LoggerFactory.getLogger(Worker.class); // Logger for the Worker class
-    private final ArrayList<Hotel> hotels; // List of hotels managed by this worker
+    private final HotelStore hotels; // Hotels managed by this worker
     private ServerSocket serverSocket; // Server socket to listen for connections from the Master
     private final long id; // Unique ID of the worker
+    private final ExecutorService requestExecutor; // Executes the requests multiplexed over the connections from the Master
+    private final ExecutorService handlerExecutor; // Runs the handlers of the connections from the Master
+    private final AtomicInteger inFlight = new AtomicInteger(); // Number of requests being executed, reported to the Master as the load
+    private volatile boolean awaitingHotels = true; // Whether the initial hotels have not been received yet
 
     /**
      * Constructs a new Worker with a unique ID.
      *
      * @param id The unique ID of the worker.
+     * @param virtualThreads Whether connections and requests are handled on virtual threads.
      */
-    public Worker(int id) {
+    public Worker(int id, boolean virtualThreads) {
         this.id = id;
-        hotels = new ArrayList<>();
+        hotels = new HotelStore();
+        requestExecutor = virtualThreads
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        handlerExecutor = HandlerExecutors.newPerTaskExecutor(virtualThreads, "worker-connection");
     }
 
     public static void main(String[] args) {
         /* Check if the correct number of arguments is provided */
         if (args.length < 2) {
-            System.out.println("Usage: java Worker <worker ID> <port number>");
+            System.out.println("Usage: java Worker <worker ID> <port number> [" + HandlerExecutors.VIRTUAL_THREADS_OPTION + "]");
             return;
         }
         /* Parse the worker ID and port number from the command line arguments */
@@ -47,31 +62,40 @@ public class Worker {
         int port = Integer.parseInt(args[1]);
         logger.info("Initializing Worker " + workerId + " on port " + port);
 
-        Worker worker = new Worker(workerId);
+        Worker worker = new Worker(workerId, HandlerExecutors.isVirtualThreadsEnabled(args));
         worker.openServer(port);
     }
 
     /**
      * Opens a server socket to listen for incoming connections from the master node,
      * initializes resources, and handles client requests in a loop.
+     * The hotels kept on disk by a previous run are restored first. Once the socket is open the worker registers with
+     * the Master, which then sends it its initial hotels, or lets it keep the restored ones.
      * @param port The port number on which this worker will listen for incoming connections.
      */
     void openServer(int port) {
         try {
+            ShardLog shardLog = openShardLog(port);
+            int restored = shardLog == null ? -1 : shardLog.restore();
+
             /* Create a server socket to listen for connections from the Master */
             serverSocket = new ServerSocket(port);
+            Thread registration = new Thread(new MasterRegistration("localhost", port, hotels, inFlight, () -> awaitingHotels, restored >= 0), "master-registration");
+            registration.setDaemon(true);
+            registration.start();
 
             // Initial connection to receive hotel data from the master.
             Socket connection = serverSocket.accept();
-            getInitialHotels(receiveRequest(SocketUtils.createDataInputStream(connection)));
+            boolean replaced = receiveInitialHotels(SocketUtils.createDataInputStream(connection));
             connection.close();
+            startShardLog(shardLog, replaced || restored < 0);
+            awaitingHotels = false;
 
             /* Continuously listen for incoming connections from the Master */
             while (true) {
                 connection = serverSocket.accept();  // Accept incoming connection
-                Runnable r = new WorkerConnectionHandler(connection, hotels, id); // Create a new WorkerConnectionHandler
-                Thread workerThread = new Thread(r); // Create a new thread to handle the connection
-                workerThread.start(); // Start the thread
+                Runnable r = new WorkerConnectionHandler(connection, hotels, id, this::executeRequest); // Create a new WorkerConnectionHandler
+                handlerExecutor.execute(r); // Handle the connection on a thread of its own
             }
         } catch (IOException ignored) {
         } finally {
@@ -83,6 +107,27 @@ public class Worker {
         }
     }
 
+    /**
+     * Runs a request on the request executor, counting it as in flight until it finishes.
+     *
+     * @param request The request to run.
+     */
+    private void executeRequest(Runnable request) {
+        inFlight.incrementAndGet();
+        try {
+            requestExecutor.execute(() -> {
+                try {
+                    request.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
     /**
      * Receives a request from the Master and parses it into a JSONObject.
      *
@@ -96,54 +141,72 @@ public class Worker {
     }
 
     /**
-     * Parses the initial hotels from the request and adds them to the hotels list.
+     * Opens the files that keep the hotels of the worker on disk.
      *
-     * @param request JSONObject containing the initial hotels.
+     * @param port The port of the worker, which names its directory.
+     * @return The log, or null if its directory cannot be created and the hotels are only kept in memory.
      */
-    private void getInitialHotels(JSONObject request) {
-        JSONArray hotelsArray = (JSONArray) request.get("hotels");
-
-        if (hotelsArray != null && !hotelsArray.isEmpty()) {
-            for (Object o : hotelsArray) {
-                JSONObject hotel = (JSONObject) o;
-
-                int manager_id = ((Long) hotel.get("manager_id")).intValue();
-                int numPeople = ((Long) hotel.get("numPeople")).intValue();
-                int numReviews = ((Long) hotel.get("numReviews")).intValue();
-                double stars = ((Number) hotel.get("stars")).doubleValue();
-                double price = ((Number) hotel.get("price")).doubleValue();
-                String hotelName = hotel.get("hotelName").toString();
-                String area = hotel.get("area").toString();
-                String roomImage = hotel.get("hotelImage").toString();
+    private ShardLog openShardLog(int port) {
+        try {
+            return new ShardLog(Paths.get(Constants.WORKER_DATA_DIRECTORY, String.valueOf(port)), hotels);
+        } catch (IOException e) {
+            logger.error("Cannot keep the hotels on disk, keeping them in memory only", e);
+            return null;
+        }
+    }
 
-                JSONArray jsonAvailableDates = (JSONArray) hotel.get("availableDates");
-                List<String> availableDates = new ArrayList<>();
-                if (jsonAvailableDates != null) {
-                    for (Object dateObj : jsonAvailableDates) {
-                        availableDates.add((String) dateObj);
-                    }
-                }
+    /**
+     * Starts recording the changes of the hotels on disk.
+     *
+     * @param shardLog The log, or null if the hotels are only kept in memory.
+     * @param replaced Whether the hotels on disk are not those of the store, and must be written again.
+     */
+    private void startShardLog(ShardLog shardLog, boolean replaced) {
+        if (shardLog == null) {
+            return;
+        }
+        try {
+            shardLog.start(replaced);
+            hotels.setLog(shardLog);
+        } catch (IOException e) {
+            logger.error("Cannot keep the hotels on disk, keeping them in memory only", e);
+        }
+    }
 
-                JSONObject reservationsObj = (JSONObject) hotel.get("reservations");
-                Map<Integer, List<String>> reservations = new HashMap<>();
-                if (reservationsObj != null) {
-                    for (Object key : reservationsObj.keySet()) {
-                        JSONArray datesArray = (JSONArray) reservationsObj.get(key);
-                        List<String> dateList = new ArrayList<>();
-                        if (datesArray != null) {
-                            datesArray.forEach(date -> dateList.add((String) date));
-                        }
-                        reservations.put(Integer.parseInt((String) key), dateList);
-                    }
+    /**
+     * Receives the initial hotels, which the Master sends in batches, parsing every batch as it arrives so only one
+     * batch of JSON is held at a time. Unless the first batch says to "keep" them, the hotels restored from disk are
+     * dropped first, as the Master sends the whole shard. The worker reads the next batch only once the previous one
+     * is parsed, so a Master faster than the worker waits for it instead of piling batches up in its memory.
+     *
+     * @param inputStream DataInputStream of the connection the hotels are sent on.
+     * @return True if the restored hotels were dropped.
+     * @throws IOException If the connection is lost before the last batch.
+     */
+    private boolean receiveInitialHotels(DataInputStream inputStream) throws IOException {
+        JSONObject batch = receiveRequest(inputStream);
+        boolean keep = Boolean.TRUE.equals(batch.get("keep"));
+        if (!keep && hotels.size() > 0) {
+            logger.info("Dropping " + hotels.removeIf(hotel -> true).size() + " restored hotels, the Master sends the shard");
+        }
+        List<Hotel> initialHotels = new ArrayList<>();
+        while (true) {
+            JSONArray hotelsArray = (JSONArray) batch.get("hotels");
+            if (hotelsArray != null) {
+                for (Object o : hotelsArray) {
+                    initialHotels.add(Hotel.fromJson((JSONObject) o));
                 }
-
-                // Create a new hotel object and add it to the list of hotels
-                Hotel newhotel = new Hotel(hotelName, numPeople, area, stars, numReviews, roomImage, price, availableDates, manager_id);
-                newhotel.setReservations(reservations);
-                this.hotels.add(newhotel);
-
             }
+            if (!Boolean.FALSE.equals(batch.get("last"))) {
+                break;
+            }
+            batch = receiveRequest(inputStream);
+        }
+        if (!initialHotels.isEmpty()) {
+            this.hotels.addAll(initialHotels); // Added in one batch, the indexes of the store are built once
+            logger.info("Received " + initialHotels.size() + " initial hotels");
         }
+        return !keep;
     }
 }
 
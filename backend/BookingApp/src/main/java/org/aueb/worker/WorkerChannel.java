@@ -0,0 +1,146 @@
+package org.aueb.worker;
+
+import org.aueb.util.Request;
+import org.aueb.util.Response;
+import org.aueb.util.SocketUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The WorkerChannel is a single long-lived connection to a worker that is shared by all client sessions of the Master.
+ * Requests of different sessions are multiplexed over the connection and told apart by their request id:
+ * a dedicated reader thread receives the worker's replies and hands each one to the session waiting for it.
+ */
+public class WorkerChannel {
+    private static final Logger logger = LoggerFactory.getLogger(WorkerChannel.class); // Logger for the WorkerChannel class
+    private static final long CALL_TIMEOUT_SECONDS = 30; // Maximum time to wait for the reply of a worker
+    private final WorkerInfo workerInfo; // Connection and streams of the worker
+    private final ConcurrentHashMap<Long, CompletableFuture<String>> pendingCalls = new ConcurrentHashMap<>(); // Calls waiting for a reply, by request id
+    private final ReentrantLock sendLock = new ReentrantLock(); // Serializes the requests written by concurrent sessions
+    private volatile boolean connected = true; // Whether the reader is still receiving replies
+    private volatile boolean closed; // Whether the Master closed the channel, so losing the connection is expected
+
+    /**
+     * Constructs a new WorkerChannel and starts reading the replies of the worker.
+     *
+     * @param workerInfo The connection to the worker.
+     */
+    public WorkerChannel(WorkerInfo workerInfo) {
+        this.workerInfo = workerInfo;
+        Thread reader = new Thread(this::readReplies, "worker-channel-" + workerInfo.getWorker_id());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public Long getWorker_id() {
+        return workerInfo.getWorker_id();
+    }
+
+    /**
+     * @return Whether the connection to the worker is still open.
+     */
+    public boolean isConnected() {
+        return connected && !closed;
+    }
+
+    /**
+     * Sends a request whose results are not returned on this channel, e.g. a fan-out request answered through the Reducer.
+     *
+     * @param request The request to send.
+     */
+    public void send(Request request) {
+        String message = request.toJSONString();
+        sendLock.lock();
+        try {
+            SocketUtils.safeSend(workerInfo.getOutputStream(), message);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a request and waits for the worker's reply to it.
+     *
+     * @param request The request to send.
+     * @return The reply of the worker as a JSON string.
+     * @throws IOException If the channel fails or the worker does not reply in time.
+     */
+    public String call(Request request) throws IOException {
+        try {
+            return callAsync(request).get(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (TimeoutException | InterruptedException | RuntimeException e) {
+            throw new IOException(e);
+        } finally {
+            pendingCalls.remove(request.getRequestId());
+        }
+    }
+
+    /**
+     * Sends a request without waiting for the worker's reply to it.
+     *
+     * @param request The request to send.
+     * @return The reply of the worker as a JSON string, once it arrives. It fails if the channel fails, or if the
+     *         worker does not reply in time.
+     */
+    public CompletableFuture<String> callAsync(Request request) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        pendingCalls.put(request.getRequestId(), reply);
+        reply.orTimeout(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .whenComplete((result, failure) -> pendingCalls.remove(request.getRequestId(), reply));
+        try {
+            if (!connected) {
+                throw new IOException("Connection to worker " + workerInfo.getWorker_id() + " lost");
+            }
+            send(request);
+        } catch (IOException | RuntimeException e) {
+            reply.completeExceptionally(e);
+        }
+        return reply;
+    }
+
+    /**
+     * Closes the connection to the worker. Calls that are still waiting fail.
+     */
+    public void close() {
+        closed = true;
+        try {
+            workerInfo.getSocket().close();
+        } catch (IOException e) {
+            logger.error("Error closing worker channel: ", e);
+        }
+    }
+
+    /* Receives the replies of the worker and completes the calls waiting for them */
+    private void readReplies() {
+        try {
+            while (true) {
+                String reply = SocketUtils.safeReceive(workerInfo.getInputStream());
+                Long requestId = Response.fromJSONString(reply).getRequestId();
+                CompletableFuture<String> pendingCall = requestId == null ? null : pendingCalls.get(requestId);
+                if (pendingCall != null) {
+                    pendingCall.complete(reply);
+                } else {
+                    logger.warn("Dropping reply without a waiting request: " + reply);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                logger.error("Connection to worker " + workerInfo.getWorker_id() + " lost: " + e.getMessage());
+            }
+        } finally {
+            connected = false;
+            IOException failure = new IOException("Connection to worker " + workerInfo.getWorker_id() + " lost");
+            pendingCalls.values().forEach(pendingCall -> pendingCall.completeExceptionally(failure));
+        }
+    }
+}
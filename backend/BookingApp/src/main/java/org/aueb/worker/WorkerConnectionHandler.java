@@ -15,8 +15,15 @@ import java.math.RoundingMode;
 import java.net.Socket;
 import java.text.ParseException;
 import java.util.*;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Serves a connection from the Master. The Master multiplexes the requests of all its client sessions over a single
+ * connection, so requests are executed concurrently and every reply carries the id of the request it answers.
+ */
 public class WorkerConnectionHandler implements Runnable {
     private DataInputStream inputStream; // Stream to read data from the master
     private DataOutputStream outputStream; // Stream to send data to the master
@@ -25,26 +32,44 @@ public class WorkerConnectionHandler implements Runnable {
     private DataOutputStream outReducer; // Stream to send data to the reducer
 
     private final Logger logger = LoggerFactory.getLogger(WorkerConnectionHandler.class); // Logger for the WorkerConnectionHandler class
-    private final List<Hotel> hotels; // List of hotels managed by this worker
+    private final HotelStore hotels; // Hotels managed by this worker
     private final long id; // Identifier for the worker
+    private final Executor requestExecutor; // Executes the requests received on this connection
+    private final ReentrantLock outputLock = new ReentrantLock(); // Guards the stream to the master
+    private final ReentrantLock reducerLock = new ReentrantLock(); // Guards the stream to the reducer
+    private volatile ConsistentHashRing fanOutRing; // Ring of the workers of the last fan-out, which tells the shard of every hotel
 
     /**
      * Constructor to initialize the WorkerConnectionHandler with necessary streams and information.
      * @param masterThreadConnection the socket connection to the master
-     * @param hotels list of hotels that this worker will manage
+     * @param hotels store of the hotels that this worker will manage, shared by all connections of the worker
      * @param id identifier for this worker node
+     * @param requestExecutor executor that runs the requests received on this connection
      */
     public WorkerConnectionHandler(
-            Socket masterThreadConnection, List<Hotel> hotels, long id) {
+            Socket masterThreadConnection, HotelStore hotels, long id, Executor requestExecutor) {
         this.masterThreadConnection = masterThreadConnection;
-        this.hotels = Collections.synchronizedList(hotels); // Synchronized list to manage concurrent access
+        this.hotels = hotels;
         this.id = id;
+        this.requestExecutor = requestExecutor;
         this.reducerSocket = SocketUtils.createSocket("localhost", Constants.REDUCER_PORT);
         this.outReducer = SocketUtils.createDataOutputStream(reducerSocket);
 
         initializeStreams();
     }
 
+    /**
+     * Constructs a handler without connections, which runs requests in-process on the caller's thread.
+     * Used to measure the request logic of the worker in isolation; nothing can be sent to the master or the reducer.
+     * @param hotels store of the hotels that this handler works on
+     * @param id identifier for this worker node
+     */
+    WorkerConnectionHandler(HotelStore hotels, long id) {
+        this.hotels = hotels;
+        this.id = id;
+        this.requestExecutor = Runnable::run;
+    }
+
     /**
      * Initializes the data streams over the socket connection to the master.
      */
@@ -83,8 +108,6 @@ public class WorkerConnectionHandler implements Runnable {
         logger.info("New connection with master: " + this.masterThreadConnection.getRemoteSocketAddress());
         try {
             serve();
-        } catch (ParseException e) {
-            throw new RuntimeException(e);
         } catch (IOException ignored) {
         } finally {
             closeConnection();
@@ -94,14 +117,95 @@ public class WorkerConnectionHandler implements Runnable {
 
     /**
      * Continuous service loop to handle requests from the master.
+     * Each request is handed to the executor, so a slow request does not hold up the ones behind it.
      */
-    public void serve() throws ParseException, IOException {
+    public void serve() throws IOException {
         while (true) {
             Request request = receiveRequest();
-            handleRequest(request);
+            requestExecutor.execute(() -> {
+                try {
+                    handleRequest(request);
+                } catch (ParseException | RuntimeException e) {
+                    logger.error("Error handling " + request, e);
+                    if (request.getBody().get("fanout") != null) {
+                        /* The reducer waits for the part of every worker, so it gets an empty one */
+                        sendToReducer(request, failedPart(request));
+                    } else {
+                        /* Let the Master know, so that it does not wait for a reply that will never come */
+                        sendToMaster(new Response(request.getSessionId(), request.getRequestId(), request.getType(), Response.Status.UNSUCCESSFUL, "Request failed", null));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends a response over a stream shared by the requests that run concurrently on this connection.
+     * A lock is used instead of a synchronized block, so a virtual thread blocked in the write does not pin its carrier.
+     * @param out the stream to the master or the reducer
+     * @param lock the lock that guards the stream
+     * @param response the response to send
+     */
+    private void send(DataOutputStream out, ReentrantLock lock, Response response) {
+        String message = response.toJSONString();
+        lock.lock();
+        try {
+            SocketUtils.safeSend(out, message);
+        } finally {
+            lock.unlock();
         }
     }
 
+    private void sendToMaster(Response response) {
+        send(outputStream, outputLock, response);
+    }
+
+    /**
+     * Sends a response to a fan-out request to the reducer. The number of workers the Master sent the request to is
+     * copied into the body, so the reducer knows how many responses complete the request.
+     * @param request the request that is answered
+     * @param response the response to send
+     */
+    private void sendToReducer(Request request, Response response) {
+        Object fanOut = request.getBody().get("fanout");
+        if (fanOut != null) {
+            response.getBody().put("fanout", fanOut);
+        }
+        send(outReducer, reducerLock, response);
+    }
+
+    /**
+     * Builds the part of a fan-out request that failed on this worker: no results, in the shape the reducer merges for
+     * the request. A streamed request gets a last chunk, which ends the stream of this worker, and a sorted one an
+     * empty page of the same order.
+     * @param request the request that failed
+     * @return the response to send to the reducer
+     */
+    private Response failedPart(Request request) {
+        JSONObject requestBody = request.getBody();
+        boolean manager = Objects.equals(requestBody.get("user_role"), "Manager");
+        JSONObject body = new JSONObject();
+        body.put("result", manager && request.getType().equals("4") ? new JSONObject() : new JSONArray()); // Reservations by area are counted per area
+        body.put("option", request.getType());
+        body.put("user_role", manager ? "Manager" : "Client");
+        SortOrder order = null;
+        if (!manager) {
+            try {
+                order = SortOrder.fromRequest(requestBody);
+            } catch (RuntimeException e) {
+                // The page is merged like an unsorted one, it has no results anyway
+            }
+        }
+        if (order != null) {
+            order.writeTo(body);
+            body.put("more", false);
+        } else if (!manager && isStreamed(request)) {
+            body.put("stream", true);
+            body.put("last", true);
+        }
+        return new Response(request.getSessionId(), request.getRequestId(), request.getType(), Response.Status.UNSUCCESSFUL, "Request failed", body);
+    }
+
     /**
      * Receives and parses JSON requests from the master.
      * @return JSONObject representing the request
@@ -125,9 +229,151 @@ public class WorkerConnectionHandler implements Runnable {
             handleManagerRequest(request); // Handle manager requests
         } else if (Objects.equals(user_role, "Client")) {
             handleClientRequest(request); // Handle client requests
+        } else if (Objects.equals(user_role, "Master")) {
+            handleMasterRequest(request); // Handle requests of the Master itself
         }
     }
 
+    /**
+     * Handles the requests the Master makes to move hotels between workers when the workers change.
+     * "export" returns copies of the hotels that gain a holder when the ring of the "from" workers becomes the ring of
+     * the "to" workers, counting the copies of the "stale" workers as missing; every such hotel is sent by the first of
+     * its holders that is among the live "senders".
+     * "import" adds hotels that were exported by other workers, skipping those it already has.
+     * "prune" removes the hotels that this worker does not hold on the ring of the given workers and, if "senders" are
+     * given, the hotels one of them holds too, which are then copied back from it.
+     * With a list of "names", "export" returns copies of the named hotels and "prune" removes them, so a worker that
+     * missed the changes of a few hotels gets only those hotels again.
+     * @param request JSONObject representing the Master's request
+     */
+    private void handleMasterRequest(Request request) {
+        JSONObject requestBody = request.getBody();
+        JSONObject body = new JSONObject();
+        int self = requestBody.get("self") == null ? -1 : ((Number) requestBody.get("self")).intValue();
+        int replicas = requestBody.get("replicas") == null ? 1 : ((Number) requestBody.get("replicas")).intValue();
+
+        switch (request.getType()) {
+            case "export":
+                if (requestBody.get("names") != null) {
+                    JSONArray copies = new JSONArray();
+                    for (Object name : (JSONArray) requestBody.get("names")) {
+                        Hotel hotel = hotels.find((String) name);
+                        if (hotel != null) {
+                            copies.add(hotels.toJson(hotel));
+                        }
+                    }
+                    body.put("hotels", copies);
+                    sendToMaster(new Response(request.getSessionId(), request.getRequestId(), "export", Response.Status.SUCCESS, "Hotels exported", body));
+                    break;
+                }
+                ConsistentHashRing from = new ConsistentHashRing(ids((JSONArray) requestBody.get("from")));
+                ConsistentHashRing to = new ConsistentHashRing(ids((JSONArray) requestBody.get("to")));
+                List<Integer> senders = ids((JSONArray) requestBody.get("senders"));
+                List<Integer> stale = ids((JSONArray) requestBody.get("stale"));
+                JSONArray exported = new JSONArray();
+                for (Hotel hotel : hotels.getHotels()) {
+                    List<Integer> holders = new ArrayList<>(from.getWorkers().isEmpty() ? List.of() : from.holdersFor(hotel.getHotelName(), replicas));
+                    holders.removeAll(stale);
+                    List<Integer> targets = new ArrayList<>(to.holdersFor(hotel.getHotelName(), replicas));
+                    targets.removeAll(holders);
+                    if (targets.isEmpty()) {
+                        continue; // Every holder has an up-to-date copy
+                    }
+                    Integer sender = holders.stream().filter(senders::contains).findFirst().orElse(null);
+                    // Hotels no live holder can send are sent by every worker that has them, unless only to itself
+                    if (sender == null ? targets.stream().anyMatch(target -> target != self) : sender == self) {
+                        exported.add(hotels.toJson(hotel));
+                    }
+                }
+                body.put("hotels", exported);
+                logger.info("Exported " + exported.size() + " hotels");
+                sendToMaster(new Response(request.getSessionId(), request.getRequestId(), "export", Response.Status.SUCCESS, "Hotels exported", body));
+                break;
+            case "import":
+                List<Hotel> imported = new ArrayList<>();
+                for (Object hotel : (JSONArray) requestBody.get("hotels")) {
+                    imported.add(Hotel.fromJson((JSONObject) hotel));
+                }
+                body.put("added", hotels.addAll(imported));
+                logger.info("Imported " + imported.size() + " hotels");
+                sendToMaster(new Response(request.getSessionId(), request.getRequestId(), "import", Response.Status.SUCCESS, "Hotels imported", body));
+                break;
+            case "prune":
+                if (requestBody.get("names") != null) {
+                    Set<String> names = new HashSet<>();
+                    for (Object name : (JSONArray) requestBody.get("names")) {
+                        names.add(((String) name).toLowerCase(Locale.ROOT));
+                    }
+                    body.put("removed", hotels.removeIf(hotel -> names.contains(hotel.getHotelName().toLowerCase(Locale.ROOT))).size());
+                    sendToMaster(new Response(request.getSessionId(), request.getRequestId(), "prune", Response.Status.SUCCESS, "Hotels removed", body));
+                    break;
+                }
+                ConsistentHashRing ring = new ConsistentHashRing(ids((JSONArray) requestBody.get("workers")));
+                List<Integer> trusted = requestBody.get("senders") == null ? List.of() : ids((JSONArray) requestBody.get("senders"));
+                List<Hotel> removed = hotels.removeIf(hotel -> {
+                    if (ring.getWorkers().isEmpty()) {
+                        return true;
+                    }
+                    List<Integer> holders = ring.holdersFor(hotel.getHotelName(), replicas);
+                    return !holders.contains(self) || holders.stream().anyMatch(holder -> holder != self && trusted.contains(holder));
+                });
+                body.put("removed", removed.size());
+                logger.info("Removed " + removed.size() + " hotels");
+                sendToMaster(new Response(request.getSessionId(), request.getRequestId(), "prune", Response.Status.SUCCESS, "Hotels removed", body));
+                break;
+            default:
+                throw new RuntimeException("Unknown request type");
+        }
+    }
+
+    /**
+     * Returns the test for the hotels this worker answers for in a fan-out. When shards are replicated every worker
+     * holds several of them, and the Master tells it in "shards" which ones to answer for, so every hotel is answered
+     * by exactly one worker. A request without "shards" is answered for all the hotels of the worker.
+     * @param request the fan-out request
+     * @return the test for the hotels to answer for
+     */
+    private Predicate<Hotel> answers(Request request) {
+        JSONArray shards = (JSONArray) request.getBody().get("shards");
+        if (shards == null) {
+            return hotel -> true;
+        }
+        ConsistentHashRing fanOutRing = ringOf((JSONArray) request.getBody().get("ring"));
+        Set<Integer> answered = new HashSet<>(ids(shards));
+        return hotel -> answered.contains(fanOutRing.workerFor(hotel.getHotelName()));
+    }
+
+    /**
+     * @param request the fan-out request
+     * @return the hotels of the worker that it answers for in a fan-out
+     */
+    private List<Hotel> answeredHotels(Request request) {
+        if (request.getBody().get("shards") == null) {
+            return hotels.getHotels();
+        }
+        return hotels.getHotels().stream().filter(answers(request)).toList();
+    }
+
+    /* Ring of the workers of a fan-out, reusing the one of the previous fan-out while the workers do not change */
+    private ConsistentHashRing ringOf(JSONArray workers) {
+        Set<Integer> ids = new TreeSet<>(ids(workers));
+        ConsistentHashRing last = fanOutRing;
+        if (last == null || !last.getWorkers().equals(ids)) {
+            last = new ConsistentHashRing(ids);
+            fanOutRing = last;
+        }
+        return last;
+    }
+
+    /* Worker ids of a JSON array */
+    private static List<Integer> ids(JSONArray array) {
+        List<Integer> ids = new ArrayList<>(array.size());
+        for (Object id : array) {
+            ids.add(((Number) id).intValue());
+        }
+        return ids;
+    }
+
     /**
      * Handles requests specific to managers such as adding hotels, setting available dates.
      * @param request JSONObject representing the manager's request
@@ -140,19 +386,19 @@ public class WorkerConnectionHandler implements Runnable {
         switch (requestType) {
             case "1": // Add hotel to manager
                 response = addHotelToManager(request);
-                SocketUtils.safeSend(outputStream, response.toJSONString());
+                sendToMaster(response);
                 break;
             case "2": // Add available dates
                 response = addAvailableDatesToHotel(request);
-                SocketUtils.safeSend(outputStream, response.toJSONString());
+                sendToMaster(response);
                 break;
             case "3":   // Show reservations
                 response = showReservations(request);
-                SocketUtils.safeSend(outReducer, response.toJSONString());
+                sendToReducer(request, response);
                 return;
             case "4":  // Reservations by area
                 response = reservationByArea(request);
-                SocketUtils.safeSend(outReducer, response.toJSONString());
+                sendToReducer(request, response);
                 return;
             default:
                 throw new RuntimeException("Unknown request type");
@@ -173,6 +419,17 @@ public class WorkerConnectionHandler implements Runnable {
 
         switch (requestType) {
             case "1": // Search hotels
+                SortOrder searchOrder = SortOrder.fromRequest(requestBody);
+                if (searchOrder != null) {
+                    sendToReducer(request, topHotelsResponse(request, "1", searchOrder, sortHotels(request, searchOrder)));
+                    break;
+                }
+                if (isStreamed(request)) {
+                    ResultStream stream = new ResultStream(request, "1", chunk -> sendToReducer(request, chunk));
+                    filterHotels(request, stream);
+                    stream.finish();
+                    break;
+                }
                 List<JSONObject> filteredHotels = filterHotels(request);
                 JSONArray hotelsArray = new JSONArray();
                 for (JSONObject hotel : filteredHotels) {
@@ -183,22 +440,37 @@ public class WorkerConnectionHandler implements Runnable {
                 rootObject.put("result", hotelsArray);  // Storing the JSONArray under the userId key
                 rootObject.put("option", "1");
                 rootObject.put("user_role", "Client");
-                Response workerResponse = new Response(request.getSessionId(), "1", Response.Status.SUCCESS, "Search completed", rootObject);
+                Response workerResponse = new Response(request.getSessionId(), request.getRequestId(), "1", Response.Status.SUCCESS, "Search completed", rootObject);
                 // Convert the entire JSONObject to a string and send it
-                SocketUtils.safeSend(outReducer, workerResponse.toJSONString());
+                sendToReducer(request, workerResponse);
                 break;
             case "2":
 
                 response = makeReservation(request);
-                SocketUtils.safeSend(outputStream, response.toJSONString());
+                sendToMaster(response);
                 break;
             case "3":
                 response = rateHotel(request);
-                SocketUtils.safeSend(outputStream, response.toJSONString());
+                sendToMaster(response);
                 break;
                 // Return all available hotels
             case "4":
-                List<JSONObject> hotels = this.hotels.stream().map(Hotel::toJson).toList();
+                SortOrder listOrder = SortOrder.fromRequest(requestBody);
+                if (listOrder != null) {
+                    TopHotels page = new TopHotels(listOrder);
+                    answeredHotels(request).forEach(page);
+                    sendToReducer(request, topHotelsResponse(request, "4", listOrder, page));
+                    break;
+                }
+                if (isStreamed(request)) {
+                    ResultStream stream = new ResultStream(request, "4", chunk -> sendToReducer(request, chunk));
+                    for (Hotel hotel : answeredHotels(request)) {
+                        stream.accept(this.hotels.toJson(hotel));
+                    }
+                    stream.finish();
+                    break;
+                }
+                List<JSONObject> hotels = answeredHotels(request).stream().map(this.hotels::toJson).toList();
                 JSONArray hotelsArray_book = new JSONArray();
                 hotelsArray_book.addAll(hotels);
 
@@ -208,9 +480,9 @@ public class WorkerConnectionHandler implements Runnable {
                 obj.put("user_role", "Client");
 
                 logger.info("Sending hotels to reducer" + obj.toJSONString());
-                Response workerResponse_book = new Response(request.getSessionId(), "4", Response.Status.SUCCESS, "Search completed", obj);
+                Response workerResponse_book = new Response(request.getSessionId(), request.getRequestId(), "4", Response.Status.SUCCESS, "Search completed", obj);
                 // Convert the entire JSONObject to a string and send it
-                SocketUtils.safeSend(outReducer, workerResponse_book.toJSONString());
+                sendToReducer(request, workerResponse_book);
                 break;
             default:
                 throw new RuntimeException("Unknown request type");
@@ -218,86 +490,135 @@ public class WorkerConnectionHandler implements Runnable {
     }
 
     /**
-     * Handles reservation requests by checking available dates and making reservations accordingly.
-     * Note: This is a stubbed method and the actual implementation details have been commented out for clarity.
+     * Books a stay at a hotel if a single available range contains all its nights.
+     * The stripe lock of the hotel is held while hotels.book splits the range around the stay and the reservation is
+     * recorded, so concurrent bookings of the hotel never take the same nights; the hotel is persisted after unlocking.
      *
      * @param request Contains all necessary information to process the reservation, including hotelName and dates.
      * @return A JSON object indicating whether the reservation was successful or not, along with the new available dates.
      */
-    private Response makeReservation(Request request) throws ParseException {
+    Response makeReservation(Request request) throws ParseException {
         JSONObject requestBody = request.getBody();
         String hotelName = requestBody.get("hotelName").toString();
         String request_date = requestBody.get("Reservation dates").toString();
         String[] dates = request_date.split(" - ");
+        int checkIn = DateProcessing.toEpochDay(dates[0]);
+        int checkOut = DateProcessing.toEpochDay(dates[1]);
         boolean reservation = false;
-        String foundDate = null;
-        Hotel chooseHotel = null;
-
-        synchronized (hotels) {
-
-            for (Hotel hotel : hotels) {
-                if (hotel.getHotelName().equalsIgnoreCase(hotelName)) {
-                    chooseHotel = hotel;
-                    break;
-                }
-            }
-            if (chooseHotel != null) {
-                if (!chooseHotel.getAvailableDates().isEmpty()) {
-                    String[] date_X = null;
-                    for (String date : chooseHotel.getAvailableDates()) {
-
-                        date_X = date.split(" - ");
-                        if (DateProcessing.compareDates(date_X[0], dates[0]) && DateProcessing.compareDates(dates[1], date_X[1])) {
-                            reservation = true;
-                            foundDate = date;
-                            break;
-                        }
-
-                    }
-                    if (reservation) {
-                        int userId = ((Long) requestBody.get("user_id")).intValue();
-                        chooseHotel.addReservations(userId, request_date);
-                        if (!dates[0].equals(date_X[0])) {
-                            String firstAvailableDate = date_X[0] + " - " + DateProcessing.subtractOneDay(dates[0]);
-                            chooseHotel.addAvailableDates(firstAvailableDate);
-                        }
-                        String lastavailabledate = dates[1] + " - " + date_X[1];
-                        chooseHotel.getAvailableDates().remove(foundDate);
-                        chooseHotel.addAvailableDates(lastavailabledate);
+        JSONObject body = new JSONObject();
 
+        Hotel chooseHotel = hotels.find(hotelName);
+        if (chooseHotel != null) {
+            ReentrantLock hotelLock = hotels.lockFor(chooseHotel); // Only bookings of hotels in the same stripe wait for each other
+            hotelLock.lock();
+            try {
+                // Book the stay if a single available range contains it; the range is split around the booked nights
+                reservation = hotels.book(chooseHotel, checkIn, checkOut);
+                if (reservation) {
+                    int userId = ((Long) requestBody.get("user_id")).intValue();
+                    chooseHotel.addReservations(userId, request_date);
+
+                    JSONArray jsonAvailableDates = new JSONArray();
+                    jsonAvailableDates.addAll(chooseHotel.getAvailableDates());
+                    body.put("availableDates", jsonAvailableDates);
+
+                    // Convert reservations Map to JSONObject, copying the lists that later bookings change
+                    JSONObject jsonReservations = new JSONObject();
+                    for (Map.Entry<Integer, List<String>> entry : chooseHotel.getReservations().entrySet()) {
+                        jsonReservations.put(entry.getKey(), new ArrayList<>(entry.getValue()));
                     }
+                    body.put("reservations", jsonReservations);
                 }
+            } finally {
+                hotelLock.unlock();
             }
         }
         if (reservation) {
-            JSONObject body = new JSONObject();
-            JSONArray jsonAvailableDates = new JSONArray();
-
-            jsonAvailableDates.addAll(chooseHotel.getAvailableDates());
-            body.put("availableDates", jsonAvailableDates);
-
-            // Convert reservations Map to JSONObject
-            JSONObject jsonReservations = new JSONObject();
-            jsonReservations.putAll(chooseHotel.getReservations());
-            body.put("reservations", jsonReservations);
-
-            return new Response( request.getSessionId(),"2", Response.Status.SUCCESS, "The reservation was successful", body);
+            hotels.persist(chooseHotel);
+            return new Response(request.getSessionId(), request.getRequestId(),"2", Response.Status.SUCCESS, "The reservation was successful", body);
         } else {
             if (chooseHotel == null) {
-                return new Response( request.getSessionId(), "2", Response.Status.NOT_FOUND, "Hotel not found", null);
+                return new Response(request.getSessionId(), request.getRequestId(), "2", Response.Status.NOT_FOUND, "Hotel not found", null);
             } else {
-                return new Response( request.getSessionId(), "2", Response.Status.UNSUCCESSFUL, "There are not available dates ", null);
+                return new Response(request.getSessionId(), request.getRequestId(), "2", Response.Status.UNSUCCESSFUL, "There are not available dates ", null);
             }
         }
     }
 
+    /**
+     * Checks whether the client asked for the results of a request to be streamed in chunks.
+     *
+     * @param request The request.
+     * @return True if the body of the request has "stream" set to true.
+     */
+    private static boolean isStreamed(Request request) {
+        return Boolean.TRUE.equals(request.getBody().get("stream"));
+    }
+
+    /**
+     * Finds the first hotels of a sorted search that match the filter criteria of the request.
+     *
+     * @param request JSON object containing filter criteria.
+     * @param order The order and page of the search.
+     * @return The first hotels of the search, past the cursor of the request.
+     */
+    TopHotels sortHotels(Request request, SortOrder order) {
+        TopHotels page = new TopHotels(order);
+        matchHotels(request, page);
+        return page;
+    }
+
+    /**
+     * Builds the response of a sorted search, with the page of the worker in order and "more" telling whether
+     * more hotels matched than fit in it. The order of the request is repeated, so the reducer merges the pages of
+     * the workers in the same order.
+     *
+     * @param request The request.
+     * @param option The type of the request.
+     * @param order The order and page of the search.
+     * @param page The first hotels of the search.
+     * @return The response for the reducer.
+     */
+    private Response topHotelsResponse(Request request, String option, SortOrder order, TopHotels page) {
+        JSONObject body = new JSONObject();
+        body.put("result", page.toJson(hotels));
+        body.put("option", option);
+        body.put("user_role", "Client");
+        body.put("more", page.hasMore());
+        order.writeTo(body);
+        return new Response(request.getSessionId(), request.getRequestId(), option, Response.Status.SUCCESS, "Search completed", body);
+    }
+
     /**
      * Filters hotels based on various criteria such as area, date, number of people, price, and star rating.
      *
      * @param request JSON object containing filter criteria.
      * @return A list of JSON objects representing hotels that match the filter criteria.
      */
-    private List<JSONObject> filterHotels(Request request) {
+    List<JSONObject> filterHotels(Request request) {
+        List<JSONObject> result = new ArrayList<>();
+        filterHotels(request, result::add);
+        return result;
+    }
+
+    /**
+     * Filters hotels based on various criteria such as area, date, number of people, price, and star rating,
+     * handing every matching hotel to a consumer as soon as it is found.
+     *
+     * @param request JSON object containing filter criteria.
+     * @param results Receives the JSON representation of every hotel that matches the filter criteria.
+     */
+    private void filterHotels(Request request, Consumer<JSONObject> results) {
+        matchHotels(request, hotel -> results.accept(hotels.toJson(hotel)));
+    }
+
+    /**
+     * Finds the hotels that match the filter criteria of a request, handing every one to a consumer as it is found.
+     *
+     * @param request JSON object containing filter criteria.
+     * @param results Receives every hotel that matches the filter criteria.
+     */
+    private void matchHotels(Request request, Consumer<Hotel> results) {
         JSONObject requestBody = request.getBody();
 
         String areaFilter = (String) requestBody.get("area");
@@ -305,15 +626,32 @@ public class WorkerConnectionHandler implements Runnable {
         Long numPeopleFilter = (Long) requestBody.get("numPeople");
         Double priceFilter = (Double) requestBody.get("price");
         Double starsFilter = (Double) requestBody.get("stars");
+        // A date filter is a single day or a range "yyyy-MM-dd - yyyy-MM-dd", parsed once for all hotels
+        int[] days = dateFilter == null ? null : parseDays(dateFilter);
+
+        // The filters are evaluated by the indexes and columns of the store; only the hotels they select are looked at,
+        // and the dates of those are confirmed under the hotel's lock in case a booking changed them meanwhile
+        int[] rows = hotels.select(areaFilter, numPeopleFilter == null ? null : numPeopleFilter.intValue(), priceFilter, starsFilter, days);
+        Predicate<Hotel> answers = answers(request);
+        for (int row : rows) {
+            Hotel hotel = hotels.getHotel(row);
+            if (answers.test(hotel) && (days == null || hotels.isAvailable(hotel, days[0], days[1]))) {
+                results.accept(hotel);
+            }
+        }
+    }
 
-        return hotels.stream()
-                .filter(hotel -> (areaFilter == null || hotel.getArea().equalsIgnoreCase(areaFilter)))
-                .filter(hotel -> (dateFilter == null || hotel.getAvailableDates().contains(dateFilter)))
-                .filter(hotel -> (numPeopleFilter == null || hotel.getNumPeople() >= numPeopleFilter.intValue()))
-                .filter(hotel -> (priceFilter == null || hotel.getPrice() <= priceFilter))
-                .filter(hotel -> (starsFilter == null || hotel.getStars() >= starsFilter))
-                .map(Hotel::toJson)
-                .collect(Collectors.toList());
+    /**
+     * Parses a date filter into its first and last day.
+     *
+     * @param dates A single day "yyyy-MM-dd" or a range "yyyy-MM-dd - yyyy-MM-dd".
+     * @return The first and last day of the filter as epoch days.
+     */
+    private static int[] parseDays(String dates) {
+        String[] range = dates.split(" - ");
+        int first = DateProcessing.toEpochDay(range[0].trim());
+        int last = range.length > 1 ? DateProcessing.toEpochDay(range[1].trim()) : first;
+        return new int[]{first, last};
     }
 
     /**
@@ -340,16 +678,13 @@ public class WorkerConnectionHandler implements Runnable {
         int userId = ((Long) requestBody.get("user_id")).intValue();
 
         // Adding a new hotel with the extracted and converted attributes
-        synchronized (hotels) {
-
-            Hotel hotel = new Hotel(hotelName, numPeople, area, stars, numReviews, roomImage,price, availableDates,userId);
-            hotel.setReservations(reservations);
-            hotels.add(hotel);
-
+        Hotel hotel = new Hotel(hotelName, numPeople, area, stars, numReviews, roomImage,price, availableDates,userId);
+        hotel.setReservations(reservations);
+        if (!hotels.add(hotel)) {
+            return new Response(request.getSessionId(), request.getRequestId(), "1", Response.Status.UNSUCCESSFUL, "A hotel with this name already exists", null);
         }
 
-
-        return new Response(request.getSessionId(),
+        return new Response(request.getSessionId(), request.getRequestId(),
                 "1",
                 Response.Status.SUCCESS,
                 "Hotel added successfully",
@@ -370,28 +705,27 @@ public class WorkerConnectionHandler implements Runnable {
         String availableDates = requestBody.get("availableDates").toString(); // Extract available dates
         int manager_id = ((Number) requestBody.get("user_id")).intValue(); // Extract manager ID
 
-        Hotel selectedHotel = null;
-        synchronized (hotels) {
-            for (Hotel hotel : hotels) { // Iterate through the list of hotels
-                int hotel_manager = hotel.getManagerId();
-                if ((hotel.getHotelName()).equals(hotelName) ) { // Check if the hotel name matches the requested hotel
-                    if (hotel_manager != manager_id) { // Check if the manager is authorized to add dates to this hotel
-                        return new Response(request.getSessionId(), "2", Response.Status.UNSUCCESSFUL, "You are not authorized to add dates to this hotel", null);
-                    }
-                    foundHotel = true;
-                    hotel.addAvailableDates(availableDates);
-                    selectedHotel = hotel;
-                    break;
-
-                }
+        Hotel selectedHotel = hotels.find(hotelName); // Look up the requested hotel
+        JSONObject body = new JSONObject();
+        if (selectedHotel != null) {
+            if (selectedHotel.getManagerId() != manager_id) { // Check if the manager is authorized to add dates to this hotel
+                return new Response(request.getSessionId(), request.getRequestId(), "2", Response.Status.UNSUCCESSFUL, "You are not authorized to add dates to this hotel", null);
+            }
+            ReentrantLock hotelLock = hotels.lockFor(selectedHotel);
+            hotelLock.lock();
+            try {
+                foundHotel = true;
+                hotels.addAvailableDates(selectedHotel, availableDates);
+                body.put("availableDates", selectedHotel.getAvailableDates());
+            } finally {
+                hotelLock.unlock();
             }
         }
         if (foundHotel) {
-            JSONObject body = new JSONObject();
-            body.put("availableDates", selectedHotel.getAvailableDates());
-            return new Response(request.getSessionId() , "2",Response.Status.SUCCESS, "Date added successfully", body);
+            hotels.persist(selectedHotel);
+            return new Response(request.getSessionId(), request.getRequestId(), "2",Response.Status.SUCCESS, "Date added successfully", body);
         } else {
-            return new Response(request.getSessionId(), "2", Response.Status.NOT_FOUND, "Hotel not found", null);
+            return new Response(request.getSessionId(), request.getRequestId(), "2", Response.Status.NOT_FOUND, "Hotel not found", null);
         }
     }
 
@@ -400,34 +734,40 @@ public class WorkerConnectionHandler implements Runnable {
      * @param request JSON object containing the period for which reservations are requested.
      * @return A JSON object with the reservation counts by area.
      */
-    private Response reservationByArea(Request request) throws ParseException {
+    Response reservationByArea(Request request) throws ParseException {
         JSONObject requestBody = request.getBody();
         String period= requestBody.get("Period").toString();
         String[] periodSplit = period.split(" - ");
+        int periodStart = DateProcessing.toEpochDay(periodSplit[0]);
+        int periodEnd = DateProcessing.toEpochDay(periodSplit[1]);
         Map<Hotel,Integer> reservationsHotels= new HashMap<>();
         Map<String, Integer> reservationsByAreaMap;
-        synchronized (hotels) {
-            for (Hotel hotel : hotels) {
-                int count=0;
+        for (Hotel hotel : answeredHotels(request)) {
+            int count=0;
+            ReentrantLock hotelLock = hotels.lockFor(hotel); // Hotels are locked one at a time, never the whole shard
+            hotelLock.lock();
+            try {
                 Map<Integer, List<String>> reservations= hotel.getReservations();
                 for (Map.Entry<Integer, List<String>> entry : reservations.entrySet()) {
                     List<String> reservationDates= entry.getValue();
                     for(String dates:reservationDates){
-                        String[] date = dates.split(" - ");
-                        if (DateProcessing.compareDates(periodSplit[0], date[0]) && DateProcessing.compareDates(date[1], periodSplit[1])) {
+                        // Parsed in place, without splitting the string or creating date objects
+                        if (DateProcessing.isWithin(DateProcessing.rangeStart(dates), DateProcessing.rangeEnd(dates), periodStart, periodEnd)) {
                             count++;
                         }
                     }
                 }
-                if(count!=0){
-                    reservationsHotels.put(hotel,count);
-                }
-
+            } finally {
+                hotelLock.unlock();
+            }
+            if(count!=0){
+                reservationsHotels.put(hotel,count);
             }
-
-            reservationsByAreaMap = calculateReservationsByArea(reservationsHotels);
 
         }
+
+        reservationsByAreaMap = calculateReservationsByArea(reservationsHotels);
+
         JSONObject body = new JSONObject();
 
         JSONObject result = new JSONObject();
@@ -438,8 +778,7 @@ public class WorkerConnectionHandler implements Runnable {
         body.put("user_role", "Manager");
         body.put("result", result);
 
-        return new Response(
-                request.getSessionId(), "4",
+        return new Response(request.getSessionId(), request.getRequestId(), "4",
                 Response.Status.SUCCESS,
                 "Reservations retrieved successfully",
                 body
@@ -479,18 +818,21 @@ public class WorkerConnectionHandler implements Runnable {
 
         int manager_id = ((Number) requestBody.get("user_id")).intValue();
 
-        synchronized (hotels) {
-            for (Hotel hotel : hotels) {
-                if (Integer.valueOf(hotel.getManagerId()).equals(manager_id)) {
-                    hotelsByManager.add(hotel);
-                }
+        for (Hotel hotel : answeredHotels(request)) {
+            if (Integer.valueOf(hotel.getManagerId()).equals(manager_id)) { // The manager of a hotel never changes, no lock needed
+                hotelsByManager.add(hotel);
             }
+        }
 
-            for (Hotel hotel : hotelsByManager) {
-                Map<Integer, List<String>> reservations = hotel.getReservations();
-                if (!reservations.isEmpty()) {
+        for (Hotel hotel : hotelsByManager) {
+            ReentrantLock hotelLock = hotels.lockFor(hotel);
+            hotelLock.lock();
+            try {
+                if (!hotel.getReservations().isEmpty()) {
                     reservationsByManager.add(hotel);
                 }
+            } finally {
+                hotelLock.unlock();
             }
         }
         // Prepare and return the response containing the reservations.
@@ -500,8 +842,7 @@ public class WorkerConnectionHandler implements Runnable {
         body.put("user_role", "Manager");
         body.put("result", hotelsJsonArray);
 
-        return new Response(
-                request.getSessionId(), "3",
+        return new Response(request.getSessionId(), request.getRequestId(), "3",
                 Response.Status.SUCCESS,
                 "Reservations retrieved successfully",
                 body
@@ -522,39 +863,42 @@ public class WorkerConnectionHandler implements Runnable {
         BigDecimal updatedStars = BigDecimal.ZERO;
         int updatedReviews = 0;
 
-        synchronized (hotels) {
-            for (Hotel hotel : hotels) {
-                if (hotel.getHotelName().equalsIgnoreCase(hotelName)) {
-                    BigDecimal newRating = BigDecimal.valueOf(((Number) requestBody.get("newRating")).doubleValue());
-                    BigDecimal previousStars = BigDecimal.valueOf(hotel.getStars());
-                    int previousReviews = hotel.getNumReviews();
-
-                    // Calculating the new average
-                    updatedStars = previousStars.multiply(BigDecimal.valueOf(previousReviews))
-                            .add(newRating)
-                            .divide(BigDecimal.valueOf(previousReviews + 1), 3, RoundingMode.HALF_UP);
-
-                    updatedReviews = previousReviews + 1;
-
-                    // Updating the hotel object
-                    hotel.setStars(updatedStars.doubleValue());
-                    hotel.setNumReviews(updatedReviews);
-
-                    foundHotel = true;
-                    break;
-                }
+        Hotel hotel = hotels.find(hotelName);
+        if (hotel != null) {
+            ReentrantLock hotelLock = hotels.lockFor(hotel);
+            hotelLock.lock();
+            try {
+                BigDecimal newRating = BigDecimal.valueOf(((Number) requestBody.get("newRating")).doubleValue());
+                BigDecimal previousStars = BigDecimal.valueOf(hotel.getStars());
+                int previousReviews = hotel.getNumReviews();
+
+                // Calculating the new average
+                updatedStars = previousStars.multiply(BigDecimal.valueOf(previousReviews))
+                        .add(newRating)
+                        .divide(BigDecimal.valueOf(previousReviews + 1), 3, RoundingMode.HALF_UP);
+
+                updatedReviews = previousReviews + 1;
+
+                // Updating the hotel object
+                hotels.setStars(hotel, updatedStars.doubleValue()); // Also updates the stars column that searches read
+                hotel.setNumReviews(updatedReviews);
+
+                foundHotel = true;
+            } finally {
+                hotelLock.unlock();
             }
         }
 
         if (!foundHotel) {
-            return new Response(request.getSessionId(), "error", Response.Status.NOT_FOUND, "Hotel not found", null);
+            return new Response(request.getSessionId(), request.getRequestId(), "error", Response.Status.NOT_FOUND, "Hotel not found", null);
         }
+        hotels.persist(hotel);
 
         JSONObject body = new JSONObject();
         body.put("updatedStars", updatedStars.doubleValue());
         body.put("updatedReviews", updatedReviews);
 
-        return new Response(request.getSessionId(), "success", Response.Status.SUCCESS, "Hotel rated successfully", body);
+        return new Response(request.getSessionId(), request.getRequestId(), "success", Response.Status.SUCCESS, "Hotel rated successfully", body);
     }
 
 
@@ -577,9 +921,19 @@ public class WorkerConnectionHandler implements Runnable {
             hotelJson.put("numReviews", hotel.getNumReviews());
             hotelJson.put("hotelImage", hotel.getRoomImage());
             hotelJson.put("price", hotel.getPrice());
-            hotelJson.put("availableDates", hotel.getAvailableDates());
             hotelJson.put("managerId", hotel.getManagerId());
-            hotelJson.put("reservations", hotel.getReservations());
+            ReentrantLock hotelLock = this.hotels.lockFor(hotel);
+            hotelLock.lock();
+            try {
+                hotelJson.put("availableDates", new ArrayList<>(hotel.getAvailableDates()));
+                Map<Integer, List<String>> reservations = new HashMap<>();
+                for (Map.Entry<Integer, List<String>> entry : hotel.getReservations().entrySet()) {
+                    reservations.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+                }
+                hotelJson.put("reservations", reservations);
+            } finally {
+                hotelLock.unlock();
+            }
             hotelsJsonArray.add(hotelJson);
         }
         return hotelsJsonArray;
@@ -1,50 +1,101 @@
 package org.aueb.worker;
 
-import org.aueb.util.Constants;
+import org.aueb.entities.Hotel;
 import org.aueb.util.SocketUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutputStream;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class WorkerUtils {
     private static final Logger logger = LoggerFactory.getLogger(WorkerUtils.class); // Logger for the WorkerUtils class
+    public static final int INITIAL_BATCH_SIZE = 1000; // Hotels per frame of the initial hotels, which keeps a frame well under a megabyte
+
     /**
-     * Generates a hash code for a given item name, which can be used to distribute tasks among workers.
-     * @param itemName The name of the item to hash.
-     * @return An integer hash code.
+     * Establishes connections to all workers specified by their server ports and stores their connection info.
+     * This method is typically used at startup to initialize connections to all workers in the system.
+     * @param ports A list of ports, one for each worker, where the worker servers are listening.
+     * @param workerInfoMap A map to store WorkerInfo objects indexed by worker ID for later access.
      */
-    public static int hashFunction(String itemName) {
-        return itemName.hashCode();
+    public static void connectToWorkers(ArrayList<Integer> ports, LinkedHashMap<Integer, WorkerInfo> workerInfoMap) {
+        for (int i = 0; i < ports.size(); i++) {
+            workerInfoMap.put(i, connectToWorker(i, ports.get(i)));
+        }
     }
 
     /**
-     * Selects a worker based on the hash of an item. This method helps in distributing tasks evenly across workers.
-     * @param item The item based on which a worker needs to be selected.
-     * @param workerInfoMap A map of worker IDs to WorkerInfo objects.
-     * @return The ID of the worker selected for this item.
+     * Establishes a connection to a single worker.
+     * @param workerId The ID of the worker.
+     * @param port The port where the worker server is listening.
+     * @return The connection info of the worker.
      */
-    public static long selectWorker(String item, Map<Integer, WorkerInfo> workerInfoMap) {
-        int workerId = Math.abs(hashFunction(item)) % Constants.NUM_WORKER_NODES;
-        return workerInfoMap.get(workerId).getWorker_id();
+    public static WorkerInfo connectToWorker(int workerId, int port) {
+        logger.info("Connecting to worker " + workerId + " on port " + port);
+        Socket workerSocket = SocketUtils.createSocket("localhost", port);
+        return new WorkerInfo(workerId, workerSocket,
+                SocketUtils.createDataInputStream(workerSocket),
+                SocketUtils.createDataOutputStream(workerSocket));
     }
 
     /**
-     * Establishes connections to all workers specified by their server ports and stores their connection info.
-     * This method is typically used at startup to initialize connections to all workers in the system.
+     * Opens one shared channel to every worker. The channels are owned by the Master and borrowed by all client sessions,
+     * so the number of connections to the workers does not grow with the number of connected clients.
      * @param ports A list of ports, one for each worker, where the worker servers are listening.
-     * @param workerInfoMap A map to store WorkerInfo objects indexed by worker ID for later access.
+     * @return A map of worker IDs to the channel of each worker.
      */
-    public static void connectToWorkers(ArrayList<Integer> ports, LinkedHashMap<Integer, WorkerInfo> workerInfoMap) {
-        for (int i = 0; i < ports.size(); i++) {
-            logger.info("Connecting to worker " + i + " on port " + ports.get(i));
-            Socket workerSocket = SocketUtils.createSocket("localhost", ports.get(i));
-            workerInfoMap.put(i, new WorkerInfo(i, workerSocket,
-                    SocketUtils.createDataInputStream(workerSocket),
-                    SocketUtils.createDataOutputStream(workerSocket)));
+    public static LinkedHashMap<Integer, WorkerChannel> openChannels(ArrayList<Integer> ports) {
+        LinkedHashMap<Integer, WorkerInfo> workerInfoMap = new LinkedHashMap<>();
+        connectToWorkers(ports, workerInfoMap);
+        LinkedHashMap<Integer, WorkerChannel> channels = new LinkedHashMap<>();
+        for (Map.Entry<Integer, WorkerInfo> entry : workerInfoMap.entrySet()) {
+            channels.put(entry.getKey(), new WorkerChannel(entry.getValue()));
         }
+        return channels;
+    }
+
+    /**
+     * Opens the shared channel to a worker that joins after the Master has started.
+     * @param workerId The ID of the worker.
+     * @param port The port where the worker server is listening.
+     * @return The channel of the worker.
+     */
+    public static WorkerChannel openChannel(int workerId, int port) {
+        return new WorkerChannel(connectToWorker(workerId, port));
+    }
+
+    /**
+     * Sends a worker that has just started its initial hotels, on the first connection it accepts, in frames of at most
+     * INITIAL_BATCH_SIZE hotels. The first frame says whether the worker keeps the hotels it restored from disk, and the
+     * final one is marked "last". A batch is converted to JSON only once the previous one has been written, so the
+     * sender holds one batch at a time, and a worker that reads slowly only holds back its own sender.
+     * @param out The output stream of the connection.
+     * @param hotels The hotels of the worker, possibly none.
+     * @param keep Whether the worker keeps the hotels it restored.
+     * @throws RuntimeException If the hotels could not be sent.
+     */
+    public static void sendInitialHotels(DataOutputStream out, List<Hotel> hotels, boolean keep) {
+        int start = 0;
+        do {
+            int end = Math.min(start + INITIAL_BATCH_SIZE, hotels.size());
+            JSONArray batch = new JSONArray();
+            for (Hotel hotel : hotels.subList(start, end)) {
+                batch.add(hotel.toJson());
+            }
+            JSONObject frame = new JSONObject();
+            frame.put("hotels", batch);
+            if (start == 0) {
+                frame.put("keep", keep);
+            }
+            frame.put("last", end == hotels.size());
+            SocketUtils.safeSend(out, frame.toJSONString());
+            start = end;
+        } while (start < hotels.size());
     }
 }
@@ -0,0 +1,128 @@
+package org.aueb.entities;
+
+import org.aueb.util.DateProcessing;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the AvailabilitySet: merging ranges on add, containment and bookings at the edges and inside of a range.
+ */
+public class AvailabilitySetTest {
+
+    @Test
+    public void addMergesOverlappingAndAdjacentRanges() {
+        AvailabilitySet set = new AvailabilitySet(List.of("2024-07-10 - 2024-07-20"));
+        set.add("2024-07-15 - 2024-07-25"); // Overlaps the end
+        assertEquals(List.of("2024-07-10 - 2024-07-25"), set.toStrings());
+        set.add("2024-07-26 - 2024-07-28"); // Starts the day after the end
+        assertEquals(List.of("2024-07-10 - 2024-07-28"), set.toStrings());
+        set.add("2024-07-01 - 2024-07-09"); // Ends the day before the start
+        assertEquals(List.of("2024-07-01 - 2024-07-28"), set.toStrings());
+        set.add("2024-07-05 - 2024-07-06"); // Contained
+        assertEquals(List.of("2024-07-01 - 2024-07-28"), set.toStrings());
+    }
+
+    @Test
+    public void addKeepsSeparateRangesSortedAndMergesThoseItBridges() {
+        AvailabilitySet set = new AvailabilitySet();
+        set.add("2024-09-01 - 2024-09-05 , 2024-07-01 - 2024-07-05 , 2024-08-01 - 2024-08-05");
+        assertEquals(List.of("2024-07-01 - 2024-07-05", "2024-08-01 - 2024-08-05", "2024-09-01 - 2024-09-05"), set.toStrings());
+        assertEquals(3, set.rangeCount());
+
+        set.add("2024-07-06 - 2024-08-31"); // Touches all three
+        assertEquals(List.of("2024-07-01 - 2024-09-05"), set.toStrings());
+        assertEquals(1, set.rangeCount());
+    }
+
+    @Test
+    public void addIgnoresReversedRanges() {
+        AvailabilitySet set = new AvailabilitySet();
+        set.add(day("2024-07-10"), day("2024-07-01"));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void addRejectsMalformedRanges() {
+        AvailabilitySet set = new AvailabilitySet(List.of("2024-07-01 - 2024-07-05"));
+        for (String range : new String[]{"a - b", "2024-07-10", "2024-07-10 - 2024-07-12 - 2024-07-14", "2024-07-10 -2024-07-12",
+                "2024-02-30 - 2024-03-02", ""}) {
+            assertThrows(IllegalArgumentException.class, () -> set.add(range), range);
+        }
+        assertEquals(List.of("2024-07-01 - 2024-07-05"), set.toStrings());
+    }
+
+    @Test
+    public void containsNeedsASingleRange() {
+        AvailabilitySet set = new AvailabilitySet(List.of("2024-07-01 - 2024-07-05 , 2024-07-07 - 2024-07-10"));
+        assertTrue(set.contains(day("2024-07-01"), day("2024-07-05")));
+        assertTrue(set.contains(day("2024-07-10"), day("2024-07-10")));
+        assertFalse(set.contains(day("2024-07-04"), day("2024-07-08"))); // Spans the gap
+        assertFalse(set.contains(day("2024-06-30"), day("2024-07-02")));
+        assertFalse(set.contains(day("2024-07-10"), day("2024-07-11")));
+    }
+
+    @Test
+    public void bookingAtTheStartShortensTheRange() {
+        AvailabilitySet set = new AvailabilitySet(List.of("2024-07-01 - 2024-07-10"));
+        assertTrue(set.book(day("2024-07-01"), day("2024-07-04")));
+        assertEquals(List.of("2024-07-04 - 2024-07-10"), set.toStrings()); // The check-out day stays available
+    }
+
+    @Test
+    public void bookingUpToTheEndKeepsTheCheckOutDay() {
+        AvailabilitySet set = new AvailabilitySet(List.of("2024-07-01 - 2024-07-10"));
+        assertTrue(set.book(day("2024-07-06"), day("2024-07-10")));
+        assertEquals(List.of("2024-07-01 - 2024-07-05", "2024-07-10 - 2024-07-10"), set.toStrings());
+    }
+
+    @Test
+    public void bookingInsideSplitsTheRangeInTwo() {
+        AvailabilitySet set = new AvailabilitySet(List.of("2024-07-01 - 2024-07-05 , 2024-07-10 - 2024-07-20 , 2024-08-01 - 2024-08-05"));
+        assertTrue(set.book(day("2024-07-12"), day("2024-07-15")));
+        assertEquals(List.of("2024-07-01 - 2024-07-05", "2024-07-10 - 2024-07-11", "2024-07-15 - 2024-07-20",
+                "2024-08-01 - 2024-08-05"), set.toStrings());
+
+        // The booked nights are gone, the nights around them can still be booked
+        assertFalse(set.book(day("2024-07-11"), day("2024-07-13")));
+        assertTrue(set.book(day("2024-07-10"), day("2024-07-11")));
+        assertTrue(set.book(day("2024-07-15"), day("2024-07-20")));
+        assertEquals(List.of("2024-07-01 - 2024-07-05", "2024-07-11 - 2024-07-11", "2024-07-20 - 2024-07-20",
+                "2024-08-01 - 2024-08-05"), set.toStrings());
+    }
+
+    @Test
+    public void bookingOutsideOrAcrossRangesChangesNothing() {
+        AvailabilitySet set = new AvailabilitySet(List.of("2024-07-01 - 2024-07-05 , 2024-07-07 - 2024-07-10"));
+        List<String> before = set.toStrings();
+        assertFalse(set.book(day("2024-07-04"), day("2024-07-08"))); // Across the gap
+        assertFalse(set.book(day("2024-06-28"), day("2024-07-02"))); // Before the first range
+        assertFalse(set.book(day("2024-07-09"), day("2024-07-11"))); // Past the last range
+        assertFalse(set.book(day("2024-07-03"), day("2024-07-02"))); // Check-out before check-in
+        assertTrue(set.book(day("2024-07-03"), day("2024-07-03"))); // No night to book
+        assertEquals(before, set.toStrings());
+    }
+
+    @Test
+    public void rangesCanGrowPastTheInitialCapacity() {
+        AvailabilitySet set = new AvailabilitySet();
+        int first = day("2024-01-01");
+        for (int i = 0; i < 100; i++) {
+            set.add(first + 3 * i, first + 3 * i + 1);
+        }
+        assertEquals(100, set.rangeCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first + 3 * i, set.rangeStart(i));
+            assertEquals(first + 3 * i + 1, set.rangeEnd(i));
+        }
+        set.add(first, first + 300);
+        assertEquals(1, set.rangeCount());
+    }
+
+    /* Epoch day of a date */
+    private static int day(String date) {
+        return DateProcessing.toEpochDay(date);
+    }
+}
@@ -0,0 +1,166 @@
+package org.aueb.reducer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the AggregationTable: concurrent partial results of interleaved requests, streams and eviction.
+ */
+public class AggregationTableTest {
+    private static final int WORKERS = 4; // Number of workers answering every request, one thread each
+    private static final int SESSIONS = 8; // Number of sessions with requests in flight at once
+    private static final int REQUESTS = 500; // Number of requests of every session
+
+    @Test
+    public void concurrentOffersCompleteEverySlotOnceWithItsOwnParts() throws Exception {
+        AggregationTable table = new AggregationTable();
+        Map<String, List<String>> completed = new ConcurrentHashMap<>(); // Parts of every completed slot, by request
+        AtomicInteger completions = new AtomicInteger();
+        List<String> keys = new ArrayList<>();
+        for (long session = 0; session < SESSIONS; session++) {
+            for (long request = 0; request < REQUESTS; request++) {
+                keys.add(session + ":" + request);
+            }
+        }
+
+        runWorkers(worker -> {
+            // Every worker answers all requests, in an order of its own, so the parts of different requests interleave
+            List<String> order = new ArrayList<>(keys);
+            Collections.shuffle(order, new Random(worker));
+            for (String key : order) {
+                String[] ids = key.split(":");
+                AggregationTable.Slot slot = table.offer(Long.valueOf(ids[0]), Long.valueOf(ids[1]), key + "/" + worker, WORKERS);
+                if (slot != null) {
+                    completions.incrementAndGet();
+                    assertNull(completed.put(key, new ArrayList<>(slot.getPartialResults())), "Slot " + key + " completed twice");
+                }
+            }
+        });
+
+        assertEquals(keys.size(), completions.get());
+        assertEquals(0, table.size());
+        for (String key : keys) {
+            List<String> parts = completed.get(key);
+            assertNotNull(parts, "Slot " + key + " never completed");
+            Set<String> expected = new HashSet<>();
+            for (int worker = 0; worker < WORKERS; worker++) {
+                expected.add(key + "/" + worker);
+            }
+            assertEquals(WORKERS, parts.size());
+            assertEquals(expected, new HashSet<>(parts));
+        }
+    }
+
+    @Test
+    public void concurrentChunksAreNumberedInOneSequenceEndingWithTheLast() throws Exception {
+        AggregationTable table = new AggregationTable();
+        int chunksPerWorker = 5;
+        Map<Long, List<AggregationTable.Chunk>> chunks = new ConcurrentHashMap<>(); // Forwarded chunks, by request
+
+        runWorkers(worker -> {
+            for (long request = 0; request < REQUESTS; request++) {
+                for (int chunk = 0; chunk < chunksPerWorker; chunk++) {
+                    boolean done = chunk == chunksPerWorker - 1;
+                    AggregationTable.Chunk position = table.offerChunk(1L, request, done ? 0 : 10, done, WORKERS);
+                    if (position != null) {
+                        chunks.computeIfAbsent(request, r -> Collections.synchronizedList(new ArrayList<>())).add(position);
+                    }
+                }
+            }
+        });
+
+        for (long request = 0; request < REQUESTS; request++) {
+            List<AggregationTable.Chunk> forwarded = chunks.get(request);
+            // The empty last chunks of all workers but the last one are not forwarded
+            int expected = WORKERS * (chunksPerWorker - 1) + 1;
+            assertEquals(expected, forwarded.size());
+            Set<Long> sequences = new HashSet<>();
+            AggregationTable.Chunk last = null;
+            for (AggregationTable.Chunk chunk : forwarded) {
+                assertTrue(sequences.add(chunk.getSequence()));
+                if (chunk.isLast()) {
+                    assertNull(last, "Request " + request + " has two last chunks");
+                    last = chunk;
+                }
+            }
+            assertNotNull(last);
+            assertEquals(expected - 1, last.getSequence());
+            assertEquals(WORKERS * (chunksPerWorker - 1) * 10, last.getTotalResults());
+            for (long sequence = 0; sequence < expected; sequence++) {
+                assertTrue(sequences.contains(sequence));
+            }
+        }
+    }
+
+    @Test
+    public void lastArrivalReceivesTheSlot() {
+        AggregationTable table = new AggregationTable();
+        assertNull(table.offer(1L, 1L, "a", 3));
+        assertNull(table.offer(1L, 2L, "other", 2)); // Another request of the same session
+        assertNull(table.offer(1L, 1L, "b", 3));
+        AggregationTable.Slot slot = table.offer(1L, 1L, "c", 3);
+        assertNotNull(slot);
+        assertEquals(List.of("a", "b", "c"), slot.getPartialResults());
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void evictionDropsOnlyExpiredSlotsAndStreams() throws InterruptedException {
+        AggregationTable table = new AggregationTable();
+        assertNull(table.offer(1L, 1L, "a", 2));
+        assertNull(table.offerChunk(1L, 2L, 0, true, 2));
+        assertEquals(0, table.evictExpired(60_000));
+        assertEquals(1, table.size());
+
+        Thread.sleep(20);
+        assertEquals(2, table.evictExpired(10));
+        assertEquals(0, table.size());
+
+        // A part that arrives after its slot was dropped starts a new slot instead of completing the old one
+        assertNull(table.offer(1L, 1L, "b", 2));
+        assertEquals(1, table.size());
+    }
+
+    /* Runs the given task on one thread per worker, all started at once, and rethrows the first failure */
+    private static void runWorkers(WorkerTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int worker = 0; worker < WORKERS; worker++) {
+                int id = worker;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run(id);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /* The work of one worker thread */
+    private interface WorkerTask {
+        void run(int worker) throws Exception;
+    }
+}
@@ -0,0 +1,69 @@
+package org.aueb.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the epoch day conversions of DateProcessing against java.time.
+ */
+public class DateProcessingTest {
+
+    @Test
+    public void matchesLocalDateOnEveryDayFrom1900To2200() {
+        LocalDate end = LocalDate.of(2200, 12, 31);
+        for (LocalDate date = LocalDate.of(1900, 1, 1); !date.isAfter(end); date = date.plusDays(1)) {
+            String text = date.toString();
+            int epochDay = (int) date.toEpochDay();
+            assertEquals(epochDay, DateProcessing.toEpochDay(text), text);
+            assertEquals(text, DateProcessing.fromEpochDay(epochDay));
+        }
+    }
+
+    @Test
+    public void handlesLeapDays() {
+        assertEquals(LocalDate.of(2024, 2, 29).toEpochDay(), DateProcessing.toEpochDay("2024-02-29"));
+        assertEquals(LocalDate.of(2000, 2, 29).toEpochDay(), DateProcessing.toEpochDay("2000-02-29"));
+        assertThrows(IllegalArgumentException.class, () -> DateProcessing.toEpochDay("2023-02-29"));
+        assertThrows(IllegalArgumentException.class, () -> DateProcessing.toEpochDay("1900-02-29")); // Not a leap year
+        assertEquals("2024-03-01", DateProcessing.fromEpochDay(DateProcessing.addDays(DateProcessing.toEpochDay("2024-02-29"), 1)));
+    }
+
+    @Test
+    public void rejectsInvalidDates() {
+        for (String date : new String[]{"2024-02-30", "2024-13-01", "2024-00-10", "2024-04-31", "2024-01-00",
+                "2024-1-01", "2024/01/01", "2024-01-0a", "abcd-ef-gh", "+024-01-01", "2024-01-01 ", ""}) {
+            assertThrows(IllegalArgumentException.class, () -> DateProcessing.toEpochDay(date), date);
+        }
+    }
+
+    @Test
+    public void readsTheDatesOfARange() {
+        String range = "2024-02-28 - 2024-03-01";
+        assertEquals(LocalDate.of(2024, 2, 28).toEpochDay(), DateProcessing.rangeStart(range));
+        assertEquals(LocalDate.of(2024, 3, 1).toEpochDay(), DateProcessing.rangeEnd(range));
+        assertThrows(IllegalArgumentException.class, () -> DateProcessing.rangeEnd("2024-02-28 - 2024-03-0"));
+        assertThrows(IllegalArgumentException.class, () -> DateProcessing.toEpochDay(range, 20));
+    }
+
+    @Test
+    public void comparesAndShiftsDates() throws ParseException {
+        assertTrue(DateProcessing.compareDates("2024-01-31", "2024-02-01"));
+        assertTrue(DateProcessing.compareDates("2024-02-01", "2024-02-01"));
+        assertFalse(DateProcessing.compareDates("2024-02-02", "2024-02-01"));
+        assertThrows(ParseException.class, () -> DateProcessing.compareDates("2024-02-30", "2024-03-01"));
+        assertEquals("2023-12-31", DateProcessing.subtractOneDay("2024-01-01"));
+        assertEquals("2024-02-29", DateProcessing.subtractOneDay("2024-03-01"));
+    }
+
+    @Test
+    public void fromEpochDayRejectsYearsPastFourDigits() {
+        assertEquals("0000-01-01", DateProcessing.fromEpochDay((int) LocalDate.of(0, 1, 1).toEpochDay()));
+        assertEquals("9999-12-31", DateProcessing.fromEpochDay((int) LocalDate.of(9999, 12, 31).toEpochDay()));
+        assertThrows(IllegalArgumentException.class, () -> DateProcessing.fromEpochDay((int) LocalDate.of(10000, 1, 1).toEpochDay()));
+        assertThrows(IllegalArgumentException.class, () -> DateProcessing.fromEpochDay((int) LocalDate.of(-1, 12, 31).toEpochDay()));
+    }
+}
@@ -0,0 +1,142 @@
+package org.aueb.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round-trip tests of the frames written by FrameCodec and read by FrameCodec and FrameDecoder.
+ */
+public class FrameCodecTest {
+
+    @Test
+    public void roundTripsPlainAndEmptyPayloads() throws IOException {
+        assertEquals("{\"type\":1}", roundTrip("{\"type\":1}"));
+        assertEquals("", roundTrip(""));
+    }
+
+    @Test
+    public void roundTripsPayloadsAboveTheWriteUtfLimit() throws IOException {
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; payload.length() < 200_000; i++) {
+            payload.append("hotel-").append(i).append(i % 7 == 0 ? "-Αθήνα-" : "-");
+        }
+        String expected = payload.toString();
+        assertTrue(expected.getBytes(StandardCharsets.UTF_8).length > 65535);
+        assertEquals(expected, roundTrip(expected));
+    }
+
+    @Test
+    public void encodesSurrogatePairsAsFourBytes() throws IOException {
+        String payload = "a😀b𝄞"; // Two supplementary characters
+        assertArrayEquals(payload.getBytes(StandardCharsets.UTF_8), payloadBytes(payload));
+        assertEquals(payload, roundTrip(payload));
+    }
+
+    @Test
+    public void replacesLoneSurrogatesLikeGetBytes() throws IOException {
+        for (String payload : new String[]{"a\uD83Db", "a\uDE00b", "end\uD83D", "\uDE00\uD83D"}) {
+            assertArrayEquals(payload.getBytes(StandardCharsets.UTF_8), payloadBytes(payload), payload);
+            assertEquals(new String(payload.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), roundTrip(payload));
+        }
+    }
+
+    @Test
+    public void encodeMatchesWriteFrame() throws IOException {
+        String payload = "μήνυμα 😀";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameCodec.writeFrame(out, payload, (byte) 3);
+        ByteBuffer frame = FrameCodec.encode(payload, (byte) 3);
+        byte[] encoded = new byte[frame.remaining()];
+        frame.get(encoded);
+        assertArrayEquals(out.toByteArray(), encoded);
+        assertEquals(3, encoded[4]);
+    }
+
+    @Test
+    public void decoderReassemblesFramesSplitAtAnyBoundary() throws IOException {
+        List<String> payloads = List.of("first", "", "Ελληνικά 😀", "x".repeat(70_000), "", "last");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String payload : payloads) {
+            FrameCodec.writeFrame(out, payload);
+        }
+        byte[] stream = out.toByteArray();
+
+        // Every split point of the stream in two reads, then random read sizes
+        for (int split = 0; split <= stream.length; split += split < 64 ? 1 : 997) {
+            FrameDecoder decoder = new FrameDecoder();
+            List<String> frames = new ArrayList<>();
+            decoder.decode(ByteBuffer.wrap(stream, 0, split), frames);
+            decoder.decode(ByteBuffer.wrap(stream, split, stream.length - split), frames);
+            assertEquals(payloads, frames, "split at " + split);
+        }
+        Random random = new Random(42);
+        for (int run = 0; run < 50; run++) {
+            FrameDecoder decoder = new FrameDecoder();
+            List<String> frames = new ArrayList<>();
+            int position = 0;
+            while (position < stream.length) {
+                int count = Math.min(stream.length - position, 1 + random.nextInt(run % 2 == 0 ? 8 : 20_000));
+                decoder.decode(ByteBuffer.wrap(stream, position, count), frames);
+                position += count;
+            }
+            assertEquals(payloads, frames);
+        }
+    }
+
+    @Test
+    public void decoderEmitsAnEmptyFrameAsSoonAsItsHeaderArrives() throws IOException {
+        FrameDecoder decoder = new FrameDecoder();
+        List<String> frames = new ArrayList<>();
+        byte[] header = new byte[FrameCodec.HEADER_SIZE];
+        FrameCodec.writeHeader(header, 0, 0, FrameCodec.FLAG_NONE);
+        decoder.decode(ByteBuffer.wrap(header), frames);
+        assertEquals(List.of(""), frames);
+    }
+
+    @Test
+    public void rejectsOversizedAndNegativeLengths() {
+        for (int length : new int[]{FrameCodec.MAX_FRAME_SIZE + 1, Integer.MAX_VALUE, -1}) {
+            byte[] header = new byte[FrameCodec.HEADER_SIZE];
+            FrameCodec.writeHeader(header, 0, length, FrameCodec.FLAG_NONE);
+            assertThrows(IOException.class, () -> FrameCodec.readFrame(new DataInputStream(new ByteArrayInputStream(header))));
+            assertThrows(IOException.class, () -> new FrameDecoder().decode(ByteBuffer.wrap(header), new ArrayList<>()));
+        }
+    }
+
+    @Test
+    public void readFrameFailsOnATruncatedPayload() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameCodec.writeFrame(out, "truncated");
+        byte[] frame = out.toByteArray();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame, 0, frame.length - 1));
+        assertThrows(IOException.class, () -> FrameCodec.readFrame(in));
+    }
+
+    /* Writes a message as a frame and reads it back */
+    private static String roundTrip(String payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameCodec.writeFrame(out, payload);
+        return FrameCodec.readFrame(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    /* Returns the payload bytes of the frame of a message */
+    private static byte[] payloadBytes(String payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameCodec.writeFrame(out, payload);
+        byte[] frame = out.toByteArray();
+        byte[] bytes = new byte[frame.length - FrameCodec.HEADER_SIZE];
+        System.arraycopy(frame, FrameCodec.HEADER_SIZE, bytes, 0, bytes.length);
+        return bytes;
+    }
+}
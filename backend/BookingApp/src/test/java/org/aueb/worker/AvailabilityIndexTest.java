@@ -0,0 +1,70 @@
+package org.aueb.worker;
+
+import org.aueb.util.DateProcessing;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the AvailabilityIndex: the rows selected for a range of days and the bound on the days it indexes.
+ */
+public class AvailabilityIndexTest {
+    private static final int FIRST = DateProcessing.toEpochDay("2024-01-01"); // First indexed day of the tests
+    private static final int LAST = DateProcessing.toEpochDay("2025-12-31"); // Last indexed day of the tests
+
+    @Test
+    public void selectsTheRowsAvailableOnEveryDay() {
+        AvailabilityIndex index = new AvailabilityIndex(FIRST, LAST);
+        index.set(0, day("2024-07-01"), day("2024-07-10"));
+        index.set(1, day("2024-07-05"), day("2024-07-20"));
+        index.set(70_000, day("2024-07-01"), day("2024-07-31")); // In the second chunk
+
+        assertArrayEquals(rows(71_000, 0, 70_000), index.available(day("2024-07-01"), day("2024-07-04"), 71_000));
+        assertArrayEquals(rows(71_000, 0, 1, 70_000), index.available(day("2024-07-05"), day("2024-07-10"), 71_000));
+        assertArrayEquals(rows(71_000, 1, 70_000), index.available(day("2024-07-08"), day("2024-07-15"), 71_000));
+        assertArrayEquals(rows(71_000), index.available(day("2024-07-25"), day("2024-08-02"), 71_000));
+
+        index.clear(1, day("2024-07-08"), day("2024-07-09"));
+        assertArrayEquals(rows(71_000, 0, 70_000), index.available(day("2024-07-08"), day("2024-07-08"), 71_000));
+    }
+
+    @Test
+    public void indexesOnlyTheDaysOfItsWindow() {
+        AvailabilityIndex index = new AvailabilityIndex(FIRST, LAST);
+        index.set(0, day("1900-01-01"), day("2999-12-31")); // Would take 365k chunks of 8 KB
+        assertEquals(LAST - FIRST + 1, index.chunkCount());
+
+        assertArrayEquals(rows(1, 0), index.available(FIRST, LAST, 1));
+        assertNull(index.available(FIRST - 1, FIRST, 1)); // Any row may be available outside of the window
+        assertNull(index.available(LAST, LAST + 1, 1));
+
+        index.clear(0, day("1900-01-01"), day("2999-12-31"));
+        assertArrayEquals(rows(1), index.available(FIRST, LAST, 1));
+    }
+
+    @Test
+    public void indexesTheDaysAroundToday() {
+        AvailabilityIndex index = new AvailabilityIndex();
+        int today = (int) LocalDate.now(ZoneOffset.UTC).toEpochDay();
+        index.set(0, today - 10_000, today + 10_000);
+        assertTrue(index.chunkCount() <= AvailabilityIndex.PAST_DAYS + AvailabilityIndex.FUTURE_DAYS + 1);
+        assertArrayEquals(rows(1, 0), index.available(today, today + 30, 1));
+    }
+
+    /* Bitmap of the given rows out of size */
+    private static long[] rows(int size, int... rows) {
+        long[] bitmap = new long[(size + 63) >>> 6];
+        for (int row : rows) {
+            bitmap[row >>> 6] |= 1L << row;
+        }
+        return bitmap;
+    }
+
+    /* Epoch day of a date */
+    private static int day(String date) {
+        return DateProcessing.toEpochDay(date);
+    }
+}
@@ -0,0 +1,110 @@
+package org.aueb.worker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the ConsistentHashRing: the balance of the shards, the hotels that move when a worker joins or leaves,
+ * and the placement of independently built rings.
+ */
+public class ConsistentHashRingTest {
+    private static final int HOTELS = 100_000; // Number of hotel names placed by the tests
+
+    @Test
+    public void shardsAreBalanced() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of(1, 2, 3, 4));
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < HOTELS; i++) {
+            counts.merge(ring.workerFor(name(i)), 1, Integer::sum);
+        }
+        assertEquals(Set.of(1, 2, 3, 4), counts.keySet());
+        for (int count : counts.values()) {
+            assertEquals(HOTELS / 4.0, count, HOTELS / 4.0 * 0.25, counts.toString());
+        }
+    }
+
+    @Test
+    public void joiningWorkerTakesAboutOneNthAndNothingElseMoves() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of(1, 2, 3, 4));
+        ConsistentHashRing after = before.withWorker(5);
+        int moved = 0;
+        for (int i = 0; i < HOTELS; i++) {
+            int from = before.workerFor(name(i));
+            int to = after.workerFor(name(i));
+            if (from != to) {
+                assertEquals(5, to, "Hotels only move to the new worker");
+                moved++;
+            }
+        }
+        assertEquals(HOTELS / 5.0, moved, HOTELS / 5.0 * 0.3);
+    }
+
+    @Test
+    public void leavingWorkerGivesAwayOnlyItsOwnHotels() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of(1, 2, 3, 4, 5));
+        ConsistentHashRing after = before.withoutWorker(3);
+        int moved = 0;
+        for (int i = 0; i < HOTELS; i++) {
+            int from = before.workerFor(name(i));
+            int to = after.workerFor(name(i));
+            if (from == 3) {
+                assertNotEquals(3, to);
+                moved++;
+            } else {
+                assertEquals(from, to, "Hotels of the other workers stay");
+            }
+        }
+        assertEquals(HOTELS / 5.0, moved, HOTELS / 5.0 * 0.3);
+    }
+
+    @Test
+    public void independentlyBuiltRingsPlaceEveryHotelIdentically() {
+        ConsistentHashRing master = new ConsistentHashRing(List.of(4, 2, 7, 1));
+        ConsistentHashRing worker = new ConsistentHashRing(new TreeSet<>(List.of(1, 2, 4, 7)));
+        ConsistentHashRing grown = new ConsistentHashRing(List.of(1)).withWorker(7).withWorker(2).withWorker(9).withWorker(4).withoutWorker(9);
+        for (int i = 0; i < HOTELS; i++) {
+            List<Integer> holders = master.holdersFor(name(i), 2);
+            assertEquals(holders, worker.holdersFor(name(i), 2));
+            assertEquals(holders, grown.holdersFor(name(i), 2));
+        }
+    }
+
+    @Test
+    public void namesArePlacedIgnoringCaseInAnyLocale() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of(1, 2, 3, 4, 5, 6, 7, 8));
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.forLanguageTag("tr"));
+            for (int i = 0; i < 1000; i++) {
+                String name = "Istanbul Inn " + i;
+                assertEquals(ring.workerFor(name.toLowerCase(Locale.ROOT)), ring.workerFor(name.toUpperCase(Locale.ROOT)));
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void holdersFollowThePrimaryInOrderOfId() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of(2, 5, 9));
+        assertEquals(List.of(5, 9), ring.holders(5, 2));
+        assertEquals(List.of(9, 2), ring.holders(9, 2)); // Wraps around
+        assertEquals(List.of(2, 5, 9), ring.holders(2, 5)); // At most every worker once
+        assertEquals(List.of(9), ring.holders(9, 0));
+        assertThrows(IllegalArgumentException.class, () -> ring.holders(3, 2));
+        assertThrows(IllegalStateException.class, () -> new ConsistentHashRing(List.of()).workerFor("hotel"));
+    }
+
+    /* Name of the i-th hotel */
+    private static String name(int i) {
+        return "Hotel " + i;
+    }
+}
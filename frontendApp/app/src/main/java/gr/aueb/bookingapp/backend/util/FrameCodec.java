@@ -0,0 +1,54 @@
+package gr.aueb.bookingapp.backend.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes the length-prefixed frames used by the backend.
+ * A frame consists of a 4-byte big-endian payload length, a flags byte and the raw UTF-8 payload.
+ */
+public class FrameCodec {
+    public static final int HEADER_SIZE = 5; // Payload length (int) followed by the flags byte
+    public static final byte FLAG_NONE = 0; // Flags of a plain, self-contained message
+    public static final int MAX_FRAME_SIZE = 256 * 1024 * 1024; // Upper bound on the payload size of a frame
+
+    /**
+     * Writes a message as a single frame without flags.
+     *
+     * @param out     The stream to write the frame to.
+     * @param payload The message to send.
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    public static void writeFrame(DataOutputStream out, String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[HEADER_SIZE + bytes.length];
+        frame[0] = (byte) (bytes.length >>> 24);
+        frame[1] = (byte) (bytes.length >>> 16);
+        frame[2] = (byte) (bytes.length >>> 8);
+        frame[3] = (byte) bytes.length;
+        frame[4] = FLAG_NONE;
+        System.arraycopy(bytes, 0, frame, HEADER_SIZE, bytes.length);
+        out.write(frame);
+        out.flush();
+    }
+
+    /**
+     * Reads a single frame and returns its payload.
+     *
+     * @param in The stream to read the frame from.
+     * @return The payload of the frame.
+     * @throws IOException If an I/O error occurs, the stream ends, or the frame is malformed.
+     */
+    public static String readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        in.readByte(); // flags
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
@@ -7,11 +7,13 @@ import android.util.Log;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 
+import gr.aueb.bookingapp.backend.util.FrameCodec;
 import gr.aueb.bookingapp.backend.util.Response;
 
 /**
@@ -61,7 +63,7 @@ public class ServerAPI {
             try {
                 socket = new Socket(HOST, PORT);
                 outputStream = new DataOutputStream(socket.getOutputStream());
-                inputStream = new DataInputStream(socket.getInputStream());
+                inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
             } catch (IOException e) {
                 Log.e("ServerAPI", "Failed to connect to the server: " + e.getMessage());
             }
@@ -82,11 +84,10 @@ public class ServerAPI {
                 }
 
                 // Send request
-                outputStream.writeUTF(request.toJSONString());
-                outputStream.flush();
+                FrameCodec.writeFrame(outputStream, request.toJSONString());
 
                 // Await response
-                String responseStr = inputStream.readUTF();
+                String responseStr = FrameCodec.readFrame(inputStream);
                 final Response response = new Response(responseStr);
 
                 // Use Handler to post the response back to the main thread